@@ -0,0 +1,289 @@
+package org.semanticweb.owlapitools.cachedreasoner;
+
+import static org.semanticweb.owlapitools.cachedreasoner.CacheKeys.*;
+import static org.semanticweb.owlapitools.cachedreasoner.CachedOWLReasoner.key;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import javax.annotation.Nullable;
+
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLEquivalentClassesAxiom;
+import org.semanticweb.owlapi.model.OWLSubClassOfAxiom;
+import org.semanticweb.owlapi.reasoner.Node;
+import org.semanticweb.owlapi.reasoner.NodeSet;
+import org.semanticweb.owlapi.reasoner.impl.OWLClassNodeSet;
+
+/**
+ * Derives answers to class queries from answers already known to a {@link CachedOWLReasoner}, either precomputed or
+ * cached, so that a miss does not always reach the delegate. The rules only use results that are complete for their
+ * key:
+ * <ul>
+ * <li>A is subsumed by B if A is unsatisfiable, if B is among the cached superclasses of A, or A among the cached
+ * subclasses of B; it is not if, in addition, the equivalence class of the satisfiable side is known and does not
+ * contain the other side;</li>
+ * <li>an equivalence between classes holds if they all are in the known equivalence class of one of them;</li>
+ * <li>satisfiability follows from a known equivalence class, which is the bottom node for unsatisfiable classes, or
+ * from the cached set of unsatisfiable classes;</li>
+ * <li>direct sub and super classes are the transitive reduction of the cached indirect ones, when the indirect
+ * answers of all their members are known as well;</li>
+ * <li>the equivalence class of a named class is any cached node containing it, including the nodes among the
+ * subclasses of its superclasses.</li>
+ * </ul>
+ * Each method returns null when its rules do not apply.
+ *
+ * @author ignazio
+ */
+final class AnswerDerivation {
+
+    /** The cache the rules read from. */
+    final ReasonerCache cache;
+    private final PrecomputedHierarchies hierarchies;
+    private final OWLClass nothing;
+
+    /**
+     * @param cache
+     *        cached results
+     * @param hierarchies
+     *        precomputed results
+     * @param df
+     *        data factory for owl:Nothing
+     */
+    AnswerDerivation(ReasonerCache cache, PrecomputedHierarchies hierarchies, OWLDataFactory df) {
+        this.cache = cache;
+        this.hierarchies = hierarchies;
+        nothing = df.getOWLNothing();
+    }
+
+    /**
+     * @param ce
+     *        class expression
+     * @return the known equivalence class of ce, or null
+     */
+    @Nullable
+    Node<OWLClass> equivalentClasses(OWLClassExpression ce) {
+        Node<OWLClass> node = hierarchies.equivalentClasses(ce);
+        if (node != null) {
+            return node;
+        }
+        node = cache.peek(equivclasses, ce);
+        if (node != null || ce.isAnonymous()) {
+            return node;
+        }
+        OWLClass c = ce.asOWLClass();
+        node = cache.classNode(c);
+        if (node != null) {
+            return node;
+        }
+        // the node of c is among the subclasses of each of its superclasses, and vice versa
+        node = nodeAcross(cache.peek(superclasses, key(c, false)), subclasses, c);
+        return node != null ? node : nodeAcross(cache.peek(subclasses, key(c, false)), superclasses, c);
+    }
+
+    @Nullable
+    private Node<OWLClass> nodeAcross(@Nullable NodeSet<OWLClass> neighbours, CacheKeys region, OWLClass c) {
+        if (neighbours == null) {
+            return null;
+        }
+        for (Node<OWLClass> n : neighbours) {
+            NodeSet<OWLClass> others = cache.peek(region, key(n.getRepresentativeElement(), false));
+            if (others != null) {
+                for (Node<OWLClass> other : others) {
+                    if (other.contains(c)) {
+                        return other;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /** @return the known unsatisfiable classes, or null */
+    @Nullable
+    Node<OWLClass> unsatisfiableClasses() {
+        Node<OWLClass> node = hierarchies.equivalentClasses(nothing);
+        return node != null ? node : cache.peek(unsatisfiableclasses, unsatisfiableclasses);
+    }
+
+    /**
+     * @param ce
+     *        class expression
+     * @return whether ce is satisfiable, or null if unknown
+     */
+    @Nullable
+    Boolean isSatisfiable(OWLClassExpression ce) {
+        Boolean satisfiable = cache.peek(issatisfiable, ce);
+        if (satisfiable != null) {
+            return satisfiable;
+        }
+        if (!ce.isAnonymous()) {
+            Node<OWLClass> unsatisfiable = unsatisfiableClasses();
+            if (unsatisfiable != null) {
+                return Boolean.valueOf(!unsatisfiable.contains(ce.asOWLClass()));
+            }
+        }
+        Node<OWLClass> node = equivalentClasses(ce);
+        return node == null ? null : Boolean.valueOf(!node.isBottomNode());
+    }
+
+    /**
+     * @param axiom
+     *        axiom
+     * @return whether the axiom is entailed, or null if unknown or not a class axiom
+     */
+    @Nullable
+    Boolean isEntailed(OWLAxiom axiom) {
+        if (axiom instanceof OWLSubClassOfAxiom) {
+            OWLSubClassOfAxiom ax = (OWLSubClassOfAxiom) axiom;
+            return isSubClassOf(ax.getSubClass(), ax.getSuperClass());
+        }
+        if (axiom instanceof OWLEquivalentClassesAxiom) {
+            return isEquivalent((OWLEquivalentClassesAxiom) axiom);
+        }
+        return null;
+    }
+
+    @Nullable
+    private Boolean isSubClassOf(OWLClassExpression sub, OWLClassExpression sup) {
+        if (sub.equals(sup) || sub.isOWLNothing() || sup.isOWLThing()) {
+            return Boolean.TRUE;
+        }
+        Boolean precomputed = hierarchies.isSubClassOf(sub, sup);
+        if (precomputed != null) {
+            return precomputed;
+        }
+        if (Boolean.FALSE.equals(isSatisfiable(sub))) {
+            return Boolean.TRUE;
+        }
+        if (!sup.isAnonymous()) {
+            NodeSet<OWLClass> supers = cache.peek(superclasses, key(sub, false));
+            if (supers != null) {
+                if (supers.containsEntity(sup.asOWLClass())) {
+                    return Boolean.TRUE;
+                }
+                Node<OWLClass> node = equivalentClasses(sub);
+                // every class is a superclass of an unsatisfiable class: only a satisfiable sub can be decided
+                if (node != null && !node.isBottomNode()) {
+                    return Boolean.valueOf(node.contains(sup.asOWLClass()));
+                }
+            }
+        }
+        if (!sub.isAnonymous()) {
+            NodeSet<OWLClass> subs = cache.peek(subclasses, key(sup, false));
+            if (subs != null) {
+                if (subs.containsEntity(sub.asOWLClass())) {
+                    return Boolean.TRUE;
+                }
+                // unsatisfiable subclasses are in the bottom node, which is among the subclasses or is the node of sup
+                Node<OWLClass> node = equivalentClasses(sup);
+                if (node != null) {
+                    return Boolean.valueOf(node.contains(sub.asOWLClass()));
+                }
+            }
+            if (!sup.isAnonymous()) {
+                Node<OWLClass> node = equivalentClasses(sub);
+                if (node != null && node.contains(sup.asOWLClass())) {
+                    return Boolean.TRUE;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Nullable
+    private Boolean isEquivalent(OWLEquivalentClassesAxiom axiom) {
+        List<OWLClassExpression> operands = axiom.classExpressions().collect(Collectors.toList());
+        long anonymous = operands.stream().filter(OWLClassExpression::isAnonymous).count();
+        if (anonymous > 1) {
+            return null;
+        }
+        for (OWLClassExpression pivot : operands) {
+            if (anonymous == 1 && !pivot.isAnonymous()) {
+                continue;
+            }
+            Node<OWLClass> node = equivalentClasses(pivot);
+            if (node != null) {
+                return Boolean.valueOf(operands.stream().allMatch(c -> c == pivot || node.contains(c
+                    .asOWLClass())));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param ce
+     *        class expression
+     * @return the direct superclasses of ce, or null if they cannot be derived
+     */
+    @Nullable
+    NodeSet<OWLClass> directSuperClasses(OWLClassExpression ce) {
+        if (ce.isAnonymous() || !Boolean.TRUE.equals(isSatisfiable(ce))) {
+            return null;
+        }
+        NodeSet<OWLClass> all = cache.peek(superclasses, key(ce, false));
+        return all == null ? null : reduce(all, n -> n.isTopNode() ? new OWLClassNodeSet() : superClasses(n
+            .getRepresentativeElement()));
+    }
+
+    /**
+     * @param ce
+     *        class expression
+     * @return the direct subclasses of ce, or null if they cannot be derived
+     */
+    @Nullable
+    NodeSet<OWLClass> directSubClasses(OWLClassExpression ce) {
+        if (ce.isAnonymous()) {
+            return null;
+        }
+        NodeSet<OWLClass> all = cache.peek(subclasses, key(ce, false));
+        return all == null ? null : reduce(all, n -> n.isBottomNode() ? new OWLClassNodeSet() : subClasses(n
+            .getRepresentativeElement()));
+    }
+
+    @Nullable
+    private NodeSet<OWLClass> superClasses(OWLClass c) {
+        NodeSet<OWLClass> precomputed = hierarchies.superClasses(c, false);
+        return precomputed != null ? precomputed : cache.peek(superclasses, key(c, false));
+    }
+
+    @Nullable
+    private NodeSet<OWLClass> subClasses(OWLClass c) {
+        NodeSet<OWLClass> precomputed = hierarchies.subClasses(c, false);
+        return precomputed != null ? precomputed : cache.peek(subclasses, key(c, false));
+    }
+
+    /**
+     * @param all
+     *        transitively closed set of nodes
+     * @param closure
+     *        the closed set of nodes on the same side of a node
+     * @return the nodes in all that are not in the closure of another node in all; null if a closure is unknown
+     */
+    @Nullable
+    private static NodeSet<OWLClass> reduce(NodeSet<OWLClass> all,
+        Function<Node<OWLClass>, NodeSet<OWLClass>> closure) {
+        Set<Node<OWLClass>> covered = new HashSet<>();
+        for (Node<OWLClass> n : all) {
+            NodeSet<OWLClass> beyond = closure.apply(n);
+            if (beyond == null) {
+                return null;
+            }
+            beyond.forEach(covered::add);
+        }
+        List<Node<OWLClass>> direct = new ArrayList<>();
+        for (Node<OWLClass> n : all) {
+            if (!covered.contains(n)) {
+                direct.add(n);
+            }
+        }
+        return new OWLClassNodeSet(direct.stream());
+    }
+}
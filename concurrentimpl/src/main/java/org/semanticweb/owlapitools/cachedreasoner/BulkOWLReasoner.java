@@ -0,0 +1,94 @@
+package org.semanticweb.owlapitools.cachedreasoner;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
+import org.semanticweb.owlapi.model.OWLObjectPropertyExpression;
+import org.semanticweb.owlapi.reasoner.Node;
+import org.semanticweb.owlapi.reasoner.NodeSet;
+import org.semanticweb.owlapi.reasoner.OWLReasoner;
+
+/**
+ * A reasoner answering the same query for many keys in one call. Each method returns a map from every distinct input
+ * to its answer, iterating in the order of the inputs; the answers are the same as the ones returned by the single
+ * key methods of {@link OWLReasoner}, and the same exceptions are thrown.
+ *
+ * @author ignazio
+ */
+public interface BulkOWLReasoner extends OWLReasoner {
+
+    /**
+     * @param ces
+     *        class expressions
+     * @return satisfiability of each class expression
+     */
+    Map<OWLClassExpression, Boolean> isSatisfiable(Collection<? extends OWLClassExpression> ces);
+
+    /**
+     * @param axioms
+     *        axioms
+     * @return entailment of each axiom
+     */
+    Map<OWLAxiom, Boolean> areEntailed(Collection<? extends OWLAxiom> axioms);
+
+    /**
+     * @param ces
+     *        class expressions
+     * @param direct
+     *        direct
+     * @return subclasses of each class expression
+     */
+    Map<OWLClassExpression, NodeSet<OWLClass>> getSubClasses(Collection<? extends OWLClassExpression> ces,
+        boolean direct);
+
+    /**
+     * @param ces
+     *        class expressions
+     * @param direct
+     *        direct
+     * @return superclasses of each class expression
+     */
+    Map<OWLClassExpression, NodeSet<OWLClass>> getSuperClasses(Collection<? extends OWLClassExpression> ces,
+        boolean direct);
+
+    /**
+     * @param ces
+     *        class expressions
+     * @return equivalent classes of each class expression
+     */
+    Map<OWLClassExpression, Node<OWLClass>> getEquivalentClasses(Collection<? extends OWLClassExpression> ces);
+
+    /**
+     * @param pes
+     *        property expressions
+     * @param direct
+     *        direct
+     * @return super properties of each property expression
+     */
+    Map<OWLObjectPropertyExpression, NodeSet<OWLObjectPropertyExpression>> getSuperObjectProperties(
+        Collection<? extends OWLObjectPropertyExpression> pes, boolean direct);
+
+    /**
+     * @param inds
+     *        individuals
+     * @param direct
+     *        direct
+     * @return types of each individual
+     */
+    Map<OWLNamedIndividual, NodeSet<OWLClass>> getTypes(Collection<? extends OWLNamedIndividual> inds,
+        boolean direct);
+
+    /**
+     * @param ces
+     *        class expressions
+     * @param direct
+     *        direct
+     * @return instances of each class expression
+     */
+    Map<OWLClassExpression, NodeSet<OWLNamedIndividual>> getInstances(Collection<? extends OWLClassExpression> ces,
+        boolean direct);
+}
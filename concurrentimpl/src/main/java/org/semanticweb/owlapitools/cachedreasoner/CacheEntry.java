@@ -0,0 +1,141 @@
+package org.semanticweb.owlapitools.cachedreasoner;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+
+import javax.annotation.Nullable;
+
+import org.semanticweb.owlapi.reasoner.Node;
+import org.semanticweb.owlapi.reasoner.NodeSet;
+
+/**
+ * A cached result, or the promise of one: an entry is published in its region before the result is computed, so that
+ * concurrent callers asking for the same key wait for the one computation in flight rather than starting their own.
+ * The links and queue marker are only accessed by the owning {@link CacheRegion} while holding its lock; they make
+ * the entry a node of one of the intrusive access order queues of the eviction policy.
+ *
+ * @author ignazio
+ */
+final class CacheEntry {
+
+    static final byte UNLINKED = 0;
+    static final byte WINDOW = 1;
+    static final byte PROBATION = 2;
+    static final byte PROTECTED = 3;
+    static final byte RETIRED = 4;
+    final CacheKeys region;
+    final Object key;
+    /** Key packed by {@link EntityIds}, or {@link EntityIds#NO_KEY} if the key is not made of named entities. */
+    final long fastKey;
+    /** Completed when the result is available. */
+    final CompletableFuture<Object> result = new CompletableFuture<>();
+    /** Thread computing the result. */
+    final Thread loader = Thread.currentThread();
+    /** Generation of the cache when the computation of the result started. */
+    long generation;
+    /** The result; null while the computation is in flight. */
+    @Nullable volatile Object value;
+    int weight = 1;
+    @Nullable CacheEntry prev;
+    @Nullable CacheEntry next;
+    byte queue = UNLINKED;
+
+    CacheEntry(CacheKeys region, Object key, long fastKey) {
+        this.region = region;
+        this.key = key;
+        this.fastKey = fastKey;
+    }
+
+    /**
+     * Publishes the result to the waiting callers.
+     *
+     * @param v
+     *        computed result
+     */
+    void complete(Object v) {
+        weight = weigh(v);
+        value = v;
+        result.complete(v);
+    }
+
+    /**
+     * @param value
+     *        cached result
+     * @return weight of the result: one plus the number of entities in the result, so that large NodeSets weigh
+     *         proportionally to their cardinality
+     */
+    static int weigh(Object value) {
+        long size = 0;
+        if (value instanceof NodeSet) {
+            size = ((NodeSet<?>) value).nodes().mapToLong(Node::getSize).sum();
+        } else if (value instanceof Node) {
+            size = ((Node<?>) value).getSize();
+        } else if (value instanceof Collection) {
+            size = ((Collection<?>) value).size();
+        }
+        return (int) Math.min(size + 1, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Intrusive doubly linked list of entries, ordered from least recently used (head) to most recently used (tail).
+     * Not thread safe.
+     */
+    static final class AccessOrderDeque {
+
+        @Nullable CacheEntry head;
+        @Nullable CacheEntry tail;
+        long weight;
+        final byte id;
+
+        AccessOrderDeque(byte id) {
+            this.id = id;
+        }
+
+        boolean isEmpty() {
+            return head == null;
+        }
+
+        void addLast(CacheEntry e) {
+            e.queue = id;
+            e.prev = tail;
+            e.next = null;
+            if (tail == null) {
+                head = e;
+            } else {
+                tail.next = e;
+            }
+            tail = e;
+            weight += e.weight;
+        }
+
+        void remove(CacheEntry e) {
+            if (e.prev == null) {
+                head = e.next;
+            } else {
+                e.prev.next = e.next;
+            }
+            if (e.next == null) {
+                tail = e.prev;
+            } else {
+                e.next.prev = e.prev;
+            }
+            e.prev = null;
+            e.next = null;
+            e.queue = UNLINKED;
+            weight -= e.weight;
+        }
+
+        void moveToBack(CacheEntry e) {
+            if (e != tail) {
+                remove(e);
+                addLast(e);
+            }
+        }
+
+        void clear() {
+            head = null;
+            tail = null;
+            weight = 0;
+        }
+    }
+}
@@ -1,6 +1,12 @@
 package org.semanticweb.owlapitools.cachedreasoner;
 
-enum CacheKeys {
+/**
+ * Result regions of a {@link CachedOWLReasoner}; each reasoner query type is cached in its own region.
+ * 
+ * @author ignazio
+ */
+@SuppressWarnings("javadoc")
+public enum CacheKeys {
     isEntailed,
     subclasses,
     subclassesDirect,
@@ -35,5 +41,6 @@ enum CacheKeys {
     superdatapropertiesDirect,
     types,
     typesDirect,
-    issatisfiable
+    issatisfiable,
+    unsatisfiableclasses
 }
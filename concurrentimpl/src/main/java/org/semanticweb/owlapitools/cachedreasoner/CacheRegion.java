@@ -0,0 +1,677 @@
+package org.semanticweb.owlapitools.cachedreasoner;
+
+import static org.semanticweb.owlapitools.cachedreasoner.CacheEntry.*;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import javax.annotation.Nullable;
+
+import org.semanticweb.owlapi.model.OWLRuntimeException;
+import org.semanticweb.owlapi.reasoner.ClassExpressionNotInProfileException;
+import org.semanticweb.owlapi.reasoner.FreshEntitiesException;
+import org.semanticweb.owlapi.reasoner.ReasonerInterruptedException;
+import org.semanticweb.owlapi.reasoner.UnsupportedEntailmentTypeException;
+import org.semanticweb.owlapitools.cachedreasoner.CacheEntry.AccessOrderDeque;
+
+/**
+ * The cache for one {@link CacheKeys} region. Lookups go to a ConcurrentHashMap; a miss publishes an in-flight entry
+ * with putIfAbsent and computes the result outside of any map lock, so that a slow reasoner call never blocks other
+ * keys, and concurrent callers for the same key share the one computation. If the region is bounded, a
+ * W-TinyLFU policy decides which entries to keep: new entries enter a small LRU window (1% of the budget), and
+ * entries leaving the window are admitted to the main segmented LRU only if the frequency sketch estimates them to
+ * be more popular than the main victim. Entries accessed again while in the probation segment of the main area are
+ * promoted to the protected segment (80% of the main area). Policy bookkeeping is guarded by a lock; reads record
+ * their access only if the lock is free, so that hits never wait. Statistics are kept in LongAdders, so that
+ * counting does not add contention between threads hitting the same region.
+ * <p>
+ * If configured, failures that depend only on the query and the ontology are cached as well, for a limited time, and
+ * rethrown to later callers for the same key without calling the reasoner. They are kept apart from the results, so
+ * that they take no part in eviction and are invisible to lookups that do not load.
+ *
+ * @author ignazio
+ */
+@SuppressWarnings("unchecked")
+final class CacheRegion {
+
+    private static final double WINDOW_RATIO = 0.01;
+    private static final double PROTECTED_RATIO = 0.8;
+    /** Maximum number of failures remembered by a region. */
+    private static final int MAXIMUM_FAILURES = 1024;
+    final CacheKeys id;
+    private final ReasonerCache owner;
+    private final ConcurrentHashMap<Object, CacheEntry> map = new ConcurrentHashMap<>();
+    /** Completed entries with a packed key; every entry in it is also in the map. */
+    private final LongEntryTable table = new LongEntryTable();
+    /** Deterministic failures by key. */
+    private final ConcurrentHashMap<Object, Failure> failures = new ConcurrentHashMap<>();
+    private final boolean bounded;
+    private final long maximumWeight;
+    private final long windowMaximum;
+    private final long protectedMaximum;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final FrequencySketch sketch = new FrequencySketch();
+    private final AccessOrderDeque window = new AccessOrderDeque(WINDOW);
+    private final AccessOrderDeque probation = new AccessOrderDeque(PROBATION);
+    private final AccessOrderDeque protectedQueue = new AccessOrderDeque(PROTECTED);
+    private volatile long weight;
+    /** Counters, shared with the same region of the previous epochs. */
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+    private final LongAdder loadTime;
+    private final LongAdder[] loadTimeHistogram;
+
+    /** A cached failure and its expiry time, as System.nanoTime() value. */
+    private static final class Failure {
+
+        final RuntimeException exception;
+        final long expires;
+
+        Failure(RuntimeException exception, long expires) {
+            this.exception = exception;
+            this.expires = expires;
+        }
+
+        boolean isExpired(long now) {
+            return now - expires >= 0;
+        }
+    }
+
+    /**
+     * @param id
+     *        region
+     * @param owner
+     *        cache owning this region; notified of weight changes
+     * @param maximumWeight
+     *        maximum weight for this region, or {@link CachedReasonerConfiguration#UNBOUNDED}
+     * @param policyRequired
+     *        true if the eviction policy must be tracked even without a region bound, because a global bound
+     *        applies
+     * @param previous
+     *        the same region in the previous epoch of the cache, whose counters are carried on; null for a new
+     *        cache
+     */
+    CacheRegion(CacheKeys id, ReasonerCache owner, long maximumWeight, boolean policyRequired,
+        @Nullable CacheRegion previous) {
+        this.id = id;
+        this.owner = owner;
+        bounded = policyRequired || maximumWeight != CachedReasonerConfiguration.UNBOUNDED;
+        this.maximumWeight = maximumWeight == CachedReasonerConfiguration.UNBOUNDED ? Long.MAX_VALUE : maximumWeight;
+        windowMaximum = Math.max(1L, (long) (this.maximumWeight * WINDOW_RATIO));
+        protectedMaximum = (long) ((this.maximumWeight - windowMaximum) * PROTECTED_RATIO);
+        if (previous != null) {
+            hits = previous.hits;
+            misses = previous.misses;
+            evictions = previous.evictions;
+            loadTime = previous.loadTime;
+            loadTimeHistogram = previous.loadTimeHistogram;
+            return;
+        }
+        hits = new LongAdder();
+        misses = new LongAdder();
+        evictions = new LongAdder();
+        loadTime = new LongAdder();
+        loadTimeHistogram = new LongAdder[RegionStatistics.LOAD_TIME_BUCKETS];
+        for (int i = 0; i < loadTimeHistogram.length; i++) {
+            loadTimeHistogram[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param key
+     *        key
+     * @param loader
+     *        function computing the result on a miss
+     * @return cached or computed result
+     */
+    <T> T get(Object key, Function<Object, T> loader) {
+        CacheEntry e = map.get(key);
+        if (e == null) {
+            if (!failures.isEmpty()) {
+                rethrowFailure(key);
+            }
+            CacheEntry created = new CacheEntry(id, key, owner.internKey(key));
+            e = map.putIfAbsent(key, created);
+            if (e == null) {
+                return load(created, loader);
+            }
+        }
+        Object v = e.value;
+        if (v == null) {
+            if (e.loader == Thread.currentThread()) {
+                // reentrant call for a key this thread is computing: waiting would deadlock
+                return timed(key, loader);
+            }
+            v = await(e);
+        }
+        hits.increment();
+        if (bounded) {
+            afterRead(e);
+        }
+        return (T) v;
+    }
+
+    private <T> T load(CacheEntry e, Function<Object, T> loader) {
+        long generation = owner.generation();
+        e.generation = generation;
+        T t;
+        try {
+            t = (T) owner.compact(timed(e.key, loader));
+        } catch (RuntimeException | Error ex) {
+            // no result is cached for failures; waiting callers get the same exception
+            if (ex instanceof RuntimeException && isDeterministic(ex)) {
+                rememberFailure(e.key, (RuntimeException) ex, generation);
+            }
+            map.remove(e.key, e);
+            e.result.completeExceptionally(ex);
+            throw ex;
+        }
+        e.complete(t);
+        owner.entryAdded(e);
+        if (owner.generation() != generation) {
+            // an invalidation ran while the result was computed: the result might predate the change
+            map.remove(e.key, e);
+            owner.entryRemoved(e);
+            return t;
+        }
+        publish(e);
+        if (bounded) {
+            afterWrite(e);
+        }
+        return t;
+    }
+
+    /**
+     * @param ex
+     *        failure
+     * @return true if the same query against the same ontology is bound to fail in the same way; timeouts and
+     *         interruptions are not
+     */
+    private static boolean isDeterministic(Throwable ex) {
+        return ex instanceof FreshEntitiesException || ex instanceof ClassExpressionNotInProfileException
+            || ex instanceof UnsupportedEntailmentTypeException;
+    }
+
+    private void rethrowFailure(Object key) {
+        Failure f = failures.get(key);
+        if (f == null) {
+            return;
+        }
+        if (f.isExpired(System.nanoTime())) {
+            failures.remove(key, f);
+            return;
+        }
+        hits.increment();
+        throw f.exception;
+    }
+
+    private void rememberFailure(Object key, RuntimeException ex, long generation) {
+        long timeToLive = owner.failureTimeToLive();
+        if (timeToLive == 0 || owner.generation() != generation) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (failures.size() >= MAXIMUM_FAILURES) {
+            failures.values().removeIf(f -> f.isExpired(now));
+            if (failures.size() >= MAXIMUM_FAILURES) {
+                return;
+            }
+        }
+        Failure f = new Failure(ex, now + timeToLive);
+        failures.put(key, f);
+        if (owner.generation() != generation) {
+            // an invalidation ran meanwhile and might not have seen the failure
+            failures.remove(key, f);
+        }
+    }
+
+    /** Forgets the cached failures. */
+    void clearFailures() {
+        failures.clear();
+    }
+
+    private <T> T timed(Object key, Function<Object, T> loader) {
+        misses.increment();
+        long start = System.nanoTime();
+        try {
+            return loader.apply(key);
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            loadTime.add(elapsed);
+            loadTimeHistogram[RegionStatistics.bucket(elapsed)].increment();
+        }
+    }
+
+    /**
+     * Makes a completed entry visible to lookups by packed key, unless it has been removed meanwhile. The check and
+     * the insertion are atomic with respect to {@link #unpublish(CacheEntry)}, which runs after the removal from the
+     * map.
+     */
+    private void publish(CacheEntry e) {
+        if (e.fastKey == EntityIds.NO_KEY) {
+            return;
+        }
+        synchronized (table) {
+            if (map.get(e.key) == e) {
+                table.put(e);
+            }
+        }
+    }
+
+    private void unpublish(CacheEntry e) {
+        if (e.fastKey != EntityIds.NO_KEY) {
+            table.remove(e);
+        }
+    }
+
+    /**
+     * Looks up a result by packed key, without allocating; counts a hit if found.
+     *
+     * @param fastKey
+     *        key packed by {@link EntityIds}
+     * @return cached result, or null
+     */
+    @Nullable
+    Object getIfPresent(long fastKey) {
+        CacheEntry e = entry(fastKey);
+        if (e == null) {
+            return null;
+        }
+        hit(e, true);
+        return e.value;
+    }
+
+    /**
+     * Looks up a completed entry by packed key, without allocating and without counting a hit.
+     *
+     * @param fastKey
+     *        key packed by {@link EntityIds}
+     * @return completed entry, or null
+     */
+    @Nullable
+    CacheEntry entry(long fastKey) {
+        if (fastKey == EntityIds.NO_KEY) {
+            return null;
+        }
+        return table.get(fastKey);
+    }
+
+    /**
+     * Counts a hit on an entry found by the caller.
+     *
+     * @param e
+     *        entry
+     * @param access
+     *        true to report the access to the eviction policy
+     */
+    void hit(CacheEntry e, boolean access) {
+        hits.increment();
+        if (bounded && access) {
+            afterRead(e);
+        }
+    }
+
+    /**
+     * Looks up a completed result without loading it; entries still being computed are not waited for.
+     *
+     * @param key
+     *        key
+     * @return cached result, or null
+     */
+    @Nullable
+    Object peek(Object key) {
+        CacheEntry e = map.get(key);
+        if (e == null) {
+            return null;
+        }
+        Object v = e.value;
+        if (v != null && bounded) {
+            afterRead(e);
+        }
+        return v;
+    }
+
+    /**
+     * Looks up a completed result without loading it, and counts a hit if found.
+     *
+     * @param key
+     *        key
+     * @return cached result, or null
+     */
+    @Nullable
+    Object getIfPresent(Object key) {
+        Object v = peek(key);
+        if (v != null) {
+            hits.increment();
+        }
+        return v;
+    }
+
+    /**
+     * Adds a result computed elsewhere, unless the key is already present.
+     *
+     * @param key
+     *        key
+     * @param value
+     *        result
+     */
+    void put(Object key, Object value) {
+        CacheEntry e = new CacheEntry(id, key, owner.internKey(key));
+        if (map.putIfAbsent(key, e) != null) {
+            return;
+        }
+        e.generation = owner.generation();
+        e.complete(owner.compact(value));
+        owner.entryAdded(e);
+        publish(e);
+        if (bounded) {
+            afterWrite(e);
+        }
+    }
+
+    /**
+     * @param consumer
+     *        consumer for the keys and results of the completed entries
+     */
+    void forEach(BiConsumer<Object, Object> consumer) {
+        map.forEach((k, e) -> {
+            Object v = e.value;
+            if (v != null) {
+                consumer.accept(k, v);
+            }
+        });
+    }
+
+    /**
+     * Waits for a computation started by another thread. The wait can be interrupted, without affecting the
+     * computation.
+     */
+    private static Object await(CacheEntry e) {
+        try {
+            return e.result.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ReasonerInterruptedException(ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new OWLRuntimeException(cause);
+        }
+    }
+
+    /**
+     * Removes an entry, if still present.
+     *
+     * @param e
+     *        entry to remove
+     * @return true if the entry was removed
+     */
+    boolean remove(CacheEntry e) {
+        if (!bounded) {
+            if (map.remove(e.key, e)) {
+                owner.entryRemoved(e);
+                unpublish(e);
+                return true;
+            }
+            return false;
+        }
+        boolean removed = false;
+        long released = 0;
+        lock.lock();
+        try {
+            if (e.queue == UNLINKED) {
+                // not linked yet: afterWrite will find it missing from the map
+                if (map.remove(e.key, e)) {
+                    owner.entryRemoved(e);
+                    unpublish(e);
+                    removed = true;
+                }
+            } else if (e.queue != RETIRED) {
+                retire(e);
+                released = e.weight;
+                removed = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+        owner.weightChanged(-released);
+        return removed;
+    }
+
+    /** @return true if reads are reported to the eviction policy */
+    boolean isBounded() {
+        return bounded;
+    }
+
+    /** @return number of entries */
+    int size() {
+        return map.size();
+    }
+
+    /** @return total weight of the entries tracked by the policy */
+    long weight() {
+        return weight;
+    }
+
+    /**
+     * Removes all entries.
+     *
+     * @return number of entries removed
+     */
+    int clear() {
+        lock.lock();
+        try {
+            int removed = map.size();
+            map.clear();
+            table.clear();
+            failures.clear();
+            window.clear();
+            probation.clear();
+            protectedQueue.clear();
+            sketch.clear();
+            long released = weight;
+            weight = 0;
+            owner.weightChanged(-released);
+            return removed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void afterRead(CacheEntry e) {
+        if (!lock.tryLock()) {
+            // the access is dropped rather than waited for; the policy only needs a sample
+            return;
+        }
+        try {
+            sketch.increment(e.key);
+            switch (e.queue) {
+                case WINDOW:
+                    window.moveToBack(e);
+                    break;
+                case PROBATION:
+                    probation.remove(e);
+                    protectedQueue.addLast(e);
+                    demoteProtected();
+                    break;
+                case PROTECTED:
+                    protectedQueue.moveToBack(e);
+                    break;
+                default:
+                    break;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void afterWrite(CacheEntry e) {
+        long before;
+        long after;
+        lock.lock();
+        try {
+            if (e.queue != UNLINKED || map.get(e.key) != e) {
+                // already linked by a concurrent caller, or removed by a clear
+                return;
+            }
+            before = weight;
+            sketch.increment(e.key);
+            if (map.size() > sketch.capacity()) {
+                sketch.ensureCapacity(2L * map.size());
+            }
+            if (e.weight > maximumWeight) {
+                e.queue = RETIRED;
+                if (map.remove(e.key, e)) {
+                    owner.entryRemoved(e);
+                    unpublish(e);
+                    evictions.increment();
+                    owner.entryEvicted(e);
+                }
+                return;
+            }
+            window.addLast(e);
+            weight += e.weight;
+            evictFromWindow();
+            while (weight > maximumWeight && evictVictimLocked() > 0) {
+                // evict until the region fits its budget
+            }
+            after = weight;
+        } finally {
+            lock.unlock();
+        }
+        owner.weightChanged(after - before);
+    }
+
+    private void demoteProtected() {
+        while (protectedQueue.weight > protectedMaximum && protectedQueue.head != null) {
+            CacheEntry demoted = protectedQueue.head;
+            protectedQueue.remove(demoted);
+            probation.addLast(demoted);
+        }
+    }
+
+    /**
+     * Moves the entries overflowing the window to the main area, where each candidate has to win against the main
+     * victim on estimated frequency.
+     */
+    private void evictFromWindow() {
+        while (window.weight > windowMaximum && window.head != null) {
+            CacheEntry candidate = window.head;
+            window.remove(candidate);
+            long mainMaximum = maximumWeight - windowMaximum;
+            boolean admitted = true;
+            while (probation.weight + protectedQueue.weight + candidate.weight > mainMaximum) {
+                CacheEntry victim = mainVictim();
+                if (victim == null) {
+                    break;
+                }
+                if (sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+                    evict(victim);
+                } else {
+                    admitted = false;
+                    break;
+                }
+            }
+            if (admitted) {
+                probation.addLast(candidate);
+            } else {
+                evict(candidate);
+            }
+        }
+    }
+
+    @Nullable
+    private CacheEntry mainVictim() {
+        return probation.head != null ? probation.head : protectedQueue.head;
+    }
+
+    @Nullable
+    private CacheEntry victim() {
+        CacheEntry victim = mainVictim();
+        return victim != null ? victim : window.head;
+    }
+
+    private void retire(CacheEntry e) {
+        switch (e.queue) {
+            case WINDOW:
+                window.remove(e);
+                break;
+            case PROBATION:
+                probation.remove(e);
+                break;
+            case PROTECTED:
+                protectedQueue.remove(e);
+                break;
+            default:
+                break;
+        }
+        e.queue = RETIRED;
+        weight -= e.weight;
+        if (map.remove(e.key, e)) {
+            owner.entryRemoved(e);
+            unpublish(e);
+        }
+    }
+
+    private void evict(CacheEntry e) {
+        retire(e);
+        evictions.increment();
+        owner.entryEvicted(e);
+    }
+
+    private long evictVictimLocked() {
+        CacheEntry victim = victim();
+        if (victim == null) {
+            return 0;
+        }
+        evict(victim);
+        return victim.weight;
+    }
+
+    /**
+     * @return estimated frequency of the next victim, or Integer.MAX_VALUE if the region has nothing to evict; used
+     *         to pick the region to shrink when the global budget is exceeded
+     */
+    int victimFrequency() {
+        lock.lock();
+        try {
+            CacheEntry victim = victim();
+            return victim == null ? Integer.MAX_VALUE : sketch.frequency(victim.key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** @return weight released by evicting the next victim; 0 if the region is empty */
+    long evictVictim() {
+        long released;
+        lock.lock();
+        try {
+            released = evictVictimLocked();
+        } finally {
+            lock.unlock();
+        }
+        owner.weightChanged(-released);
+        return released;
+    }
+
+    /** @return snapshot of the counters */
+    RegionStatistics statistics() {
+        long[] histogram = new long[loadTimeHistogram.length];
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = loadTimeHistogram[i].sum();
+        }
+        return new RegionStatistics(id.name(), hits.sum(), misses.sum(), evictions.sum(), map.size(), weight,
+            loadTime.sum(), histogram);
+    }
+}
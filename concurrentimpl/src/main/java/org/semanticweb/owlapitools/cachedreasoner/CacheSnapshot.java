@@ -0,0 +1,492 @@
+package org.semanticweb.owlapitools.cachedreasoner;
+
+import static org.semanticweb.owlapitools.cachedreasoner.CacheKeys.*;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import org.semanticweb.owlapi.model.*;
+import org.semanticweb.owlapi.reasoner.Node;
+import org.semanticweb.owlapi.reasoner.NodeSet;
+import org.semanticweb.owlapi.reasoner.OWLReasoner;
+import org.semanticweb.owlapi.reasoner.impl.*;
+
+/**
+ * Binary snapshot of the results in a {@link ReasonerCache}, used to keep cached results across restarts. The
+ * snapshot is keyed by a SHA-256 digest of the logical content of the imports closure and of the reasoner name and
+ * version; a snapshot is only restored if the digest matches. The format is:
+ *
+ * <pre>
+ * magic, version, digest
+ * IRI dictionary: count, then each IRI as UTF-8
+ * entries: count, then region ordinal, key, value for each entry
+ * </pre>
+ *
+ * All counts, ordinals and IRI references are unsigned variable length ints. Only entries whose keys and values are
+ * made of named entities, inverse object properties, booleans and literals are saved; entries keyed by anonymous
+ * class expressions or axioms are skipped. Snapshots are read through a memory mapped file.
+ *
+ * @author ignazio
+ */
+final class CacheSnapshot {
+
+    private static final int MAGIC = 0x4f574c43;
+    private static final int FORMAT_VERSION = 1;
+    private static final int DIGEST_LENGTH = 32;
+    // term tags
+    private static final byte CLASS = 1;
+    private static final byte OBJECT_PROPERTY = 2;
+    private static final byte INVERSE_OBJECT_PROPERTY = 3;
+    private static final byte DATA_PROPERTY = 4;
+    private static final byte INDIVIDUAL = 5;
+    // key tags
+    private static final byte KEY_TERM = 1;
+    private static final byte KEY_BOOLEAN = 2;
+    private static final byte KEY_PAIR = 3;
+    // value tags
+    private static final byte FALSE = 0;
+    private static final byte TRUE = 1;
+    private static final byte NODE = 2;
+    private static final byte NODESET = 3;
+    private static final byte LITERALS = 4;
+    private static final Set<CacheKeys> CLASS_RESULTS = EnumSet.of(subclasses, subclassesDirect, superclasses,
+        superclassesDirect, equivclasses, disjointclasses, objectpropertiesdomains, objectpropertiesdomainsDirect,
+        objectpropertiesranges, objectpropertiesrangesDirect, datapropertiesdomains, datapropertiesdomainsDirect, types,
+        typesDirect, unsatisfiableclasses);
+    private static final Set<CacheKeys> OBJECT_PROPERTY_RESULTS = EnumSet.of(subobjectproperties,
+        subobjectpropertiesDirect, superobjectproperties, superobjectpropertiesDirect, equivobjectproperties,
+        disjointobjectproperties, inverseobjectproperties);
+    private static final Set<CacheKeys> DATA_PROPERTY_RESULTS = EnumSet.of(subdataproperties,
+        subdatapropertiesDirect, superdataproperties, superdatapropertiesDirect, equivdataproperties,
+        disjointdataproperties);
+
+    private CacheSnapshot() {}
+
+    /** Thrown while encoding an entry that cannot be represented in a snapshot. */
+    static final class UnsupportedEntry extends Exception {
+
+        private static final long serialVersionUID = 50000L;
+
+        UnsupportedEntry() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * @param reasoner
+     *        reasoner whose root ontology and identity are digested
+     * @return digest of the logical content of the imports closure of the root ontology, and of the reasoner name
+     *         and version
+     */
+    static byte[] digest(OWLReasoner reasoner) {
+        MessageDigest md = sha256();
+        update(md, String.valueOf(reasoner.getReasonerName()));
+        try {
+            update(md, String.valueOf(reasoner.getReasonerVersion()));
+        } catch (RuntimeException e) {
+            // some reasoners cannot parse their own version string; the name has to suffice
+        }
+        // anonymous ontologies share their id, so ties are broken by content
+        reasoner.getRootOntology().importsClosure().map(CacheSnapshot::ontologyDigest).sorted().forEach(s -> update(
+            md, s));
+        return md.digest();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new OWLRuntimeException(e);
+        }
+    }
+
+    /**
+     * @param o
+     *        ontology
+     * @return ontology and version IRIs, followed by the digest of the logical axioms; anonymous ontologies are
+     *         numbered per JVM, so they all get the same marker instead
+     */
+    private static String ontologyDigest(OWLOntology o) {
+        OWLOntologyID id = o.getOntologyID();
+        MessageDigest md = sha256();
+        o.axioms().filter(ax -> !ax.isAnnotationAxiom()).map(Object::toString).sorted().forEach(s -> update(md, s));
+        return id.getOntologyIRI().map(IRI::toString).orElse("anonymous") + ' ' + id.getVersionIRI().map(
+            IRI::toString).orElse("") + ' ' + new BigInteger(1, md.digest()).toString(16);
+    }
+
+    private static void update(MessageDigest md, String s) {
+        md.update(s.getBytes(StandardCharsets.UTF_8));
+        md.update((byte) 0);
+    }
+
+    /**
+     * Writes the cache content to a file. The file is replaced atomically, if the file system allows it.
+     *
+     * @param cache
+     *        cache to save
+     * @param digest
+     *        digest of the ontology the results refer to
+     * @param file
+     *        destination
+     * @return number of entries saved
+     * @throws IOException
+     *         if the file cannot be written
+     */
+    static int save(ReasonerCache cache, byte[] digest, Path file) throws IOException {
+        IriDictionary dictionary = new IriDictionary();
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        ByteArrayOutputStream entry = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(entry);
+        int[] count = {0};
+        for (CacheKeys region : CacheKeys.values()) {
+            cache.region(region).forEach((key, value) -> {
+                entry.reset();
+                try {
+                    writeVarInt(out, region.ordinal());
+                    writeKey(out, key, dictionary);
+                    writeValue(out, value, dictionary);
+                    out.flush();
+                    entry.writeTo(entries);
+                    count[0]++;
+                } catch (UnsupportedEntry e) {
+                    // anonymous expressions and axioms are not saved
+                } catch (IOException e) {
+                    throw new OWLRuntimeException(e);
+                }
+            });
+        }
+        Path parent = file.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try (OutputStream stream = Files.newOutputStream(temp);
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(stream))) {
+            data.writeInt(MAGIC);
+            data.writeInt(FORMAT_VERSION);
+            data.write(digest);
+            writeVarInt(data, dictionary.size());
+            for (int i = 0; i < dictionary.size(); i++) {
+                writeString(data, dictionary.iri(i).toString());
+            }
+            writeVarInt(data, count[0]);
+            entries.writeTo(data);
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return count[0];
+    }
+
+    /**
+     * Reads a snapshot into a cache, if its digest matches.
+     *
+     * @param cache
+     *        cache to fill
+     * @param digest
+     *        digest of the current ontology
+     * @param file
+     *        snapshot to read
+     * @param df
+     *        data factory for the entities
+     * @return number of entries restored, or -1 if the snapshot does not match the digest
+     * @throws IOException
+     *         if the file cannot be read or is not a snapshot
+     */
+    static int restore(ReasonerCache cache, byte[] digest, Path file, OWLDataFactory df) throws IOException {
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            if (in.getInt() != MAGIC || in.getInt() != FORMAT_VERSION) {
+                throw new IOException("Not a cache snapshot: " + file);
+            }
+            byte[] stored = new byte[DIGEST_LENGTH];
+            in.get(stored);
+            if (!Arrays.equals(stored, digest)) {
+                return -1;
+            }
+            IriDictionary dictionary = new IriDictionary();
+            int iris = readVarInt(in);
+            for (int i = 0; i < iris; i++) {
+                dictionary.id(IRI.create(readString(in)));
+            }
+            int count = readVarInt(in);
+            CacheKeys[] regions = CacheKeys.values();
+            for (int i = 0; i < count; i++) {
+                CacheKeys region = regions[readVarInt(in)];
+                Object key = readKey(in, dictionary, df);
+                Object value = readValue(in, region, dictionary, df);
+                cache.put(region, key, value);
+            }
+            return count;
+        } catch (RuntimeException e) {
+            // BufferUnderflowException, bad indexes: the file is truncated or corrupted
+            throw new IOException("Corrupted cache snapshot: " + file, e);
+        }
+    }
+
+    private static void writeKey(DataOutputStream out, Object key, IriDictionary dictionary) throws IOException,
+        UnsupportedEntry {
+        if (key instanceof CachedOWLReasoner.BoolKey) {
+            CachedOWLReasoner.BoolKey k = (CachedOWLReasoner.BoolKey) key;
+            out.writeByte(KEY_BOOLEAN);
+            writeTerm(out, k.o, dictionary);
+            out.writeBoolean(k.b);
+        } else if (key instanceof CachedOWLReasoner.RegKey) {
+            CachedOWLReasoner.RegKey k = (CachedOWLReasoner.RegKey) key;
+            out.writeByte(KEY_PAIR);
+            writeTerm(out, k.o1, dictionary);
+            writeTerm(out, k.o2, dictionary);
+        } else {
+            out.writeByte(KEY_TERM);
+            writeTerm(out, key, dictionary);
+        }
+    }
+
+    private static Object readKey(ByteBuffer in, IriDictionary dictionary, OWLDataFactory df) throws IOException {
+        byte tag = in.get();
+        switch (tag) {
+            case KEY_TERM:
+                return readTerm(in, dictionary, df);
+            case KEY_BOOLEAN:
+                return CachedOWLReasoner.key(readTerm(in, dictionary, df), in.get() != 0);
+            case KEY_PAIR:
+                return CachedOWLReasoner.key(readTerm(in, dictionary, df), readTerm(in, dictionary, df));
+            default:
+                throw new IOException("Unknown key tag " + tag);
+        }
+    }
+
+    private static void writeTerm(DataOutputStream out, Object o, IriDictionary dictionary) throws IOException,
+        UnsupportedEntry {
+        if (o instanceof OWLObjectInverseOf) {
+            OWLObjectPropertyExpression inverse = ((OWLObjectInverseOf) o).getInverse();
+            if (inverse.isAnonymous()) {
+                throw new UnsupportedEntry();
+            }
+            out.writeByte(INVERSE_OBJECT_PROPERTY);
+            writeIRI(out, inverse.asOWLObjectProperty().getIRI(), dictionary);
+            return;
+        }
+        if (!(o instanceof OWLEntity)) {
+            throw new UnsupportedEntry();
+        }
+        OWLEntity e = (OWLEntity) o;
+        if (e.isOWLClass()) {
+            out.writeByte(CLASS);
+        } else if (e.isOWLObjectProperty()) {
+            out.writeByte(OBJECT_PROPERTY);
+        } else if (e.isOWLDataProperty()) {
+            out.writeByte(DATA_PROPERTY);
+        } else if (e.isOWLNamedIndividual()) {
+            out.writeByte(INDIVIDUAL);
+        } else {
+            throw new UnsupportedEntry();
+        }
+        writeIRI(out, e.getIRI(), dictionary);
+    }
+
+    private static OWLObject readTerm(ByteBuffer in, IriDictionary dictionary, OWLDataFactory df)
+        throws IOException {
+        byte tag = in.get();
+        IRI iri = dictionary.iri(readVarInt(in));
+        switch (tag) {
+            case CLASS:
+                return df.getOWLClass(iri);
+            case OBJECT_PROPERTY:
+                return df.getOWLObjectProperty(iri);
+            case INVERSE_OBJECT_PROPERTY:
+                return df.getOWLObjectInverseOf(df.getOWLObjectProperty(iri));
+            case DATA_PROPERTY:
+                return df.getOWLDataProperty(iri);
+            case INDIVIDUAL:
+                return df.getOWLNamedIndividual(iri);
+            default:
+                throw new IOException("Unknown term tag " + tag);
+        }
+    }
+
+    /**
+     * @param out
+     *        destination
+     * @param value
+     *        result to write
+     * @param dictionary
+     *        ids for the IRIs, updated with the new IRIs
+     * @throws IOException
+     *         if the destination cannot be written
+     * @throws UnsupportedEntry
+     *         if the result mentions anonymous expressions or is of an unknown type
+     */
+    static void writeValue(DataOutputStream out, Object value, IriDictionary dictionary) throws IOException,
+        UnsupportedEntry {
+        if (value instanceof Boolean) {
+            out.writeByte(((Boolean) value).booleanValue() ? TRUE : FALSE);
+        } else if (value instanceof Node) {
+            out.writeByte(NODE);
+            writeNode(out, (Node<?>) value, dictionary);
+        } else if (value instanceof NodeSet) {
+            out.writeByte(NODESET);
+            List<Node<?>> nodes = ((NodeSet<?>) value).nodes().collect(Collectors.toList());
+            writeVarInt(out, nodes.size());
+            for (Node<?> n : nodes) {
+                writeNode(out, n, dictionary);
+            }
+        } else if (value instanceof Set) {
+            out.writeByte(LITERALS);
+            Set<?> literals = (Set<?>) value;
+            writeVarInt(out, literals.size());
+            for (Object o : literals) {
+                if (!(o instanceof OWLLiteral)) {
+                    throw new UnsupportedEntry();
+                }
+                OWLLiteral l = (OWLLiteral) o;
+                writeString(out, l.getLiteral());
+                writeIRI(out, l.getDatatype().getIRI(), dictionary);
+                writeString(out, l.getLang());
+            }
+        } else {
+            throw new UnsupportedEntry();
+        }
+    }
+
+    private static void writeNode(DataOutputStream out, Node<?> node, IriDictionary dictionary)
+        throws IOException, UnsupportedEntry {
+        writeVarInt(out, node.getSize());
+        for (Object o : node.entities().collect(Collectors.toList())) {
+            writeTerm(out, o, dictionary);
+        }
+    }
+
+    /**
+     * @param in
+     *        source
+     * @param region
+     *        region of the result, which decides the type of its nodes
+     * @param dictionary
+     *        ids of the IRIs
+     * @param df
+     *        data factory for the entities
+     * @return result read
+     * @throws IOException
+     *         if the source is not a result written by {@link #writeValue(DataOutputStream, Object, IriDictionary)}
+     */
+    static Object readValue(ByteBuffer in, CacheKeys region, IriDictionary dictionary, OWLDataFactory df)
+        throws IOException {
+        byte tag = in.get();
+        switch (tag) {
+            case FALSE:
+                return Boolean.FALSE;
+            case TRUE:
+                return Boolean.TRUE;
+            case NODE:
+                return readNode(in, region, dictionary, df);
+            case NODESET:
+                int size = readVarInt(in);
+                List<Node<?>> nodes = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    nodes.add(readNode(in, region, dictionary, df));
+                }
+                return nodeSet(region, nodes);
+            case LITERALS:
+                int literals = readVarInt(in);
+                Set<OWLLiteral> toReturn = new HashSet<>();
+                for (int i = 0; i < literals; i++) {
+                    String lexical = readString(in);
+                    OWLDatatype datatype = df.getOWLDatatype(dictionary.iri(readVarInt(in)));
+                    String lang = readString(in);
+                    toReturn.add(lang.isEmpty() ? df.getOWLLiteral(lexical, datatype) : df.getOWLLiteral(lexical,
+                        lang));
+                }
+                return toReturn;
+            default:
+                throw new IOException("Unknown value tag " + tag);
+        }
+    }
+
+    private static Node<?> readNode(ByteBuffer in, CacheKeys region, IriDictionary dictionary, OWLDataFactory df)
+        throws IOException {
+        int size = readVarInt(in);
+        List<OWLObject> entities = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            entities.add(readTerm(in, dictionary, df));
+        }
+        if (CLASS_RESULTS.contains(region)) {
+            return new OWLClassNode(entities.stream().map(OWLClass.class::cast));
+        }
+        if (OBJECT_PROPERTY_RESULTS.contains(region)) {
+            return new OWLObjectPropertyNode(entities.stream().map(OWLObjectPropertyExpression.class::cast));
+        }
+        if (DATA_PROPERTY_RESULTS.contains(region)) {
+            return new OWLDataPropertyNode(entities.stream().map(OWLDataProperty.class::cast));
+        }
+        return new OWLNamedIndividualNode(entities.stream().map(OWLNamedIndividual.class::cast));
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static NodeSet<?> nodeSet(CacheKeys region, List<Node<?>> nodes) {
+        if (CLASS_RESULTS.contains(region)) {
+            return new OWLClassNodeSet(nodes.stream().map(n -> (Node<OWLClass>) n));
+        }
+        if (OBJECT_PROPERTY_RESULTS.contains(region)) {
+            return new OWLObjectPropertyNodeSet(nodes.stream().map(n -> (Node<OWLObjectPropertyExpression>) n));
+        }
+        if (DATA_PROPERTY_RESULTS.contains(region)) {
+            return new OWLDataPropertyNodeSet(nodes.stream().map(n -> (Node<OWLDataProperty>) n));
+        }
+        return new OWLNamedIndividualNodeSet(nodes.stream().map(n -> (Node) n));
+    }
+
+    private static void writeIRI(DataOutputStream out, IRI iri, IriDictionary dictionary) throws IOException {
+        writeVarInt(out, dictionary.id(iri));
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[readVarInt(in)];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        int v = value;
+        while ((v & ~0x7F) != 0) {
+            out.writeByte(v & 0x7F | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte(v);
+    }
+
+    private static int readVarInt(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Malformed variable length int");
+    }
+}
@@ -0,0 +1,163 @@
+package org.semanticweb.owlapitools.cachedreasoner;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * Immutable snapshot of the statistics of a {@link CachedOWLReasoner}, or of all the reasoners created by a
+ * {@link CachedReasonerFactory}: the counters of each region and of the off heap tier, and the number of cache
+ * invalidations caused by ontology changes.
+ *
+ * @author ignazio
+ */
+public final class CacheStatistics implements Serializable {
+
+    private static final long serialVersionUID = 50000L;
+    private final Map<CacheKeys, RegionStatistics> regions;
+    private final long ontologiesChangedCount;
+    private final long invalidationCount;
+    private final long fullInvalidationCount;
+    private final long invalidatedEntryCount;
+    private final long canonicalizedKeyCount;
+    private final TierStatistics offHeapTier;
+
+    /**
+     * @param regions
+     *        statistics for each region
+     * @param ontologiesChangedCount
+     *        number of change notifications received
+     * @param invalidationCount
+     *        number of change notifications that invalidated at least part of the cache
+     * @param fullInvalidationCount
+     *        number of change notifications that invalidated the whole cache
+     * @param invalidatedEntryCount
+     *        number of entries removed by change notifications
+     * @param canonicalizedKeyCount
+     *        number of lookups whose class expression was rewritten to its canonical form
+     * @param offHeapTier
+     *        statistics of the off heap tier
+     */
+    CacheStatistics(Map<CacheKeys, RegionStatistics> regions, long ontologiesChangedCount, long invalidationCount,
+        long fullInvalidationCount, long invalidatedEntryCount, long canonicalizedKeyCount,
+        TierStatistics offHeapTier) {
+        this.regions = Collections.unmodifiableMap(new EnumMap<>(regions));
+        this.ontologiesChangedCount = ontologiesChangedCount;
+        this.invalidationCount = invalidationCount;
+        this.fullInvalidationCount = fullInvalidationCount;
+        this.invalidatedEntryCount = invalidatedEntryCount;
+        this.canonicalizedKeyCount = canonicalizedKeyCount;
+        this.offHeapTier = offHeapTier;
+    }
+
+    /** @return statistics for each region */
+    public Map<CacheKeys, RegionStatistics> getRegions() {
+        return regions;
+    }
+
+    /**
+     * @param region
+     *        region
+     * @return statistics for the region
+     */
+    public RegionStatistics getRegion(CacheKeys region) {
+        return regions.get(region);
+    }
+
+    private long sum(ToLongFunction<RegionStatistics> f) {
+        return regions.values().stream().mapToLong(f).sum();
+    }
+
+    /** @return lookups answered from the cache, over all regions */
+    public long getHitCount() {
+        return sum(RegionStatistics::getHitCount);
+    }
+
+    /** @return lookups that called the reasoner, over all regions */
+    public long getMissCount() {
+        return sum(RegionStatistics::getMissCount);
+    }
+
+    /** @return hits divided by lookups, over all regions; 1 if there were no lookups */
+    public double getHitRate() {
+        long hits = getHitCount();
+        long requests = hits + getMissCount();
+        return requests == 0 ? 1D : (double) hits / requests;
+    }
+
+    /** @return entries removed to respect the weight bounds, over all regions */
+    public long getEvictionCount() {
+        return sum(RegionStatistics::getEvictionCount);
+    }
+
+    /** @return entries currently cached, over all regions */
+    public long getEntryCount() {
+        return sum(RegionStatistics::getEntryCount);
+    }
+
+    /** @return current weight, over all regions */
+    public long getWeight() {
+        return sum(RegionStatistics::getWeight);
+    }
+
+    /** @return total time spent in the reasoner for the misses, in nanoseconds, over all regions */
+    public long getTotalLoadTimeNanos() {
+        return sum(RegionStatistics::getTotalLoadTimeNanos);
+    }
+
+    /** @return number of change notifications received */
+    public long getOntologiesChangedCount() {
+        return ontologiesChangedCount;
+    }
+
+    /** @return number of change notifications that invalidated at least part of the cache */
+    public long getInvalidationCount() {
+        return invalidationCount;
+    }
+
+    /** @return number of change notifications that invalidated the whole cache */
+    public long getFullInvalidationCount() {
+        return fullInvalidationCount;
+    }
+
+    /** @return number of entries removed by change notifications */
+    public long getInvalidatedEntryCount() {
+        return invalidatedEntryCount;
+    }
+
+    /**
+     * @return number of lookups whose class expression was rewritten to its canonical form; comparing the hit rate
+     *         with and without canonicalization shows how many of these lookups found a syntactic variant cached
+     */
+    public long getCanonicalizedKeyCount() {
+        return canonicalizedKeyCount;
+    }
+
+    /** @return statistics of the off heap tier; all zero if the tier is disabled */
+    public TierStatistics getOffHeapTier() {
+        return offHeapTier;
+    }
+
+    /**
+     * @param other
+     *        statistics of another reasoner
+     * @return the sum of the two snapshots
+     */
+    CacheStatistics plus(CacheStatistics other) {
+        Map<CacheKeys, RegionStatistics> sum = new EnumMap<>(regions);
+        other.regions.forEach((k, v) -> sum.merge(k, v, RegionStatistics::plus));
+        return new CacheStatistics(sum, ontologiesChangedCount + other.ontologiesChangedCount, invalidationCount
+            + other.invalidationCount, fullInvalidationCount + other.fullInvalidationCount, invalidatedEntryCount
+                + other.invalidatedEntryCount, canonicalizedKeyCount + other.canonicalizedKeyCount, offHeapTier.plus(
+                    other.offHeapTier));
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStatistics[hits=" + getHitCount() + ", misses=" + getMissCount() + ", evictions="
+            + getEvictionCount() + ", entries=" + getEntryCount() + ", weight=" + getWeight() + ", invalidations="
+            + invalidationCount + '/' + ontologiesChangedCount + ']';
+    }
+}
@@ -0,0 +1,93 @@
+package org.semanticweb.owlapitools.cachedreasoner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * {@link CacheStatisticsMXBean} implementation reading each attribute from a new snapshot.
+ *
+ * @author ignazio
+ */
+final class CacheStatisticsBean implements CacheStatisticsMXBean {
+
+    private final Supplier<CacheStatistics> statistics;
+
+    /**
+     * @param statistics
+     *        snapshot supplier
+     */
+    CacheStatisticsBean(Supplier<CacheStatistics> statistics) {
+        this.statistics = statistics;
+    }
+
+    @Override
+    public long getHitCount() {
+        return statistics.get().getHitCount();
+    }
+
+    @Override
+    public long getMissCount() {
+        return statistics.get().getMissCount();
+    }
+
+    @Override
+    public double getHitRate() {
+        return statistics.get().getHitRate();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return statistics.get().getEvictionCount();
+    }
+
+    @Override
+    public long getEntryCount() {
+        return statistics.get().getEntryCount();
+    }
+
+    @Override
+    public long getWeight() {
+        return statistics.get().getWeight();
+    }
+
+    @Override
+    public long getTotalLoadTimeNanos() {
+        return statistics.get().getTotalLoadTimeNanos();
+    }
+
+    @Override
+    public long getOntologiesChangedCount() {
+        return statistics.get().getOntologiesChangedCount();
+    }
+
+    @Override
+    public long getInvalidationCount() {
+        return statistics.get().getInvalidationCount();
+    }
+
+    @Override
+    public long getFullInvalidationCount() {
+        return statistics.get().getFullInvalidationCount();
+    }
+
+    @Override
+    public long getInvalidatedEntryCount() {
+        return statistics.get().getInvalidatedEntryCount();
+    }
+
+    @Override
+    public long getCanonicalizedKeyCount() {
+        return statistics.get().getCanonicalizedKeyCount();
+    }
+
+    @Override
+    public TierStatistics getOffHeapTier() {
+        return statistics.get().getOffHeapTier();
+    }
+
+    @Override
+    public List<RegionStatistics> getRegionStatistics() {
+        return new ArrayList<>(statistics.get().getRegions().values());
+    }
+}
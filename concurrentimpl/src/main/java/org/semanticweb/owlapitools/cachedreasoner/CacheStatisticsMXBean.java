@@ -0,0 +1,54 @@
+package org.semanticweb.owlapitools.cachedreasoner;
+
+import java.util.List;
+
+/**
+ * JMX view of the {@link CacheStatistics} of the reasoners created by a {@link CachedReasonerFactory}. Every
+ * attribute is read from a fresh snapshot.
+ *
+ * @author ignazio
+ */
+public interface CacheStatisticsMXBean {
+
+    /** @return lookups answered from the cache */
+    long getHitCount();
+
+    /** @return lookups that called the reasoner */
+    long getMissCount();
+
+    /** @return hits divided by lookups */
+    double getHitRate();
+
+    /** @return entries removed to respect the weight bounds */
+    long getEvictionCount();
+
+    /** @return entries currently cached */
+    long getEntryCount();
+
+    /** @return current weight of the cached results */
+    long getWeight();
+
+    /** @return total time spent in the reasoner for the misses, in nanoseconds */
+    long getTotalLoadTimeNanos();
+
+    /** @return number of change notifications received */
+    long getOntologiesChangedCount();
+
+    /** @return number of change notifications that invalidated at least part of the cache */
+    long getInvalidationCount();
+
+    /** @return number of change notifications that invalidated the whole cache */
+    long getFullInvalidationCount();
+
+    /** @return number of entries removed by change notifications */
+    long getInvalidatedEntryCount();
+
+    /** @return number of lookups whose class expression was rewritten to its canonical form */
+    long getCanonicalizedKeyCount();
+
+    /** @return statistics of the off heap tier */
+    TierStatistics getOffHeapTier();
+
+    /** @return statistics for each region */
+    List<RegionStatistics> getRegionStatistics();
+}
@@ -0,0 +1,258 @@
+package org.semanticweb.owlapitools.cachedreasoner;
+
+import static org.semanticweb.owlapitools.cachedreasoner.CacheKeys.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLDataProperty;
+import org.semanticweb.owlapi.model.OWLEntity;
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
+import org.semanticweb.owlapi.model.OWLObjectProperty;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLRuntimeException;
+import org.semanticweb.owlapi.model.parameters.Imports;
+import org.semanticweb.owlapi.reasoner.OWLReasoner;
+import org.semanticweb.owlapi.reasoner.ReasonerInterruptedException;
+
+/**
+ * Fills the cache of a {@link CachedOWLReasoner} after precomputeInferences, by asking the configured queries for
+ * every named entity in the imports closure. The queries are split in fork/join tasks running on a pool with the
+ * configured parallelism; a cancelled warm up stops at the next query. Failing queries are skipped: nothing is cached
+ * for them, and the caller will see the failure when asking the same query.
+ *
+ * @author ignazio
+ */
+final class CacheWarmUp {
+
+    /** Regions a warm up can fill. */
+    static final Set<CacheKeys> SUPPORTED_REGIONS = Collections.unmodifiableSet(EnumSet.of(issatisfiable, subclasses,
+        subclassesDirect, superclasses, superclassesDirect, equivclasses, disjointclasses, subobjectproperties,
+        subobjectpropertiesDirect, superobjectproperties, superobjectpropertiesDirect, equivobjectproperties,
+        disjointobjectproperties, inverseobjectproperties, subdataproperties, subdatapropertiesDirect,
+        superdataproperties, superdatapropertiesDirect, equivdataproperties, disjointdataproperties, types,
+        typesDirect, sameindividual, diffindividual));
+    /** Regions filled by default: hierarchies, equivalents and types. */
+    static final Set<CacheKeys> DEFAULT_REGIONS = Collections.unmodifiableSet(EnumSet.of(subclassesDirect,
+        superclasses, superclassesDirect, equivclasses, subobjectpropertiesDirect, superobjectproperties,
+        equivobjectproperties, subdatapropertiesDirect, superdataproperties, equivdataproperties, types,
+        typesDirect));
+    /** Queries run sequentially by a task, below which tasks are not split further. */
+    private static final int THRESHOLD = 16;
+    private final List<Runnable> queries;
+    private final int parallelism;
+    private volatile boolean cancelled;
+
+    /**
+     * @param reasoner
+     *        reasoner to warm up
+     * @param ontology
+     *        root ontology; the entities in its imports closure are queried
+     * @param regions
+     *        regions to fill
+     * @param parallelism
+     *        number of threads
+     */
+    CacheWarmUp(OWLReasoner reasoner, OWLOntology ontology, Set<CacheKeys> regions, int parallelism) {
+        this.parallelism = parallelism;
+        queries = new ArrayList<>();
+        List<OWLClass> classes = list(ontology.classesInSignature(Imports.INCLUDED));
+        List<OWLObjectProperty> objectProperties = list(ontology.objectPropertiesInSignature(Imports.INCLUDED));
+        List<OWLDataProperty> dataProperties = list(ontology.dataPropertiesInSignature(Imports.INCLUDED));
+        List<OWLNamedIndividual> individuals = list(ontology.individualsInSignature(Imports.INCLUDED));
+        for (CacheKeys k : regions) {
+            add(reasoner, k, classes, objectProperties, dataProperties, individuals);
+        }
+    }
+
+    /**
+     * @param reasoner
+     *        reasoner to warm up
+     * @param keys
+     *        entities to query in each region; regions that cannot be warmed up and entities of the wrong type are
+     *        ignored
+     * @param parallelism
+     *        number of threads
+     */
+    CacheWarmUp(OWLReasoner reasoner, Map<CacheKeys, ? extends Collection<OWLEntity>> keys, int parallelism) {
+        this.parallelism = parallelism;
+        queries = new ArrayList<>();
+        keys.forEach((k, entities) -> add(reasoner, k, list(entities.stream().filter(OWLEntity::isOWLClass).map(
+            OWLEntity::asOWLClass)), list(entities.stream().filter(OWLEntity::isOWLObjectProperty).map(
+                OWLEntity::asOWLObjectProperty)), list(entities.stream().filter(OWLEntity::isOWLDataProperty).map(
+                    OWLEntity::asOWLDataProperty)), list(entities.stream().filter(OWLEntity::isOWLNamedIndividual)
+                        .map(OWLEntity::asOWLNamedIndividual))));
+    }
+
+    private void add(OWLReasoner reasoner, CacheKeys k, List<OWLClass> classes,
+        List<OWLObjectProperty> objectProperties, List<OWLDataProperty> dataProperties,
+        List<OWLNamedIndividual> individuals) {
+        switch (k) {
+            case issatisfiable:
+                add(classes, reasoner::isSatisfiable);
+                break;
+            case subclasses:
+                add(classes, c -> reasoner.getSubClasses(c, false));
+                break;
+            case subclassesDirect:
+                add(classes, c -> reasoner.getSubClasses(c, true));
+                break;
+            case superclasses:
+                add(classes, c -> reasoner.getSuperClasses(c, false));
+                break;
+            case superclassesDirect:
+                add(classes, c -> reasoner.getSuperClasses(c, true));
+                break;
+            case equivclasses:
+                add(classes, reasoner::getEquivalentClasses);
+                break;
+            case disjointclasses:
+                add(classes, reasoner::getDisjointClasses);
+                break;
+            case subobjectproperties:
+                add(objectProperties, p -> reasoner.getSubObjectProperties(p, false));
+                break;
+            case subobjectpropertiesDirect:
+                add(objectProperties, p -> reasoner.getSubObjectProperties(p, true));
+                break;
+            case superobjectproperties:
+                add(objectProperties, p -> reasoner.getSuperObjectProperties(p, false));
+                break;
+            case superobjectpropertiesDirect:
+                add(objectProperties, p -> reasoner.getSuperObjectProperties(p, true));
+                break;
+            case equivobjectproperties:
+                add(objectProperties, reasoner::getEquivalentObjectProperties);
+                break;
+            case disjointobjectproperties:
+                add(objectProperties, reasoner::getDisjointObjectProperties);
+                break;
+            case inverseobjectproperties:
+                add(objectProperties, reasoner::getInverseObjectProperties);
+                break;
+            case subdataproperties:
+                add(dataProperties, p -> reasoner.getSubDataProperties(p, false));
+                break;
+            case subdatapropertiesDirect:
+                add(dataProperties, p -> reasoner.getSubDataProperties(p, true));
+                break;
+            case superdataproperties:
+                add(dataProperties, p -> reasoner.getSuperDataProperties(p, false));
+                break;
+            case superdatapropertiesDirect:
+                add(dataProperties, p -> reasoner.getSuperDataProperties(p, true));
+                break;
+            case equivdataproperties:
+                add(dataProperties, reasoner::getEquivalentDataProperties);
+                break;
+            case disjointdataproperties:
+                add(dataProperties, reasoner::getDisjointDataProperties);
+                break;
+            case types:
+                add(individuals, i -> reasoner.getTypes(i, false));
+                break;
+            case typesDirect:
+                add(individuals, i -> reasoner.getTypes(i, true));
+                break;
+            case sameindividual:
+                add(individuals, reasoner::getSameIndividuals);
+                break;
+            case diffindividual:
+                add(individuals, reasoner::getDifferentIndividuals);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static <T extends OWLEntity> List<T> list(Stream<T> s) {
+        return s.filter(e -> !e.isBuiltIn()).collect(Collectors.toList());
+    }
+
+    private <T> void add(List<T> entities, Consumer<T> query) {
+        for (T e : entities) {
+            queries.add(() -> query.accept(e));
+        }
+    }
+
+    /** @return number of queries to run */
+    int size() {
+        return queries.size();
+    }
+
+    /** Stops the warm up at the next query. */
+    void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Runs the warm up and waits for it to finish or be cancelled.
+     *
+     * @throws ReasonerInterruptedException
+     *         if the calling thread is interrupted while waiting; the warm up is cancelled
+     */
+    void run() {
+        if (queries.isEmpty() || cancelled) {
+            return;
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            ForkJoinTask<Void> task = pool.submit(new Slice(0, queries.size()));
+            task.get();
+        } catch (InterruptedException e) {
+            cancel();
+            Thread.currentThread().interrupt();
+            throw new ReasonerInterruptedException(e);
+        } catch (CancellationException e) {
+            // cancelled warm ups end quietly
+        } catch (ExecutionException e) {
+            throw new OWLRuntimeException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private final class Slice extends RecursiveAction {
+
+        private static final long serialVersionUID = 50000L;
+        private final int from;
+        private final int to;
+
+        Slice(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > THRESHOLD) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Slice(from, middle), new Slice(middle, to));
+                return;
+            }
+            for (int i = from; i < to && !cancelled; i++) {
+                try {
+                    queries.get(i).run();
+                } catch (ReasonerInterruptedException e) {
+                    CacheWarmUp.this.cancel();
+                } catch (RuntimeException e) {
+                    // the failure is not cached; callers asking the same query will see it
+                }
+            }
+        }
+    }
+}
@@ -11,11 +11,25 @@ package org.semanticweb.owlapitools.cachedreasoner;
 import static org.semanticweb.owlapi.util.OWLAPIPreconditions.checkNotNull;
 import static org.semanticweb.owlapitools.cachedreasoner.CacheKeys.*;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import javax.annotation.Nullable;
 
@@ -24,12 +38,18 @@ import org.semanticweb.owlapi.reasoner.*;
 import org.semanticweb.owlapi.util.Version;
 
 /** @author ignazio */
-@SuppressWarnings("unchecked")
-public class CachedOWLReasoner implements OWLReasoner, OWLOntologyChangeListener {
+public class CachedOWLReasoner implements BulkOWLReasoner, OWLOntologyChangeListener {
 
     protected final OWLReasoner delegate;
 
-    private static final class BoolKey {
+    /** Keys made of more than one object. */
+    interface CompositeKey {
+
+        /** @return the objects making up the key */
+        Stream<Object> components();
+    }
+
+    static final class BoolKey implements CompositeKey {
 
         final Object o;
         final boolean b;
@@ -41,7 +61,12 @@ public class CachedOWLReasoner implements OWLReasoner, OWLOntologyChangeListener
 
         @Override
         public int hashCode() {
-            return o.hashCode() * (b ? 1 : -1);
+            return o.hashCode() * 31 + (b ? 1 : 0);
+        }
+
+        @Override
+        public Stream<Object> components() {
+            return Stream.of(o);
         }
 
         @Override
@@ -50,7 +75,7 @@ public class CachedOWLReasoner implements OWLReasoner, OWLOntologyChangeListener
         }
     }
 
-    private static final class RegKey {
+    static final class RegKey implements CompositeKey {
 
         final Object o1;
         final Object o2;
@@ -62,7 +87,12 @@ public class CachedOWLReasoner implements OWLReasoner, OWLOntologyChangeListener
 
         @Override
         public int hashCode() {
-            return o1.hashCode() * o2.hashCode();
+            return o1.hashCode() * 31 + o2.hashCode();
+        }
+
+        @Override
+        public Stream<Object> components() {
+            return Stream.of(o1, o2);
         }
 
         @Override
@@ -79,36 +109,167 @@ public class CachedOWLReasoner implements OWLReasoner, OWLOntologyChangeListener
         return new RegKey(o1, o2);
     }
 
-    private final static class CachedReasoner {
-
-        public CachedReasoner() {}
-
-        EnumMap<CacheKeys, ConcurrentHashMap<Object, Object>> mainCache = new EnumMap<>(CacheKeys.class);
-
-        public void clear() {
-            mainCache.clear();
-        }
+    private final OWLOntology rootOntology;
+    private final OWLDataFactory dataFactory;
+    private final ChangeImpact changeImpact;
+    private final PrecomputedHierarchies hierarchies;
+    /** Cache shared with other reasoners; null if the cache belongs to this reasoner. */
+    @Nullable private final SharedCache shared;
+    /**
+     * Derivation rules over the current epoch of the cache. The epoch changes when a buffering delegate is flushed;
+     * methods combining cached results and derivations read this field once, so that both come from the same epoch.
+     */
+    private volatile AnswerDerivation derivation;
+    /** True if the delegate buffers changes: the cache then moves to a new epoch when the delegate is flushed. */
+    private final boolean epochs;
+    private final boolean staleWhileRevalidate;
+    private final boolean rewarmOnFlush;
+    /** Guards the pending changes. */
+    private final Object pendingLock = new Object();
+    /** Entities affected by the changes not flushed yet; null if every entailment might be affected. */
+    @Nullable private Set<OWLEntity> pendingAffected = new HashSet<>();
+    /** Serializes the construction of the epochs. */
+    private final Object epochLock = new Object();
+    @Nullable private ExecutorService epochBuilder;
+    private final int warmUpParallelism;
+    private final Set<CacheKeys> warmUpRegions;
+    @Nullable private volatile CacheWarmUp warmUp;
+    private final int bulkParallelism;
+    private final boolean memoryPressureAware;
+    @Nullable private ForkJoinPool bulkPool;
+    @Nullable private final ExpressionCanonicalizer canonicalizer;
+    /** Batches the invalidations of non buffering delegates; null if each change is applied at once. */
+    @Nullable private final ChangeCoalescer coalescer;
 
-        public <T> T get(CacheKeys cachekey, Object key, Function<Object, T> c) {
-            ConcurrentHashMap<Object, Object> map = mainCache.computeIfAbsent(cachekey, k -> new ConcurrentHashMap<>());
-            return (T) map.computeIfAbsent(key, c);
-        }
+    /**
+     * @param reasoner
+     *        reasoner
+     * @param manager
+     *        manager
+     */
+    public CachedOWLReasoner(OWLReasoner reasoner, OWLOntologyManager manager) {
+        this(reasoner, manager, new CachedReasonerConfiguration());
     }
 
-    private final CachedReasoner cache = new CachedReasoner();
-    private final OWLOntology rootOntology;
+    /**
+     * @param reasoner
+     *        reasoner
+     * @param manager
+     *        manager
+     * @param configuration
+     *        cache configuration
+     */
+    public CachedOWLReasoner(OWLReasoner reasoner, OWLOntologyManager manager,
+        CachedReasonerConfiguration configuration) {
+        this(reasoner, manager, configuration, null);
+    }
 
     /**
      * @param reasoner
      *        reasoner
      * @param manager
      *        manager
+     * @param configuration
+     *        cache configuration
+     * @param shared
+     *        cache shared with other reasoners on the same ontology, already acquired; null to use a cache
+     *        belonging to this reasoner
      */
-    public CachedOWLReasoner(OWLReasoner reasoner, OWLOntologyManager manager) {
+    CachedOWLReasoner(OWLReasoner reasoner, OWLOntologyManager manager, CachedReasonerConfiguration configuration,
+        @Nullable SharedCache shared) {
         checkNotNull(reasoner, "The input reasoner cannot be null");
+        checkNotNull(configuration, "The configuration cannot be null");
         delegate = reasoner;
-        manager.addOntologyChangeListener(this);
+        this.shared = shared;
+        warmUpParallelism = configuration.getWarmUpParallelism();
+        warmUpRegions = EnumSet.copyOf(configuration.getWarmUpRegions());
+        bulkParallelism = configuration.getBulkParallelism();
         rootOntology = delegate.getRootOntology();
+        dataFactory = manager.getOWLDataFactory();
+        ReasonerCache cache;
+        if (shared == null) {
+            cache = new ReasonerCache(configuration, dataFactory);
+            hierarchies = new PrecomputedHierarchies();
+            changeImpact = new ChangeImpact(rootOntology);
+            memoryPressureAware = configuration.isMemoryPressureAware();
+            if (memoryPressureAware) {
+                MemoryPressureMonitor.get().register(cache);
+            }
+            manager.addOntologyChangeListener(this);
+        } else {
+            // the shared cache listens to changes and to memory pressure for all its reasoners
+            cache = shared.cache;
+            hierarchies = shared.hierarchies;
+            changeImpact = shared.changeImpact;
+            memoryPressureAware = false;
+            shared.join(this);
+        }
+        derivation = new AnswerDerivation(cache, hierarchies, dataFactory);
+        canonicalizer = configuration.isCanonicalizeExpressions() ? new ExpressionCanonicalizer(dataFactory) : null;
+        epochs = shared == null && delegate.getBufferingMode() == BufferingMode.BUFFERING;
+        staleWhileRevalidate = configuration.isStaleWhileRevalidate();
+        rewarmOnFlush = configuration.isRewarmOnFlush();
+        // buffering delegates already batch the changes until flushed
+        coalescer = shared == null && !epochs && configuration.getChangeQuietPeriod() > 0 ? new ChangeCoalescer(
+            configuration.getChangeQuietPeriod(), configuration.getChangeMaxDelay(), cache::invalidateChanged) : null;
+    }
+
+    /**
+     * Reasoner answering from an epoch of the cache of another reasoner, before the epoch is in use; used to fill
+     * the epoch. It shares the delegate of the owner, and must not be disposed.
+     *
+     * @param owner
+     *        reasoner owning the epoch
+     * @param epoch
+     *        epoch to fill
+     */
+    private CachedOWLReasoner(CachedOWLReasoner owner, ReasonerCache epoch) {
+        delegate = owner.delegate;
+        shared = null;
+        warmUpParallelism = 0;
+        warmUpRegions = owner.warmUpRegions;
+        bulkParallelism = 1;
+        rootOntology = owner.rootOntology;
+        dataFactory = owner.dataFactory;
+        hierarchies = new PrecomputedHierarchies();
+        changeImpact = owner.changeImpact;
+        memoryPressureAware = false;
+        derivation = new AnswerDerivation(epoch, hierarchies, dataFactory);
+        canonicalizer = owner.canonicalizer;
+        epochs = false;
+        staleWhileRevalidate = false;
+        rewarmOnFlush = false;
+        coalescer = null;
+    }
+
+    /** @return derivation rules over the current epoch of the cache, after applying the pending changes if any */
+    private AnswerDerivation current() {
+        ChangeCoalescer c = coalescer;
+        if (c != null && c.isPending()) {
+            c.apply();
+        }
+        return derivation;
+    }
+
+    /** @return the current epoch of the cache */
+    private ReasonerCache cache() {
+        return current().cache;
+    }
+
+    /**
+     * @param ce
+     *        class expression
+     * @return the canonical form of ce, if canonicalization is enabled; ce otherwise
+     */
+    private OWLClassExpression canonical(OWLClassExpression ce) {
+        if (canonicalizer == null || !ce.isAnonymous()) {
+            return ce;
+        }
+        OWLClassExpression canonical = canonicalizer.canonical(ce);
+        if (!canonical.equals(ce)) {
+            cache().keyCanonicalized();
+        }
+        return canonical;
     }
 
     @Override
@@ -128,8 +289,69 @@ public class CachedOWLReasoner implements OWLReasoner, OWLOntologyChangeListener
 
     @Override
     public void flush() {
-        cache.clear();
+        cancelWarmUp();
+        if (!epochs) {
+            hierarchies.clear();
+            cache().clear();
+            delegate.flush();
+            return;
+        }
+        Set<OWLEntity> affected;
+        synchronized (pendingLock) {
+            affected = pendingAffected;
+            pendingAffected = new HashSet<>();
+        }
         delegate.flush();
+        if (affected != null && affected.isEmpty()) {
+            // none of the changes flushed can alter the cached answers
+            return;
+        }
+        hierarchies.clear();
+        if (staleWhileRevalidate) {
+            epochBuilder().execute(() -> nextEpoch(affected));
+        } else {
+            nextEpoch(affected);
+        }
+    }
+
+    /**
+     * Builds the epoch of the cache following a flush, and swaps it in: readers see either the previous epoch or
+     * the complete new one, never a partially invalidated cache.
+     *
+     * @param affected
+     *        entities affected by the flushed changes; null if every entailment might be affected
+     */
+    private void nextEpoch(@Nullable Set<OWLEntity> affected) {
+        synchronized (epochLock) {
+            ReasonerCache current = cache();
+            Map<CacheKeys, Set<OWLEntity>> dropped = new EnumMap<>(CacheKeys.class);
+            ReasonerCache next = current.nextEpoch(affected, !rewarmOnFlush ? null : (region, key) -> {
+                Object o = key instanceof BoolKey ? ((BoolKey) key).o : key;
+                if (o instanceof OWLEntity && CacheWarmUp.SUPPORTED_REGIONS.contains(region)) {
+                    dropped.computeIfAbsent(region, r -> new HashSet<>()).add((OWLEntity) o);
+                }
+            });
+            if (!dropped.isEmpty()) {
+                // the invalidated keys were in use: answer them again before the epoch is visible
+                new CacheWarmUp(new CachedOWLReasoner(this, next), dropped, Math.max(1, warmUpParallelism)).run();
+            }
+            if (memoryPressureAware) {
+                MemoryPressureMonitor.get().register(next);
+                MemoryPressureMonitor.get().unregister(current);
+            }
+            derivation = new AnswerDerivation(next, hierarchies, dataFactory);
+        }
+    }
+
+    private synchronized ExecutorService epochBuilder() {
+        if (epochBuilder == null) {
+            epochBuilder = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "CachedOWLReasoner epoch builder");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return epochBuilder;
     }
 
     @Override
@@ -154,14 +376,36 @@ public class CachedOWLReasoner implements OWLReasoner, OWLOntologyChangeListener
 
     @Override
     public void interrupt() {
-        cache.clear();
+        cancelWarmUp();
+        cache().clear();
         delegate.interrupt();
     }
 
     @Override
     public void precomputeInferences(InferenceType... inferenceTypes) {
-        cache.clear();
+        cancelWarmUp();
+        hierarchies.clear();
+        cache().clear();
         delegate.precomputeInferences(inferenceTypes);
+        hierarchies.build(delegate, inferenceTypes);
+        if (warmUpParallelism > 0) {
+            Set<CacheKeys> regions = EnumSet.copyOf(warmUpRegions);
+            regions.removeAll(hierarchies.coveredRegions());
+            CacheWarmUp w = new CacheWarmUp(this, rootOntology, regions, warmUpParallelism);
+            warmUp = w;
+            try {
+                w.run();
+            } finally {
+                warmUp = null;
+            }
+        }
+    }
+
+    void cancelWarmUp() {
+        CacheWarmUp w = warmUp;
+        if (w != null) {
+            w.cancel();
+        }
     }
 
     @Override
@@ -180,23 +424,52 @@ public class CachedOWLReasoner implements OWLReasoner, OWLOntologyChangeListener
     }
 
     @Override
-    public boolean isSatisfiable(OWLClassExpression ce) {
-        return cache.get(issatisfiable, ce, c -> Boolean.valueOf(delegate.isSatisfiable(ce))).booleanValue();
+    public boolean isSatisfiable(OWLClassExpression expression) {
+        AnswerDerivation d = current();
+        OWLClassExpression ce = canonical(expression);
+        Boolean cached = d.cache.lookup(issatisfiable, ce);
+        if (cached != null) {
+            return cached.booleanValue();
+        }
+        return d.cache.get(issatisfiable, ce, c -> {
+            Boolean derived = d.isSatisfiable(ce);
+            return derived != null ? derived : Boolean.valueOf(delegate.isSatisfiable(ce));
+        }).booleanValue();
     }
 
     @Override
     public Node<OWLClass> getUnsatisfiableClasses() {
-        return delegate.getUnsatisfiableClasses();
+        AnswerDerivation d = current();
+        return d.cache.get(unsatisfiableclasses, unsatisfiableclasses, c -> {
+            Node<OWLClass> derived = d.unsatisfiableClasses();
+            return derived != null ? derived : delegate.getUnsatisfiableClasses();
+        });
     }
 
     @Override
     public boolean isEntailed(OWLAxiom axiom) {
-        return cache.get(isEntailed, axiom, ax -> Boolean.valueOf(delegate.isEntailed(axiom))).booleanValue();
+        AnswerDerivation d = current();
+        return d.cache.get(isEntailed, axiom, ax -> {
+            Boolean derived = d.isEntailed(axiom);
+            return derived != null ? derived : Boolean.valueOf(delegate.isEntailed(axiom));
+        }).booleanValue();
     }
 
     @Override
     public boolean isEntailed(Set<? extends OWLAxiom> axioms) {
-        return axioms.stream().allMatch(this::isEntailed);
+        List<OWLAxiom> misses = new ArrayList<>();
+        for (OWLAxiom ax : axioms) {
+            Boolean entailed = cache().getIfPresent(isEntailed, ax);
+            if (entailed == null) {
+                misses.add(ax);
+            } else if (!entailed.booleanValue()) {
+                return false;
+            }
+        }
+        if (bulkParallelism == 1 || misses.size() < 2) {
+            return misses.stream().allMatch(this::isEntailed);
+        }
+        return inBulkPool(() -> Boolean.valueOf(misses.parallelStream().allMatch(this::isEntailed))).booleanValue();
     }
 
     @Override
@@ -215,25 +488,73 @@ public class CachedOWLReasoner implements OWLReasoner, OWLOntologyChangeListener
     }
 
     @Override
-    public NodeSet<OWLClass> getSubClasses(OWLClassExpression ce, boolean direct) {
-        return cache.get(direct ? subclassesDirect : subclasses, key(ce, direct), c -> delegate.getSubClasses(ce,
-            direct));
+    public NodeSet<OWLClass> getSubClasses(OWLClassExpression expression, boolean direct) {
+        AnswerDerivation d = current();
+        OWLClassExpression ce = canonical(expression);
+        NodeSet<OWLClass> precomputed = hierarchies.subClasses(ce, direct);
+        if (precomputed != null) {
+            return precomputed;
+        }
+        CacheKeys region = direct ? subclassesDirect : subclasses;
+        NodeSet<OWLClass> cached = d.cache.lookup(region, ce, direct);
+        if (cached != null) {
+            return cached;
+        }
+        return d.cache.get(region, key(ce, direct), c -> {
+            NodeSet<OWLClass> derived = direct ? d.directSubClasses(ce) : null;
+            return derived != null ? derived : delegate.getSubClasses(ce, direct);
+        });
     }
 
     @Override
-    public NodeSet<OWLClass> getSuperClasses(OWLClassExpression ce, boolean direct) {
-        return cache.get(direct ? superclassesDirect : superclasses, key(ce, direct), c -> delegate.getSuperClasses(ce,
-            direct));
+    public NodeSet<OWLClass> getSuperClasses(OWLClassExpression expression, boolean direct) {
+        AnswerDerivation d = current();
+        OWLClassExpression ce = canonical(expression);
+        NodeSet<OWLClass> precomputed = hierarchies.superClasses(ce, direct);
+        if (precomputed != null) {
+            return precomputed;
+        }
+        CacheKeys region = direct ? superclassesDirect : superclasses;
+        NodeSet<OWLClass> cached = d.cache.lookup(region, ce, direct);
+        if (cached != null) {
+            return cached;
+        }
+        return d.cache.get(region, key(ce, direct), c -> {
+            NodeSet<OWLClass> derived = direct ? d.directSuperClasses(ce) : null;
+            return derived != null ? derived : delegate.getSuperClasses(ce, direct);
+        });
     }
 
     @Override
-    public Node<OWLClass> getEquivalentClasses(OWLClassExpression ce) {
-        return cache.get(equivclasses, ce, c -> delegate.getEquivalentClasses(ce));
+    public Node<OWLClass> getEquivalentClasses(OWLClassExpression expression) {
+        AnswerDerivation d = current();
+        OWLClassExpression ce = canonical(expression);
+        Node<OWLClass> precomputed = hierarchies.equivalentClasses(ce);
+        if (precomputed != null) {
+            return precomputed;
+        }
+        Node<OWLClass> cached = d.cache.lookup(equivclasses, ce);
+        if (cached != null) {
+            return cached;
+        }
+        return d.cache.get(equivclasses, ce, c -> {
+            Node<OWLClass> derived = d.equivalentClasses(ce);
+            return derived != null ? derived : delegate.getEquivalentClasses(ce);
+        });
     }
 
     @Override
-    public NodeSet<OWLClass> getDisjointClasses(OWLClassExpression ce) {
-        return cache.get(disjointclasses, ce, c -> delegate.getDisjointClasses(ce));
+    public NodeSet<OWLClass> getDisjointClasses(OWLClassExpression expression) {
+        OWLClassExpression ce = canonical(expression);
+        NodeSet<OWLClass> precomputed = hierarchies.disjointClasses(ce);
+        if (precomputed != null) {
+            return precomputed;
+        }
+        NodeSet<OWLClass> cached = cache().lookup(disjointclasses, ce);
+        if (cached != null) {
+            return cached;
+        }
+        return cache().get(disjointclasses, ce, c -> delegate.getDisjointClasses(ce));
     }
 
     @Override
@@ -248,42 +569,82 @@ public class CachedOWLReasoner implements OWLReasoner, OWLOntologyChangeListener
 
     @Override
     public NodeSet<OWLObjectPropertyExpression> getSubObjectProperties(OWLObjectPropertyExpression pe, boolean direct) {
-        return cache.get(direct ? subobjectpropertiesDirect : subobjectproperties, key(pe, direct), p -> delegate
-            .getSubObjectProperties(pe, direct));
+        NodeSet<OWLObjectPropertyExpression> precomputed = hierarchies.subObjectProperties(pe, direct);
+        if (precomputed != null) {
+            return precomputed;
+        }
+        CacheKeys region = direct ? subobjectpropertiesDirect : subobjectproperties;
+        NodeSet<OWLObjectPropertyExpression> cached = cache().lookup(region, pe, direct);
+        if (cached != null) {
+            return cached;
+        }
+        return cache().get(region, key(pe, direct), p -> delegate.getSubObjectProperties(pe, direct));
     }
 
     @Override
     public NodeSet<OWLObjectPropertyExpression> getSuperObjectProperties(OWLObjectPropertyExpression pe,
         boolean direct) {
-        return cache.get(direct ? superobjectpropertiesDirect : superobjectproperties, key(pe, direct), p -> delegate
-            .getSuperObjectProperties(pe, direct));
+        NodeSet<OWLObjectPropertyExpression> precomputed = hierarchies.superObjectProperties(pe, direct);
+        if (precomputed != null) {
+            return precomputed;
+        }
+        CacheKeys region = direct ? superobjectpropertiesDirect : superobjectproperties;
+        NodeSet<OWLObjectPropertyExpression> cached = cache().lookup(region, pe, direct);
+        if (cached != null) {
+            return cached;
+        }
+        return cache().get(region, key(pe, direct), p -> delegate.getSuperObjectProperties(pe, direct));
     }
 
     @Override
     public Node<OWLObjectPropertyExpression> getEquivalentObjectProperties(OWLObjectPropertyExpression pe) {
-        return cache.get(equivobjectproperties, pe, p -> delegate.getEquivalentObjectProperties(pe));
+        Node<OWLObjectPropertyExpression> precomputed = hierarchies.equivalentObjectProperties(pe);
+        if (precomputed != null) {
+            return precomputed;
+        }
+        Node<OWLObjectPropertyExpression> cached = cache().lookup(equivobjectproperties, pe);
+        if (cached != null) {
+            return cached;
+        }
+        return cache().get(equivobjectproperties, pe, p -> delegate.getEquivalentObjectProperties(pe));
     }
 
     @Override
     public NodeSet<OWLObjectPropertyExpression> getDisjointObjectProperties(OWLObjectPropertyExpression pe) {
-        return cache.get(disjointobjectproperties, pe, p -> delegate.getDisjointObjectProperties(pe));
+        NodeSet<OWLObjectPropertyExpression> cached = cache().lookup(disjointobjectproperties, pe);
+        if (cached != null) {
+            return cached;
+        }
+        return cache().get(disjointobjectproperties, pe, p -> delegate.getDisjointObjectProperties(pe));
     }
 
     @Override
     public Node<OWLObjectPropertyExpression> getInverseObjectProperties(OWLObjectPropertyExpression pe) {
-        return cache.get(inverseobjectproperties, pe, p -> delegate.getInverseObjectProperties(pe));
+        Node<OWLObjectPropertyExpression> cached = cache().lookup(inverseobjectproperties, pe);
+        if (cached != null) {
+            return cached;
+        }
+        return cache().get(inverseobjectproperties, pe, p -> delegate.getInverseObjectProperties(pe));
     }
 
     @Override
     public NodeSet<OWLClass> getObjectPropertyDomains(OWLObjectPropertyExpression pe, boolean direct) {
-        return cache.get(direct ? objectpropertiesdomainsDirect : objectpropertiesdomains, key(pe, direct),
-            p -> delegate.getObjectPropertyDomains(pe, direct));
+        CacheKeys region = direct ? objectpropertiesdomainsDirect : objectpropertiesdomains;
+        NodeSet<OWLClass> cached = cache().lookup(region, pe, direct);
+        if (cached != null) {
+            return cached;
+        }
+        return cache().get(region, key(pe, direct), p -> delegate.getObjectPropertyDomains(pe, direct));
     }
 
     @Override
     public NodeSet<OWLClass> getObjectPropertyRanges(OWLObjectPropertyExpression pe, boolean direct) {
-        return cache.get(direct ? objectpropertiesrangesDirect : objectpropertiesranges, key(pe, direct), p -> delegate
-            .getObjectPropertyRanges(pe, direct));
+        CacheKeys region = direct ? objectpropertiesrangesDirect : objectpropertiesranges;
+        NodeSet<OWLClass> cached = cache().lookup(region, pe, direct);
+        if (cached != null) {
+            return cached;
+        }
+        return cache().get(region, key(pe, direct), p -> delegate.getObjectPropertyRanges(pe, direct));
     }
 
     @Override
@@ -298,60 +659,119 @@ public class CachedOWLReasoner implements OWLReasoner, OWLOntologyChangeListener
 
     @Override
     public NodeSet<OWLDataProperty> getSubDataProperties(OWLDataProperty pe, boolean direct) {
-        return cache.get(direct ? subdatapropertiesDirect : subdataproperties, key(pe, direct), p -> delegate
-            .getSubDataProperties(pe, direct));
+        NodeSet<OWLDataProperty> precomputed = hierarchies.subDataProperties(pe, direct);
+        if (precomputed != null) {
+            return precomputed;
+        }
+        CacheKeys region = direct ? subdatapropertiesDirect : subdataproperties;
+        NodeSet<OWLDataProperty> cached = cache().lookup(region, pe, direct);
+        if (cached != null) {
+            return cached;
+        }
+        return cache().get(region, key(pe, direct), p -> delegate.getSubDataProperties(pe, direct));
     }
 
     @Override
     public NodeSet<OWLDataProperty> getSuperDataProperties(OWLDataProperty pe, boolean direct) {
-        return cache.get(direct ? superdatapropertiesDirect : superdataproperties, key(pe, direct), p -> delegate
-            .getSuperDataProperties(pe, direct));
+        NodeSet<OWLDataProperty> precomputed = hierarchies.superDataProperties(pe, direct);
+        if (precomputed != null) {
+            return precomputed;
+        }
+        CacheKeys region = direct ? superdatapropertiesDirect : superdataproperties;
+        NodeSet<OWLDataProperty> cached = cache().lookup(region, pe, direct);
+        if (cached != null) {
+            return cached;
+        }
+        return cache().get(region, key(pe, direct), p -> delegate.getSuperDataProperties(pe, direct));
     }
 
     @Override
     public Node<OWLDataProperty> getEquivalentDataProperties(OWLDataProperty pe) {
-        return cache.get(equivdataproperties, pe, p -> delegate.getEquivalentDataProperties(pe));
+        Node<OWLDataProperty> precomputed = hierarchies.equivalentDataProperties(pe);
+        if (precomputed != null) {
+            return precomputed;
+        }
+        Node<OWLDataProperty> cached = cache().lookup(equivdataproperties, pe);
+        if (cached != null) {
+            return cached;
+        }
+        return cache().get(equivdataproperties, pe, p -> delegate.getEquivalentDataProperties(pe));
     }
 
     @Override
     public NodeSet<OWLDataProperty> getDisjointDataProperties(OWLDataPropertyExpression pe) {
-        return cache.get(disjointdataproperties, pe, p -> delegate.getDisjointDataProperties(pe));
+        NodeSet<OWLDataProperty> cached = cache().lookup(disjointdataproperties, pe);
+        if (cached != null) {
+            return cached;
+        }
+        return cache().get(disjointdataproperties, pe, p -> delegate.getDisjointDataProperties(pe));
     }
 
     @Override
     public NodeSet<OWLClass> getDataPropertyDomains(OWLDataProperty pe, boolean direct) {
-        return cache.get(direct ? datapropertiesdomainsDirect : datapropertiesdomains, key(pe, direct), p -> delegate
-            .getDataPropertyDomains(pe, direct));
+        CacheKeys region = direct ? datapropertiesdomainsDirect : datapropertiesdomains;
+        NodeSet<OWLClass> cached = cache().lookup(region, pe, direct);
+        if (cached != null) {
+            return cached;
+        }
+        return cache().get(region, key(pe, direct), p -> delegate.getDataPropertyDomains(pe, direct));
     }
 
     @Override
     public NodeSet<OWLClass> getTypes(OWLNamedIndividual ind, boolean direct) {
-        return cache.get(direct ? typesDirect : types, key(ind, direct), i -> delegate.getTypes(ind, direct));
+        CacheKeys region = direct ? typesDirect : types;
+        NodeSet<OWLClass> cached = cache().lookup(region, ind, direct);
+        if (cached != null) {
+            return cached;
+        }
+        return cache().get(region, key(ind, direct), i -> delegate.getTypes(ind, direct));
     }
 
     @Override
-    public NodeSet<OWLNamedIndividual> getInstances(OWLClassExpression ce, boolean direct) {
-        return cache.get(direct ? instancesDirect : instances, key(ce, direct), c -> delegate.getInstances(ce, direct));
+    public NodeSet<OWLNamedIndividual> getInstances(OWLClassExpression expression, boolean direct) {
+        OWLClassExpression ce = canonical(expression);
+        CacheKeys region = direct ? instancesDirect : instances;
+        NodeSet<OWLNamedIndividual> cached = cache().lookup(region, ce, direct);
+        if (cached != null) {
+            return cached;
+        }
+        return cache().get(region, key(ce, direct), c -> delegate.getInstances(ce, direct));
     }
 
     @Override
     public NodeSet<OWLNamedIndividual> getObjectPropertyValues(OWLNamedIndividual ind, OWLObjectPropertyExpression pe) {
-        return cache.get(objectpropertiesvalues, key(ind, pe), i -> delegate.getObjectPropertyValues(ind, pe));
+        NodeSet<OWLNamedIndividual> cached = cache().lookup(objectpropertiesvalues, ind, pe);
+        if (cached != null) {
+            return cached;
+        }
+        return cache().get(objectpropertiesvalues, key(ind, pe), i -> delegate.getObjectPropertyValues(ind, pe));
     }
 
     @Override
     public Set<OWLLiteral> getDataPropertyValues(OWLNamedIndividual ind, OWLDataProperty pe) {
-        return cache.get(datapropertiesvalues, key(ind, pe), i -> delegate.getDataPropertyValues(ind, pe));
+        Set<OWLLiteral> cached = cache().lookup(datapropertiesvalues, ind, pe);
+        if (cached != null) {
+            return cached;
+        }
+        return cache().get(datapropertiesvalues, key(ind, pe), i -> delegate.getDataPropertyValues(ind, pe));
     }
 
     @Override
     public Node<OWLNamedIndividual> getSameIndividuals(OWLNamedIndividual ind) {
-        return cache.get(sameindividual, ind, i -> delegate.getSameIndividuals(ind));
+        Node<OWLNamedIndividual> cached = cache().lookup(sameindividual, ind);
+        if (cached != null) {
+            return cached;
+        }
+        return cache().get(sameindividual, ind, i -> delegate.getSameIndividuals(ind));
     }
 
     @Override
     public NodeSet<OWLNamedIndividual> getDifferentIndividuals(OWLNamedIndividual ind) {
-        return cache.get(diffindividual, ind, i -> delegate.getDifferentIndividuals(ind));
+        NodeSet<OWLNamedIndividual> cached = cache().lookup(diffindividual, ind);
+        if (cached != null) {
+            return cached;
+        }
+        return cache().get(diffindividual, ind, i -> delegate.getDifferentIndividuals(ind));
     }
 
     @Override
@@ -371,14 +791,248 @@ public class CachedOWLReasoner implements OWLReasoner, OWLOntologyChangeListener
 
     @Override
     public void dispose() {
-        cache.clear();
+        if (memoryPressureAware) {
+            MemoryPressureMonitor.get().unregister(cache());
+        }
+        cancelWarmUp();
+        if (shared == null) {
+            hierarchies.clear();
+            cache().clear();
+        } else {
+            // the results stay available to the other reasoners, until the last one is disposed
+            shared.release(this);
+        }
+        synchronized (this) {
+            if (bulkPool != null) {
+                bulkPool.shutdownNow();
+                bulkPool = null;
+            }
+            if (epochBuilder != null) {
+                epochBuilder.shutdownNow();
+                epochBuilder = null;
+            }
+        }
         delegate.dispose();
     }
 
+    @Override
+    public Map<OWLClassExpression, Boolean> isSatisfiable(Collection<? extends OWLClassExpression> ces) {
+        return bulk(ces, ce -> cache().getIfPresent(issatisfiable, ce), this::isSatisfiable);
+    }
+
+    @Override
+    public Map<OWLAxiom, Boolean> areEntailed(Collection<? extends OWLAxiom> axioms) {
+        return bulk(axioms, ax -> cache().getIfPresent(isEntailed, ax), this::isEntailed);
+    }
+
+    @Override
+    public Map<OWLClassExpression, NodeSet<OWLClass>> getSubClasses(Collection<? extends OWLClassExpression> ces,
+        boolean direct) {
+        return bulk(ces, ce -> {
+            NodeSet<OWLClass> precomputed = hierarchies.subClasses(ce, direct);
+            return precomputed != null ? precomputed : cache().getIfPresent(direct ? subclassesDirect : subclasses,
+                key(ce, direct));
+        }, ce -> getSubClasses(ce, direct));
+    }
+
+    @Override
+    public Map<OWLClassExpression, NodeSet<OWLClass>> getSuperClasses(Collection<? extends OWLClassExpression> ces,
+        boolean direct) {
+        return bulk(ces, ce -> {
+            NodeSet<OWLClass> precomputed = hierarchies.superClasses(ce, direct);
+            return precomputed != null ? precomputed : cache().getIfPresent(direct ? superclassesDirect : superclasses,
+                key(ce, direct));
+        }, ce -> getSuperClasses(ce, direct));
+    }
+
+    @Override
+    public Map<OWLClassExpression, Node<OWLClass>> getEquivalentClasses(
+        Collection<? extends OWLClassExpression> ces) {
+        return bulk(ces, ce -> {
+            Node<OWLClass> precomputed = hierarchies.equivalentClasses(ce);
+            return precomputed != null ? precomputed : cache().getIfPresent(equivclasses, ce);
+        }, this::getEquivalentClasses);
+    }
+
+    @Override
+    public Map<OWLObjectPropertyExpression, NodeSet<OWLObjectPropertyExpression>> getSuperObjectProperties(
+        Collection<? extends OWLObjectPropertyExpression> pes, boolean direct) {
+        return bulk(pes, pe -> {
+            NodeSet<OWLObjectPropertyExpression> precomputed = hierarchies.superObjectProperties(pe, direct);
+            return precomputed != null ? precomputed : cache().getIfPresent(direct ? superobjectpropertiesDirect
+                : superobjectproperties, key(pe, direct));
+        }, pe -> getSuperObjectProperties(pe, direct));
+    }
+
+    @Override
+    public Map<OWLNamedIndividual, NodeSet<OWLClass>> getTypes(Collection<? extends OWLNamedIndividual> inds,
+        boolean direct) {
+        return bulk(inds, ind -> cache().getIfPresent(direct ? typesDirect : types, key(ind, direct)), ind -> getTypes(
+            ind, direct));
+    }
+
+    @Override
+    public Map<OWLClassExpression, NodeSet<OWLNamedIndividual>> getInstances(
+        Collection<? extends OWLClassExpression> ces, boolean direct) {
+        return bulk(ces, ce -> cache().getIfPresent(direct ? instancesDirect : instances, key(ce, direct)),
+            ce -> getInstances(ce, direct));
+    }
+
+    /**
+     * Answers a query for many keys: the hits are collected in one pass, then the distinct misses are answered,
+     * in parallel if so configured.
+     *
+     * @param keys
+     *        keys
+     * @param lookup
+     *        cache lookup, returning null on a miss
+     * @param query
+     *        single key query
+     * @return answer for each distinct key, in input order
+     */
+    private <K, V> Map<K, V> bulk(Collection<? extends K> keys, Function<K, V> lookup, Function<K, V> query) {
+        checkNotNull(keys, "keys cannot be null");
+        Map<K, V> results = new LinkedHashMap<>();
+        List<K> misses = new ArrayList<>();
+        for (K k : keys) {
+            if (!results.containsKey(k)) {
+                V v = lookup.apply(k);
+                results.put(k, v);
+                if (v == null) {
+                    misses.add(k);
+                }
+            }
+        }
+        List<V> loaded;
+        if (bulkParallelism == 1 || misses.size() < 2) {
+            loaded = misses.stream().map(query).collect(Collectors.toList());
+        } else {
+            loaded = inBulkPool(() -> misses.parallelStream().map(query).collect(Collectors.toList()));
+        }
+        for (int i = 0; i < misses.size(); i++) {
+            results.put(misses.get(i), loaded.get(i));
+        }
+        return results;
+    }
+
+    private <T> T inBulkPool(Callable<T> task) {
+        ForkJoinPool pool;
+        synchronized (this) {
+            if (bulkPool == null) {
+                bulkPool = new ForkJoinPool(bulkParallelism);
+            }
+            pool = bulkPool;
+        }
+        try {
+            return pool.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ReasonerInterruptedException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new OWLRuntimeException(cause);
+        }
+    }
+
+    /**
+     * Shrinks or grows the cache budget as if the heap had reached the given pressure level. Reasoners configured to
+     * be memory pressure aware are notified automatically; applications with their own memory monitoring can call
+     * this method directly. Entries can only be shed if the configuration is memory pressure aware or bounded, since
+     * otherwise the weights are not tracked.
+     *
+     * @param pressure
+     *        pressure level
+     */
+    public void onMemoryPressure(MemoryPressure pressure) {
+        cache().memoryPressure(checkNotNull(pressure, "pressure cannot be null"));
+    }
+
+    /**
+     * @return a snapshot of the cache statistics; for a shared cache, the statistics of all the reasoners sharing
+     *         it
+     */
+    public CacheStatistics getStatistics() {
+        return cache().statistics();
+    }
+
+    /** @return the result cache, which might be shared with other reasoners */
+    ReasonerCache resultCache() {
+        return cache();
+    }
+
+    /**
+     * Saves the cached results to a file, so that a reasoner created later for the same ontology content can restore
+     * them. Results for anonymous class expressions and entailment checks are not saved.
+     *
+     * @param file
+     *        destination file; replaced if it exists
+     * @return number of results saved
+     * @throws IOException
+     *         if the file cannot be written
+     */
+    public int saveSnapshot(Path file) throws IOException {
+        checkNotNull(file, "file cannot be null");
+        if (!delegate.getPendingChanges().isEmpty()) {
+            throw new IllegalStateException(
+                "Cannot save a snapshot while changes are pending: results do not reflect the ontology content");
+        }
+        return CacheSnapshot.save(cache(), CacheSnapshot.digest(delegate), file);
+    }
+
+    /**
+     * Restores results saved by {@link #saveSnapshot(Path)}. The snapshot is only used if it was saved for the same
+     * reasoner and for the same logical content of the imports closure of the root ontology.
+     *
+     * @param file
+     *        snapshot file
+     * @return number of results restored, or -1 if the snapshot was saved for different content
+     * @throws IOException
+     *         if the file cannot be read or is not a snapshot
+     */
+    public int restoreSnapshot(Path file) throws IOException {
+        checkNotNull(file, "file cannot be null");
+        if (!delegate.getPendingChanges().isEmpty()) {
+            return -1;
+        }
+        return CacheSnapshot.restore(cache(), CacheSnapshot.digest(delegate), file, rootOntology.getOWLOntologyManager()
+            .getOWLDataFactory());
+    }
+
     @Override
     public void ontologiesChanged(List<? extends OWLOntologyChange> changes) {
         // only invalidate the caches, the changes are supposed to go to the
         // reasoner via its own listener
-        cache.clear();
+        Set<OWLEntity> affected = changeImpact.affectedEntities(changes);
+        if (epochs) {
+            // the delegate answers as before the changes until flushed, and so does the current epoch
+            synchronized (pendingLock) {
+                if (affected == null) {
+                    pendingAffected = null;
+                } else if (pendingAffected != null) {
+                    pendingAffected.addAll(affected);
+                }
+            }
+            cache().ontologiesChangedPending();
+            return;
+        }
+        if (affected == null || !affected.isEmpty()) {
+            cancelWarmUp();
+            hierarchies.clear();
+        }
+        if (coalescer != null) {
+            // the delegate answers after the changes at once: readers apply the batch before using the cache
+            if (affected == null || !affected.isEmpty()) {
+                coalescer.add(affected);
+            }
+            derivation.cache.ontologiesChangedPending();
+            return;
+        }
+        cache().ontologiesChanged(affected);
     }
 }
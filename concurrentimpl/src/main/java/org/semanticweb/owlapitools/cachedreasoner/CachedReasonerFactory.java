@@ -1,28 +1,127 @@
 package org.semanticweb.owlapitools.cachedreasoner;
 
+import static org.semanticweb.owlapi.util.OWLAPIPreconditions.checkNotNull;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLRuntimeException;
+import org.semanticweb.owlapi.reasoner.BufferingMode;
 import org.semanticweb.owlapi.reasoner.IllegalConfigurationException;
 import org.semanticweb.owlapi.reasoner.OWLReasoner;
 import org.semanticweb.owlapi.reasoner.OWLReasonerConfiguration;
 import org.semanticweb.owlapi.reasoner.OWLReasonerFactory;
+import org.semanticweb.owlapi.util.Version;
 
 import uk.ac.manchester.cs.owl.owlapi.alternateimpls.ThreadSafeOWLReasoner;
 
 /**
- * A Reasoner factory that wraps reasoners in a caching layer
+ * A Reasoner factory that wraps reasoners in a caching layer. The factory keeps track of the reasoners it creates,
+ * without preventing their collection, so that their statistics can be inspected together through
+ * {@link #getStatistics()} or, if the configuration asks for it, through JMX. If the configuration enables
+ * {@link CachedReasonerConfiguration#setSharedCache(boolean) shared caches}, non buffering reasoners on the same
+ * ontology share their results, even when created by different factories. With a
+ * {@link CachedReasonerConfiguration#setLazyDelegate(boolean, boolean) lazy delegate}, non buffering reasoners are
+ * only created when the cache first needs them.
  * 
  * @author ignazio
  */
 public class CachedReasonerFactory implements OWLReasonerFactory {
 
     private final OWLReasonerFactory f;
+    private static final AtomicInteger FACTORY_COUNTER = new AtomicInteger();
+    private final CachedReasonerConfiguration configuration;
+    private final Set<CachedOWLReasoner> reasoners = Collections.synchronizedSet(Collections.newSetFromMap(
+        new WeakHashMap<>()));
+    @Nullable private volatile ObjectName mbeanName;
 
     /**
      * @param f
      *        reasoner factory to use to build actual reasoners
      */
     public CachedReasonerFactory(OWLReasonerFactory f) {
-        this.f = f;
+        this(f, new CachedReasonerConfiguration());
+    }
+
+    /**
+     * @param f
+     *        reasoner factory to use to build actual reasoners
+     * @param configuration
+     *        cache configuration for the reasoners created by this factory
+     */
+    public CachedReasonerFactory(OWLReasonerFactory f, CachedReasonerConfiguration configuration) {
+        this.f = checkNotNull(f, "f cannot be null");
+        this.configuration = checkNotNull(configuration, "configuration cannot be null");
+        if (configuration.isRegisterStatisticsMBean()) {
+            registerStatisticsMBean();
+        }
+    }
+
+    private void registerStatisticsMBean() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName("org.semanticweb.owlapitools.cachedreasoner:type=CachedReasonerFactory,id="
+                + FACTORY_COUNTER.incrementAndGet());
+            server.registerMBean(new CacheStatisticsBean(this::getStatistics), name);
+            mbeanName = name;
+        } catch (JMException e) {
+            throw new OWLRuntimeException("Cannot register the cache statistics MBean", e);
+        }
+    }
+
+    /** @return name of the statistics MBean registered by this factory; null if no MBean is registered */
+    @Nullable
+    public ObjectName getStatisticsMBeanName() {
+        return mbeanName;
+    }
+
+    /** Unregisters the statistics MBean, if this factory registered one. */
+    public synchronized void unregisterStatisticsMBean() {
+        ObjectName name = mbeanName;
+        if (name == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            throw new OWLRuntimeException("Cannot unregister the cache statistics MBean", e);
+        }
+        mbeanName = null;
+    }
+
+    /** @return sum of the statistics of the reasoners created by this factory and not yet collected */
+    public CacheStatistics getStatistics() {
+        List<CachedOWLReasoner> live;
+        synchronized (reasoners) {
+            live = new ArrayList<>(reasoners);
+        }
+        // reasoners sharing a cache are counted once
+        return live.stream().map(CachedOWLReasoner::resultCache).distinct().map(ReasonerCache::statistics).reduce(
+            CacheStatistics::plus).orElseGet(
+            () -> new CacheStatistics(new EnumMap<>(CacheKeys.class), 0, 0, 0, 0, 0, TierStatistics.NONE));
+    }
+
+    private OWLReasoner track(CachedOWLReasoner reasoner) {
+        reasoners.add(reasoner);
+        return reasoner;
+    }
+
+    /** @return cache configuration for the reasoners created by this factory */
+    public CachedReasonerConfiguration getConfiguration() {
+        return configuration;
     }
 
     @Override
@@ -32,27 +131,82 @@ public class CachedReasonerFactory implements OWLReasonerFactory {
 
     @Override
     public OWLReasoner createNonBufferingReasoner(OWLOntology ontology) {
-        return new CachedOWLReasoner(new ThreadSafeOWLReasoner(f.createNonBufferingReasoner(ontology)),
-            ontology.getOWLOntologyManager());
+        return cached(lazy(ontology, () -> f.createNonBufferingReasoner(ontology)), ontology, null);
     }
 
     @Override
     public OWLReasoner createReasoner(OWLOntology ontology) {
-        return new CachedOWLReasoner(new ThreadSafeOWLReasoner(f.createReasoner(ontology)),
-            ontology.getOWLOntologyManager());
+        return cached(f.createReasoner(ontology), ontology, null);
     }
 
     @Override
     public OWLReasoner createNonBufferingReasoner(OWLOntology ontology,
         OWLReasonerConfiguration config) throws IllegalConfigurationException {
-        return new CachedOWLReasoner(new ThreadSafeOWLReasoner(f.createNonBufferingReasoner(ontology, config)),
-            ontology.getOWLOntologyManager());
+        return cached(lazy(ontology, () -> f.createNonBufferingReasoner(ontology, config)), ontology, config);
     }
 
     @Override
     public OWLReasoner createReasoner(OWLOntology ontology,
         OWLReasonerConfiguration config) throws IllegalConfigurationException {
-        return new CachedOWLReasoner(new ThreadSafeOWLReasoner(f.createReasoner(ontology, config)),
-            ontology.getOWLOntologyManager());
+        return cached(f.createReasoner(ontology, config), ontology, config);
+    }
+
+    /**
+     * @param ontology
+     *        root ontology
+     * @param construction
+     *        creates a non buffering reasoner
+     * @return the reasoner, or a reasoner creating it on first use if the configuration asks for it
+     */
+    private OWLReasoner lazy(OWLOntology ontology, Supplier<OWLReasoner> construction) {
+        if (!configuration.isLazyDelegate()) {
+            return construction.get();
+        }
+        return new LazyOWLReasoner(ontology, f.getReasonerName(), reasonerVersion(), construction, configuration
+            .isBackgroundDelegateConstruction());
+    }
+
+    /**
+     * The version of the reasoners, known without creating one: reasoners usually report the implementation version
+     * of their package, which is also the version of the factory shipped with them. Factories are often subclassed, so
+     * the closest class of the factory whose package has a version is used.
+     *
+     * @return the version, 0.0.0.0 if no package has one, or null if it cannot be parsed
+     */
+    @Nullable
+    private Version reasonerVersion() {
+        String versionString = null;
+        for (Class<?> c = f.getClass(); versionString == null && c != Object.class; c = c.getSuperclass()) {
+            Package p = c.getPackage();
+            versionString = p == null ? null : p.getImplementationVersion();
+        }
+        int[] version = new int[4];
+        if (versionString != null) {
+            String[] split = versionString.split("\\.");
+            try {
+                for (int i = 0; i < split.length && i < version.length; i++) {
+                    version[i] = Integer.parseInt(split[i]);
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return new Version(version[0], version[1], version[2], version[3]);
+    }
+
+    private OWLReasoner cached(OWLReasoner reasoner, OWLOntology ontology, @Nullable OWLReasonerConfiguration config) {
+        SharedCache shared = null;
+        if (configuration.isSharedCache() && reasoner.getBufferingMode() == BufferingMode.NON_BUFFERING) {
+            shared = SharedCache.acquire(ontology, f.getReasonerName(), configuration, config);
+        }
+        try {
+            return track(new CachedOWLReasoner(new ThreadSafeOWLReasoner(reasoner), ontology.getOWLOntologyManager(),
+                configuration, shared));
+        } catch (RuntimeException | Error e) {
+            if (shared != null) {
+                shared.release();
+            }
+            throw e;
+        }
     }
 }
@@ -0,0 +1,122 @@
+package org.semanticweb.owlapitools.cachedreasoner;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.annotation.Nullable;
+
+import org.semanticweb.owlapi.model.OWLEntity;
+
+/**
+ * Batches the invalidations caused by bursts of ontology changes. The entities affected by each change are merged
+ * into one pending invalidation, which is applied once the changes have stopped for the quiet period, or once the
+ * maximum delay from the first pending change has passed, whichever comes first. Readers apply the pending
+ * invalidation themselves before using the cache, so that the answers are never older than the changes; a burst of
+ * changes without reads in between costs a single invalidation. All coalescers share one daemon timer thread.
+ *
+ * @author ignazio
+ */
+final class ChangeCoalescer {
+
+    @Nullable private static ScheduledExecutorService timer;
+    private final long quietPeriod;
+    private final long maxDelay;
+    private final Consumer<Set<OWLEntity>> invalidation;
+    /** True while an invalidation is pending; read without locking by the readers. */
+    private volatile boolean pending;
+    /** Entities affected by the pending changes; null if every entailment might be affected. Guarded by this. */
+    @Nullable private Set<OWLEntity> affected;
+    private long firstChange;
+    private long lastChange;
+    private boolean scheduled;
+
+    /**
+     * @param quietPeriod
+     *        milliseconds without changes after which the pending invalidation is applied
+     * @param maxDelay
+     *        maximum milliseconds between the first pending change and the invalidation
+     * @param invalidation
+     *        invalidation to apply, receiving the affected entities, or null if every entailment might be affected
+     */
+    ChangeCoalescer(long quietPeriod, long maxDelay, Consumer<Set<OWLEntity>> invalidation) {
+        this.quietPeriod = TimeUnit.MILLISECONDS.toNanos(quietPeriod);
+        this.maxDelay = TimeUnit.MILLISECONDS.toNanos(maxDelay);
+        this.invalidation = invalidation;
+    }
+
+    private static synchronized ScheduledExecutorService timer() {
+        if (timer == null) {
+            timer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "CachedOWLReasoner change coalescer");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return timer;
+    }
+
+    /**
+     * Adds the entities affected by a change to the pending invalidation.
+     *
+     * @param changed
+     *        entities affected by the change; null if every entailment might be affected
+     */
+    synchronized void add(@Nullable Set<OWLEntity> changed) {
+        long now = System.nanoTime();
+        if (!pending) {
+            firstChange = now;
+            affected = new HashSet<>();
+        }
+        if (changed == null) {
+            affected = null;
+        } else if (affected != null) {
+            affected.addAll(changed);
+        }
+        lastChange = now;
+        pending = true;
+        if (!scheduled) {
+            scheduled = true;
+            timer().schedule(this::expire, quietPeriod, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /** Applies the pending invalidation if it is due, or waits again for it to be due. */
+    private void expire() {
+        synchronized (this) {
+            scheduled = false;
+            if (!pending) {
+                return;
+            }
+            long delay = Math.min(lastChange + quietPeriod, firstChange + maxDelay) - System.nanoTime();
+            if (delay > 0) {
+                scheduled = true;
+                timer().schedule(this::expire, delay, TimeUnit.NANOSECONDS);
+                return;
+            }
+        }
+        apply();
+    }
+
+    /** @return true if an invalidation is pending */
+    boolean isPending() {
+        return pending;
+    }
+
+    /**
+     * Applies the pending invalidation, if any. Concurrent callers wait for the invalidation to complete, so that
+     * no caller reads the cache before it.
+     */
+    synchronized void apply() {
+        if (!pending) {
+            return;
+        }
+        Set<OWLEntity> toInvalidate = affected;
+        affected = null;
+        invalidation.accept(toInvalidate);
+        pending = false;
+    }
+}
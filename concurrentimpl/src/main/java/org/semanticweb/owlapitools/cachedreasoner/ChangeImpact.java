@@ -0,0 +1,296 @@
+package org.semanticweb.owlapitools.cachedreasoner;
+
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.annotation.Nullable;
+
+import org.semanticweb.owlapi.model.*;
+import org.semanticweb.owlapi.model.parameters.Imports;
+
+/**
+ * Computes which entities can have their entailments changed by a list of ontology changes, using syntactic
+ * bottom-locality. The bottom module of a signature preserves all entailments over that signature, and all the
+ * subsumers of its classes; an axiom can only enter the module of an entity if the entity reaches one of the
+ * entities that make the axiom non local. The affected entities are therefore computed by walking backwards from the
+ * changed axioms: every axiom that mentions an affected entity makes the entities on its left hand side affected as
+ * well. Axioms that are non local for every signature (assertions, axioms with a top-like left hand side) and changes
+ * to the imports closure affect everything.
+ * <p>
+ * The approximation is conservative: an entity is never reported as unaffected if its module can change. Entities
+ * whose module cannot change keep all their subsumers, types and entailments, except for the entities equivalent to
+ * the bottom or top entities: their answers span the whole signature, e.g., every class subsumes an unsatisfiable
+ * class. Changes adding entities to the signature or removing them from it therefore also report as affected
+ * owl:Nothing for classes, owl:bottomObjectProperty and owl:bottomDataProperty for properties and owl:Thing for
+ * individuals.
+ *
+ * @author ignazio
+ */
+final class ChangeImpact {
+
+    private final OWLOntology rootOntology;
+    /** Signature of the bottom module of the empty signature; null if it needs computing. */
+    @Nullable private Set<OWLEntity> globalSignature;
+
+    /**
+     * @param rootOntology
+     *        root ontology of the reasoner
+     */
+    ChangeImpact(OWLOntology rootOntology) {
+        this.rootOntology = rootOntology;
+    }
+
+    /**
+     * @param changes
+     *        changes to analyse
+     * @return the entities whose entailments can be changed by the changes; empty if the changes cannot modify any
+     *         entailment, null if every entailment can change
+     */
+    @Nullable
+    synchronized Set<OWLEntity> affectedEntities(List<? extends OWLOntologyChange> changes) {
+        Set<OWLOntology> closure = rootOntology.importsClosure().collect(Collectors.toSet());
+        Set<OWLEntity> affected = new HashSet<>();
+        List<OWLAxiom> changed = new ArrayList<>();
+        Set<OWLAxiom> added = new HashSet<>();
+        Set<OWLAxiom> removed = new HashSet<>();
+        List<OWLAxiom> signatureChanges = new ArrayList<>();
+        for (OWLOntologyChange change : changes) {
+            if (!closure.contains(change.getOntology())) {
+                // the reasoner does not see this ontology
+                continue;
+            }
+            if (change.isImportChange()) {
+                globalSignature = null;
+                return null;
+            }
+            if (!change.isAxiomChange()) {
+                // ontology annotations and ontology id changes do not alter entailments
+                continue;
+            }
+            OWLAxiom ax = change.getAxiom();
+            if (ax.isAnnotationAxiom()) {
+                continue;
+            }
+            signatureChanges.add(ax);
+            if (change.isAddAxiom()) {
+                added.add(ax);
+            }
+            if (!ax.isLogicalAxiom()) {
+                // declarations only matter for queries mentioning the declared entity
+                entities(ax).forEach(affected::add);
+                continue;
+            }
+            Collection<OWLEntity> trigger = trigger(ax);
+            if (trigger == null) {
+                globalSignature = null;
+                return null;
+            }
+            changed.add(ax);
+            if (change.isRemoveAxiom()) {
+                removed.add(ax);
+            }
+        }
+        signatureChanges(signatureChanges, added, affected);
+        if (changed.isEmpty()) {
+            return affected;
+        }
+        Set<OWLEntity> global = globalSignature(removed);
+        Deque<OWLEntity> toVisit = new ArrayDeque<>();
+        for (OWLAxiom ax : changed) {
+            Collection<OWLEntity> trigger = trigger(ax);
+            assert trigger != null;
+            for (OWLEntity e : trigger) {
+                if (global.contains(e)) {
+                    // the axiom is part of every module
+                    globalSignature = null;
+                    return null;
+                }
+                if (affected.add(e)) {
+                    toVisit.add(e);
+                }
+            }
+        }
+        while (!toVisit.isEmpty()) {
+            OWLEntity e = toVisit.poll();
+            referencingAxioms(e, removed).forEach(ax -> {
+                Collection<OWLEntity> trigger = trigger(ax);
+                if (trigger != null) {
+                    for (OWLEntity t : trigger) {
+                        if (affected.add(t)) {
+                            toVisit.add(t);
+                        }
+                    }
+                }
+            });
+        }
+        return affected;
+    }
+
+    /**
+     * Adds the built in entities standing for the entity types whose signature has changed.
+     *
+     * @param axioms
+     *        axioms added or removed
+     * @param added
+     *        the axioms added
+     * @param affected
+     *        affected entities to update
+     */
+    private void signatureChanges(List<OWLAxiom> axioms, Set<OWLAxiom> added, Set<OWLEntity> affected) {
+        OWLDataFactory df = rootOntology.getOWLOntologyManager().getOWLDataFactory();
+        axioms.stream().flatMap(ChangeImpact::entities).distinct().filter(e -> rootOntology.referencingAxioms(e,
+            Imports.INCLUDED).allMatch(added::contains)).forEach(e -> {
+                if (e.isOWLClass()) {
+                    affected.add(df.getOWLNothing());
+                } else if (e.isOWLObjectProperty()) {
+                    affected.add(df.getOWLBottomObjectProperty());
+                } else if (e.isOWLDataProperty()) {
+                    affected.add(df.getOWLBottomDataProperty());
+                } else if (e.isOWLNamedIndividual()) {
+                    affected.add(df.getOWLThing());
+                }
+            });
+    }
+
+    /**
+     * @param removed
+     *        axioms just removed; they are considered part of the ontology, so that the result covers the state
+     *        before and after the change
+     * @return signature of the bottom module of the empty signature
+     */
+    private Set<OWLEntity> globalSignature(Set<OWLAxiom> removed) {
+        Set<OWLEntity> global = globalSignature;
+        if (global != null) {
+            return global;
+        }
+        Set<OWLEntity> signature = new HashSet<>();
+        Deque<OWLEntity> toVisit = new ArrayDeque<>();
+        Stream.concat(rootOntology.logicalAxioms(Imports.INCLUDED), removed.stream()).filter(ax -> trigger(ax) == null)
+            .flatMap(ChangeImpact::entities).forEach(e -> {
+                if (signature.add(e)) {
+                    toVisit.add(e);
+                }
+            });
+        while (!toVisit.isEmpty()) {
+            OWLEntity e = toVisit.poll();
+            referencingAxioms(e, removed).forEach(ax -> {
+                Collection<OWLEntity> trigger = trigger(ax);
+                if (trigger != null && trigger.contains(e)) {
+                    entities(ax).forEach(s -> {
+                        if (signature.add(s)) {
+                            toVisit.add(s);
+                        }
+                    });
+                }
+            });
+        }
+        globalSignature = signature;
+        return signature;
+    }
+
+    private Stream<OWLAxiom> referencingAxioms(OWLEntity e, Set<OWLAxiom> removed) {
+        Stream<OWLAxiom> current = rootOntology.referencingAxioms(e, Imports.INCLUDED).filter(OWLAxiom::isLogicalAxiom);
+        if (removed.isEmpty()) {
+            return current;
+        }
+        return Stream.concat(current, removed.stream().filter(ax -> ax.containsEntityInSignature(e)));
+    }
+
+    /**
+     * @param o
+     *        object
+     * @return entities in the signature that can be interpreted as empty, i.e., no built in entities and no datatypes
+     */
+    static Stream<OWLEntity> entities(OWLObject o) {
+        return o.signature().filter(e -> !e.isBuiltIn() && !e.isOWLDatatype());
+    }
+
+    /**
+     * @param ax
+     *        logical axiom
+     * @return entities whose presence in a signature can make the axiom non local with respect to bottom locality;
+     *         null if the axiom is not local even for the empty signature
+     */
+    @Nullable
+    static Collection<OWLEntity> trigger(OWLAxiom ax) {
+        if (ax instanceof OWLSubClassOfAxiom) {
+            OWLClassExpression sub = ((OWLSubClassOfAxiom) ax).getSubClass();
+            return bottomLike(sub) ? collect(sub) : null;
+        }
+        if (ax instanceof OWLEquivalentClassesAxiom || ax instanceof OWLDisjointUnionAxiom) {
+            Stream<OWLClassExpression> operands = ax instanceof OWLDisjointUnionAxiom ? Stream.concat(Stream.of(
+                ((OWLDisjointUnionAxiom) ax).getOWLClass()), ((OWLDisjointUnionAxiom) ax).classExpressions())
+                : ((OWLEquivalentClassesAxiom) ax).classExpressions();
+            return operands.allMatch(ChangeImpact::bottomLike) ? collect(ax) : null;
+        }
+        if (ax instanceof OWLDisjointClassesAxiom) {
+            long notBottom = ((OWLDisjointClassesAxiom) ax).classExpressions().filter(c -> !bottomLike(c)).count();
+            return notBottom > 1 ? null : collect(ax);
+        }
+        if (ax instanceof OWLSubPropertyChainOfAxiom) {
+            return collect(((OWLSubPropertyChainOfAxiom) ax).getPropertyChain().stream());
+        }
+        if (ax instanceof OWLSubObjectPropertyOfAxiom) {
+            return collect(((OWLSubObjectPropertyOfAxiom) ax).getSubProperty());
+        }
+        if (ax instanceof OWLSubDataPropertyOfAxiom) {
+            return collect(((OWLSubDataPropertyOfAxiom) ax).getSubProperty());
+        }
+        if (ax instanceof OWLReflexiveObjectPropertyAxiom) {
+            return null;
+        }
+        if (ax instanceof OWLUnaryPropertyAxiom) {
+            return collect(((OWLUnaryPropertyAxiom<?>) ax).getProperty());
+        }
+        if (ax instanceof OWLNaryPropertyAxiom || ax instanceof OWLInverseObjectPropertiesAxiom
+            || ax instanceof OWLHasKeyAxiom) {
+            return collect(ax);
+        }
+        // assertions, datatype definitions and rules are never bottom local
+        return null;
+    }
+
+    private static Collection<OWLEntity> collect(OWLObject o) {
+        return entities(o).collect(Collectors.toSet());
+    }
+
+    private static Collection<OWLEntity> collect(Stream<? extends OWLObject> o) {
+        return o.flatMap(ChangeImpact::entities).collect(Collectors.toSet());
+    }
+
+    /**
+     * @param ce
+     *        class expression
+     * @return true if the expression is empty whenever the entities in its signature are interpreted as empty
+     */
+    static boolean bottomLike(OWLClassExpression ce) {
+        switch (ce.getClassExpressionType()) {
+            case OWL_CLASS:
+                return !ce.isOWLThing();
+            case OBJECT_INTERSECTION_OF:
+                return ((OWLObjectIntersectionOf) ce).operands().anyMatch(ChangeImpact::bottomLike);
+            case OBJECT_UNION_OF:
+                return ((OWLObjectUnionOf) ce).operands().allMatch(ChangeImpact::bottomLike);
+            case OBJECT_SOME_VALUES_FROM:
+            case OBJECT_HAS_VALUE:
+            case OBJECT_HAS_SELF:
+            case DATA_SOME_VALUES_FROM:
+            case DATA_HAS_VALUE:
+                return !isTop(((OWLRestriction) ce).getProperty());
+            case OBJECT_MIN_CARDINALITY:
+            case OBJECT_EXACT_CARDINALITY:
+            case DATA_MIN_CARDINALITY:
+            case DATA_EXACT_CARDINALITY:
+                return ((OWLCardinalityRestriction<?>) ce).getCardinality() > 0 && !isTop(((OWLRestriction) ce)
+                    .getProperty());
+            default:
+                // complements, universal and max restrictions, nominals
+                return false;
+        }
+    }
+
+    private static boolean isTop(OWLPropertyExpression p) {
+        return p.isOWLTopObjectProperty() || p.isOWLTopDataProperty();
+    }
+}
@@ -0,0 +1,250 @@
+package org.semanticweb.owlapitools.cachedreasoner;
+
+import static org.semanticweb.owlapi.util.OWLAPIStreamUtils.asUnorderedSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import javax.annotation.Nullable;
+
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLDataProperty;
+import org.semanticweb.owlapi.model.OWLEntity;
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
+import org.semanticweb.owlapi.model.OWLObject;
+import org.semanticweb.owlapi.model.OWLObjectProperty;
+import org.semanticweb.owlapi.model.OWLObjectPropertyExpression;
+import org.semanticweb.owlapi.reasoner.Node;
+import org.semanticweb.owlapi.reasoner.NodeSet;
+import org.semanticweb.owlapi.reasoner.impl.OWLClassNode;
+import org.semanticweb.owlapi.reasoner.impl.OWLDataPropertyNode;
+import org.semanticweb.owlapi.reasoner.impl.OWLNamedIndividualNode;
+import org.semanticweb.owlapi.reasoner.impl.OWLObjectPropertyNode;
+
+/**
+ * A NodeSet of named entities stored as a partition of entity ids: a {@link CompressedBitSet} of all the members,
+ * plus the ids of the nodes with more than one entity. Most nodes in reasoner answers are singletons, so a set of
+ * tens of thousands of entities takes a few kilobytes instead of one node object, one set and one entity reference
+ * per member. The nodes are rebuilt each time the set is iterated and are not retained; membership tests only look
+ * at the bitmap. Instances are immutable.
+ *
+ * @author ignazio
+ * @param <E>
+ *        entity type
+ */
+@SuppressWarnings("unchecked")
+final class CompactNodeSet<E extends OWLObject> implements NodeSet<E> {
+
+    /** Entity types that can be stored, with the matching node implementation. */
+    enum Kind {
+        CLASS, OBJECT_PROPERTY, DATA_PROPERTY, INDIVIDUAL;
+
+        @Nullable
+        static Kind of(Object o) {
+            if (o instanceof OWLClass) {
+                return CLASS;
+            }
+            if (o instanceof OWLObjectProperty) {
+                return OBJECT_PROPERTY;
+            }
+            if (o instanceof OWLDataProperty) {
+                return DATA_PROPERTY;
+            }
+            if (o instanceof OWLNamedIndividual) {
+                return INDIVIDUAL;
+            }
+            return null;
+        }
+
+        Node<?> node(Stream<OWLEntity> entities) {
+            switch (this) {
+                case CLASS:
+                    return new OWLClassNode(entities.map(OWLClass.class::cast));
+                case OBJECT_PROPERTY:
+                    return new OWLObjectPropertyNode(entities.map(OWLObjectPropertyExpression.class::cast));
+                case DATA_PROPERTY:
+                    return new OWLDataPropertyNode(entities.map(OWLDataProperty.class::cast));
+                default:
+                    return new OWLNamedIndividualNode(entities.map(OWLNamedIndividual.class::cast));
+            }
+        }
+    }
+
+    /** The stored form, compared by value to share identical results. */
+    static final class Shape {
+
+        final Kind kind;
+        final CompressedBitSet members;
+        /** Members of the nodes with more than one entity; null if all nodes are singletons. */
+        @Nullable final CompressedBitSet grouped;
+        /** Sorted ids of each node with more than one entity, ordered by first id. */
+        final int[][] groups;
+        final int nodeCount;
+
+        Shape(Kind kind, CompressedBitSet members, @Nullable CompressedBitSet grouped, int[][] groups) {
+            this.kind = kind;
+            this.members = members;
+            this.grouped = grouped;
+            this.groups = groups;
+            nodeCount = members.cardinality() - (grouped == null ? 0 : grouped.cardinality()) + groups.length;
+        }
+
+        @Override
+        public boolean equals(@Nullable Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof Shape)) {
+                return false;
+            }
+            Shape other = (Shape) obj;
+            return kind == other.kind && members.equals(other.members) && Arrays.deepEquals(groups, other.groups);
+        }
+
+        @Override
+        public int hashCode() {
+            return kind.hashCode() * 31 + members.hashCode();
+        }
+    }
+
+    private final EntityIds ids;
+    final Shape shape;
+    /** NodeSet hash code, computed on first use. */
+    private volatile int hash;
+
+    private CompactNodeSet(EntityIds ids, Shape shape) {
+        this.ids = ids;
+        this.shape = shape;
+    }
+
+    /**
+     * @param nodeSet
+     *        reasoner answer
+     * @param ids
+     *        dictionary to intern the entities in
+     * @return compact copy of the answer, or null if the answer is empty or contains anything but named entities of
+     *         one type
+     */
+    @Nullable
+    static <E extends OWLObject> CompactNodeSet<E> of(NodeSet<E> nodeSet, EntityIds ids) {
+        Kind kind = null;
+        CompressedBitSet members = new CompressedBitSet();
+        CompressedBitSet grouped = null;
+        List<int[]> groups = new ArrayList<>();
+        for (Node<E> n : nodeSet) {
+            int[] node = new int[n.getSize()];
+            int i = 0;
+            for (E e : n) {
+                Kind k = Kind.of(e);
+                if (k == null || kind != null && k != kind) {
+                    return null;
+                }
+                kind = k;
+                node[i++] = ids.internEntity(e);
+            }
+            for (int id : node) {
+                members.add(id);
+            }
+            if (node.length > 1) {
+                Arrays.sort(node);
+                groups.add(node);
+                if (grouped == null) {
+                    grouped = new CompressedBitSet();
+                }
+                for (int id : node) {
+                    grouped.add(id);
+                }
+            }
+        }
+        if (kind == null) {
+            return null;
+        }
+        groups.sort((a, b) -> Integer.compare(a[0], b[0]));
+        return new CompactNodeSet<>(ids, new Shape(kind, members, grouped, groups.toArray(new int[groups.size()][])));
+    }
+
+    private Node<E> node(int[] group) {
+        return (Node<E>) shape.kind.node(Arrays.stream(group).mapToObj(ids::entity));
+    }
+
+    private Node<E> node(int id) {
+        return (Node<E>) shape.kind.node(Stream.of(ids.entity(id)));
+    }
+
+    @Override
+    public Stream<Node<E>> nodes() {
+        CompressedBitSet grouped = shape.grouped;
+        IntStream singletons = grouped == null ? shape.members.stream() : shape.members.stream().filter(
+            id -> !grouped.contains(id));
+        return Stream.concat(Arrays.stream(shape.groups).map(this::node), singletons.mapToObj(this::node));
+    }
+
+    @Override
+    public Iterator<Node<E>> iterator() {
+        return nodes().iterator();
+    }
+
+    @Override
+    public Stream<E> entities() {
+        return shape.members.stream().mapToObj(id -> (E) ids.entity(id));
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return shape.members.isEmpty();
+    }
+
+    @Override
+    public boolean containsEntity(E e) {
+        int id = ids.id(e);
+        return id >= 0 && shape.members.contains(id);
+    }
+
+    @Override
+    public boolean isSingleton() {
+        return shape.nodeCount == 1;
+    }
+
+    @Override
+    public boolean isTopSingleton() {
+        return isSingleton() && nodes().allMatch(Node::isTopNode);
+    }
+
+    @Override
+    public boolean isBottomSingleton() {
+        return isSingleton() && nodes().allMatch(Node::isBottomNode);
+    }
+
+    @Override
+    public boolean equals(@Nullable Object obj) {
+        if (obj == this) {
+            return true;
+        }
+        if (obj instanceof CompactNodeSet && ((CompactNodeSet<?>) obj).ids == ids) {
+            return shape.equals(((CompactNodeSet<?>) obj).shape);
+        }
+        return obj instanceof NodeSet && asUnorderedSet(nodes()).equals(asUnorderedSet(((NodeSet<?>) obj)
+            .nodes()));
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            // same as the hash code of the set of nodes, as in the OWLAPI implementations
+            h = nodes().mapToInt(Node::hashCode).sum();
+            hash = h;
+        }
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return nodes().map(Object::toString).collect(Collectors.joining(", ", "Nodes(", ")"));
+    }
+}
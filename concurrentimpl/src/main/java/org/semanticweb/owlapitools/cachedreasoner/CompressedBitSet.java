@@ -0,0 +1,302 @@
+package org.semanticweb.owlapitools.cachedreasoner;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import javax.annotation.Nullable;
+
+/**
+ * A compressed set of non negative ints, organised like a roaring bitmap: values are partitioned by their high 16
+ * bits, and each partition is stored either as a sorted array of the low 16 bits (up to 4096 values) or as a 65536
+ * bit bitmap. Sparse sets cost two bytes per value, dense sets one bit per value. Not thread safe while being
+ * modified; instances shared between threads must not be modified after publication.
+ *
+ * @author ignazio
+ */
+final class CompressedBitSet {
+
+    private static final int ARRAY_MAXIMUM = 4096;
+    private static final int BITMAP_LONGS = 1024;
+    private static final char[] NO_KEYS = new char[0];
+    private static final Object[] NO_CONTAINERS = new Object[0];
+    /** High 16 bits of the values in each container, sorted. */
+    private char[] keys = NO_KEYS;
+    /** Containers: char[] for array containers, long[] for bitmaps. */
+    private Object[] containers = NO_CONTAINERS;
+    private int size;
+
+    /** @return a copy of this set */
+    CompressedBitSet copy() {
+        CompressedBitSet toReturn = new CompressedBitSet();
+        toReturn.keys = Arrays.copyOf(keys, size);
+        toReturn.containers = new Object[size];
+        for (int i = 0; i < size; i++) {
+            Object c = containers[i];
+            toReturn.containers[i] = c instanceof char[] ? ((char[]) c).clone() : ((long[]) c).clone();
+        }
+        toReturn.size = size;
+        return toReturn;
+    }
+
+    /**
+     * @param value
+     *        value to add; must not be negative
+     */
+    void add(int value) {
+        char high = (char) (value >>> 16);
+        char low = (char) value;
+        int i = Arrays.binarySearch(keys, 0, size, high);
+        if (i >= 0) {
+            containers[i] = add(containers[i], low);
+            return;
+        }
+        insertContainer(-i - 1, high, new char[] {low});
+    }
+
+    /**
+     * @param value
+     *        value to check
+     * @return true if the value is in the set
+     */
+    boolean contains(int value) {
+        if (value < 0) {
+            return false;
+        }
+        int i = Arrays.binarySearch(keys, 0, size, (char) (value >>> 16));
+        if (i < 0) {
+            return false;
+        }
+        Object c = containers[i];
+        char low = (char) value;
+        if (c instanceof char[]) {
+            return Arrays.binarySearch((char[]) c, low) >= 0;
+        }
+        return (((long[]) c)[low >>> 6] & 1L << low) != 0;
+    }
+
+    /**
+     * Adds all values of another set to this one.
+     *
+     * @param other
+     *        set to merge in
+     */
+    void or(CompressedBitSet other) {
+        for (int j = 0; j < other.size; j++) {
+            char high = other.keys[j];
+            int i = Arrays.binarySearch(keys, 0, size, high);
+            Object c = other.containers[j];
+            if (i < 0) {
+                insertContainer(-i - 1, high, c instanceof char[] ? ((char[]) c).clone() : ((long[]) c).clone());
+            } else {
+                containers[i] = union(containers[i], c);
+            }
+        }
+    }
+
+    /** @return true if the set is empty */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** @return number of values in the set */
+    int cardinality() {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            count += cardinality(containers[i]);
+        }
+        return count;
+    }
+
+    /**
+     * @param consumer
+     *        consumer for all values, in increasing order
+     */
+    void forEach(IntConsumer consumer) {
+        for (int i = 0; i < size; i++) {
+            int base = keys[i] << 16;
+            Object c = containers[i];
+            if (c instanceof char[]) {
+                for (char low : (char[]) c) {
+                    consumer.accept(base | low);
+                }
+            } else {
+                long[] bitmap = (long[]) c;
+                for (int w = 0; w < bitmap.length; w++) {
+                    long word = bitmap[w];
+                    while (word != 0) {
+                        consumer.accept(base | w << 6 | Long.numberOfTrailingZeros(word));
+                        word &= word - 1;
+                    }
+                }
+            }
+        }
+    }
+
+    /** @return the values, in increasing order */
+    IntStream stream() {
+        IntStream.Builder b = IntStream.builder();
+        forEach(b);
+        return b.build();
+    }
+
+    /** @return estimated memory footprint of the containers, in bytes */
+    long sizeInBytes() {
+        long bytes = 2L * keys.length;
+        for (int i = 0; i < size; i++) {
+            Object c = containers[i];
+            bytes += c instanceof char[] ? 2L * ((char[]) c).length : 8L * BITMAP_LONGS;
+        }
+        return bytes;
+    }
+
+    private void insertContainer(int position, char high, Object container) {
+        if (size == keys.length) {
+            int newLength = Math.max(4, size * 2);
+            keys = Arrays.copyOf(keys, newLength);
+            containers = Arrays.copyOf(containers, newLength);
+        }
+        System.arraycopy(keys, position, keys, position + 1, size - position);
+        System.arraycopy(containers, position, containers, position + 1, size - position);
+        keys[position] = high;
+        containers[position] = container;
+        size++;
+    }
+
+    private static Object add(Object container, char low) {
+        if (container instanceof long[]) {
+            ((long[]) container)[low >>> 6] |= 1L << low;
+            return container;
+        }
+        char[] array = (char[]) container;
+        int i = Arrays.binarySearch(array, low);
+        if (i >= 0) {
+            return array;
+        }
+        if (array.length >= ARRAY_MAXIMUM) {
+            long[] bitmap = toBitmap(array);
+            bitmap[low >>> 6] |= 1L << low;
+            return bitmap;
+        }
+        int position = -i - 1;
+        char[] toReturn = new char[array.length + 1];
+        System.arraycopy(array, 0, toReturn, 0, position);
+        toReturn[position] = low;
+        System.arraycopy(array, position, toReturn, position + 1, array.length - position);
+        return toReturn;
+    }
+
+    private static Object union(Object a, Object b) {
+        if (a instanceof long[]) {
+            long[] bitmap = (long[]) a;
+            orInto(bitmap, b);
+            return bitmap;
+        }
+        if (b instanceof long[]) {
+            long[] bitmap = ((long[]) b).clone();
+            orInto(bitmap, a);
+            return bitmap;
+        }
+        char[] x = (char[]) a;
+        char[] y = (char[]) b;
+        char[] merged = new char[x.length + y.length];
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (i < x.length && j < y.length) {
+            if (x[i] < y[j]) {
+                merged[k++] = x[i++];
+            } else if (x[i] > y[j]) {
+                merged[k++] = y[j++];
+            } else {
+                merged[k++] = x[i++];
+                j++;
+            }
+        }
+        while (i < x.length) {
+            merged[k++] = x[i++];
+        }
+        while (j < y.length) {
+            merged[k++] = y[j++];
+        }
+        if (k > ARRAY_MAXIMUM) {
+            return toBitmap(Arrays.copyOf(merged, k));
+        }
+        return k == merged.length ? merged : Arrays.copyOf(merged, k);
+    }
+
+    private static void orInto(long[] bitmap, Object other) {
+        if (other instanceof long[]) {
+            long[] o = (long[]) other;
+            for (int w = 0; w < BITMAP_LONGS; w++) {
+                bitmap[w] |= o[w];
+            }
+        } else {
+            for (char low : (char[]) other) {
+                bitmap[low >>> 6] |= 1L << low;
+            }
+        }
+    }
+
+    private static long[] toBitmap(char[] array) {
+        long[] bitmap = new long[BITMAP_LONGS];
+        for (char low : array) {
+            bitmap[low >>> 6] |= 1L << low;
+        }
+        return bitmap;
+    }
+
+    private static int cardinality(Object container) {
+        if (container instanceof char[]) {
+            return ((char[]) container).length;
+        }
+        int count = 0;
+        for (long word : (long[]) container) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    @Override
+    public boolean equals(@Nullable Object obj) {
+        if (obj == this) {
+            return true;
+        }
+        if (!(obj instanceof CompressedBitSet)) {
+            return false;
+        }
+        CompressedBitSet other = (CompressedBitSet) obj;
+        if (size != other.size) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (keys[i] != other.keys[i] || !sameValues(containers[i], other.containers[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sameValues(Object a, Object b) {
+        if (a instanceof char[] && b instanceof char[]) {
+            return Arrays.equals((char[]) a, (char[]) b);
+        }
+        long[] x = a instanceof long[] ? (long[]) a : toBitmap((char[]) a);
+        long[] y = b instanceof long[] ? (long[]) b : toBitmap((char[]) b);
+        return Arrays.equals(x, y);
+    }
+
+    @Override
+    public int hashCode() {
+        int[] hash = {size};
+        forEach(v -> hash[0] = 31 * hash[0] + v);
+        return hash[0];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder("{");
+        forEach(v -> b.append(b.length() > 1 ? ", " : "").append(v));
+        return b.append('}').toString();
+    }
+}
@@ -0,0 +1,146 @@
+package org.semanticweb.owlapitools.cachedreasoner;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.semanticweb.owlapi.model.OWLEntity;
+import org.semanticweb.owlapitools.cachedreasoner.CachedOWLReasoner.BoolKey;
+import org.semanticweb.owlapitools.cachedreasoner.CachedOWLReasoner.RegKey;
+
+/**
+ * Dictionary assigning dense int ids to the entities appearing in cache keys, so that keys made of named entities can
+ * be packed in a long: the id of the first entity in the high 32 bits, and the id of the second entity or the direct
+ * flag in the low 32 bits. Entities are interned when a result is cached for them, and are never removed; lookups of
+ * entities not interned yet return {@link #NO_KEY}, since nothing can be cached for them.
+ *
+ * @author ignazio
+ */
+final class EntityIds {
+
+    /** Key for objects that are not named entities, or that have no id. */
+    static final long NO_KEY = -1L;
+    private final ConcurrentHashMap<OWLEntity, Integer> ids = new ConcurrentHashMap<>();
+    /** Entities by id; grown while holding the lock on this dictionary. */
+    private volatile OWLEntity[] entities = new OWLEntity[64];
+    private int next;
+
+    private static long pack(int first, int second) {
+        return (long) first << 32 | second & 0xFFFFFFFFL;
+    }
+
+    /**
+     * @param o
+     *        object
+     * @return id of the entity, assigned if needed; -1 if the object is not an entity
+     */
+    int internEntity(Object o) {
+        if (!(o instanceof OWLEntity)) {
+            return -1;
+        }
+        Integer id = ids.get(o);
+        if (id == null) {
+            id = ids.computeIfAbsent((OWLEntity) o, this::assign);
+        }
+        return id.intValue();
+    }
+
+    private synchronized Integer assign(OWLEntity e) {
+        OWLEntity[] current = entities;
+        if (next == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+        }
+        current[next] = e;
+        // the volatile write publishes the entity before its id is visible in the map
+        entities = current;
+        return Integer.valueOf(next++);
+    }
+
+    /**
+     * @param id
+     *        id returned by this dictionary
+     * @return the entity with the id
+     */
+    OWLEntity entity(int id) {
+        return entities[id];
+    }
+
+    /**
+     * @param o
+     *        object
+     * @return id of the entity, or -1 if the object is not an entity or has no id yet
+     */
+    int id(Object o) {
+        if (!(o instanceof OWLEntity)) {
+            return -1;
+        }
+        Integer id = ids.get(o);
+        return id == null ? -1 : id.intValue();
+    }
+
+    /**
+     * @param o
+     *        single object key
+     * @return packed key, or NO_KEY
+     */
+    long key(Object o) {
+        int id = id(o);
+        return id < 0 ? NO_KEY : pack(id, 0);
+    }
+
+    /**
+     * @param o
+     *        key object
+     * @param direct
+     *        direct flag
+     * @return packed key, or NO_KEY
+     */
+    long key(Object o, boolean direct) {
+        int id = id(o);
+        return id < 0 ? NO_KEY : pack(id, direct ? 1 : 0);
+    }
+
+    /**
+     * @param o1
+     *        first key object
+     * @param o2
+     *        second key object
+     * @return packed key, or NO_KEY
+     */
+    long key(Object o1, Object o2) {
+        int id1 = id(o1);
+        if (id1 < 0) {
+            return NO_KEY;
+        }
+        int id2 = id(o2);
+        return id2 < 0 ? NO_KEY : pack(id1, id2);
+    }
+
+    /**
+     * Packs a key object as built by {@link CachedOWLReasoner}, interning its entities.
+     *
+     * @param key
+     *        key object
+     * @return packed key, the same returned by the lookup methods for the same components; NO_KEY if the key is
+     *         not made of named entities
+     */
+    long internKey(Object key) {
+        if (key instanceof BoolKey) {
+            BoolKey k = (BoolKey) key;
+            int id = internEntity(k.o);
+            return id < 0 ? NO_KEY : pack(id, k.b ? 1 : 0);
+        }
+        if (key instanceof RegKey) {
+            RegKey k = (RegKey) key;
+            int id1 = internEntity(k.o1);
+            int id2 = id1 < 0 ? -1 : internEntity(k.o2);
+            return id2 < 0 ? NO_KEY : pack(id1, id2);
+        }
+        int id = internEntity(key);
+        return id < 0 ? NO_KEY : pack(id, 0);
+    }
+
+    /** @return number of interned entities */
+    int size() {
+        return ids.size();
+    }
+}
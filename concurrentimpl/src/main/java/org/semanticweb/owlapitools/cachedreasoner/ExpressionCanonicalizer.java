@@ -0,0 +1,135 @@
+package org.semanticweb.owlapitools.cachedreasoner;
+
+import java.lang.ref.WeakReference;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import javax.annotation.Nullable;
+
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLObjectAllValuesFrom;
+import org.semanticweb.owlapi.model.OWLObjectExactCardinality;
+import org.semanticweb.owlapi.model.OWLObjectIntersectionOf;
+import org.semanticweb.owlapi.model.OWLObjectMaxCardinality;
+import org.semanticweb.owlapi.model.OWLObjectMinCardinality;
+import org.semanticweb.owlapi.model.OWLObjectSomeValuesFrom;
+import org.semanticweb.owlapi.model.OWLObjectUnionOf;
+
+/**
+ * Rewrites anonymous class expressions to a canonical form, so that syntactic variants of the same query share one
+ * cache entry. The canonical form is the negation normal form, with nested intersections and unions flattened,
+ * owl:Thing and owl:Nothing operands simplified away and single operand conjunctions and disjunctions replaced by
+ * their operand; fillers of object restrictions are rewritten in the same way. Operands are kept sorted by the OWLAPI
+ * implementations of intersections and unions. Equal canonical forms are shared, so that equal keys are usually the
+ * same object; both the original expressions and their canonical forms are held weakly.
+ *
+ * @author ignazio
+ */
+final class ExpressionCanonicalizer {
+
+    private final OWLDataFactory df;
+    /** Canonical form of each expression seen, including the canonical forms themselves; guarded by itself. */
+    private final Map<OWLClassExpression, WeakReference<OWLClassExpression>> forms = new WeakHashMap<>();
+
+    /**
+     * @param df
+     *        data factory for the rewritten expressions
+     */
+    ExpressionCanonicalizer(OWLDataFactory df) {
+        this.df = df;
+    }
+
+    /**
+     * @param ce
+     *        class expression
+     * @return canonical form of ce, equivalent to ce; named classes are returned unchanged
+     */
+    OWLClassExpression canonical(OWLClassExpression ce) {
+        if (!ce.isAnonymous()) {
+            return ce;
+        }
+        synchronized (forms) {
+            OWLClassExpression known = lookup(ce);
+            if (known != null) {
+                return known;
+            }
+        }
+        OWLClassExpression rewritten = rewrite(ce.getNNF());
+        synchronized (forms) {
+            OWLClassExpression shared = lookup(rewritten);
+            if (shared == null) {
+                shared = rewritten;
+                forms.put(shared, new WeakReference<>(shared));
+            }
+            forms.put(ce, new WeakReference<>(shared));
+            return shared;
+        }
+    }
+
+    @Nullable
+    private OWLClassExpression lookup(OWLClassExpression ce) {
+        WeakReference<OWLClassExpression> ref = forms.get(ce);
+        return ref == null ? null : ref.get();
+    }
+
+    private OWLClassExpression rewrite(OWLClassExpression ce) {
+        if (ce instanceof OWLObjectIntersectionOf) {
+            Set<OWLClassExpression> operands = new HashSet<>();
+            for (OWLClassExpression op : (Iterable<OWLClassExpression>) ((OWLObjectIntersectionOf) ce)
+                .operands()::iterator) {
+                OWLClassExpression c = rewrite(op);
+                if (c.isOWLNothing()) {
+                    return c;
+                }
+                if (c instanceof OWLObjectIntersectionOf) {
+                    ((OWLObjectIntersectionOf) c).operands().forEach(operands::add);
+                } else if (!c.isOWLThing()) {
+                    operands.add(c);
+                }
+            }
+            return operands.isEmpty() ? df.getOWLThing() : operands.size() == 1 ? operands.iterator().next()
+                : df.getOWLObjectIntersectionOf(operands);
+        }
+        if (ce instanceof OWLObjectUnionOf) {
+            Set<OWLClassExpression> operands = new HashSet<>();
+            for (OWLClassExpression op : (Iterable<OWLClassExpression>) ((OWLObjectUnionOf) ce)
+                .operands()::iterator) {
+                OWLClassExpression c = rewrite(op);
+                if (c.isOWLThing()) {
+                    return c;
+                }
+                if (c instanceof OWLObjectUnionOf) {
+                    ((OWLObjectUnionOf) c).operands().forEach(operands::add);
+                } else if (!c.isOWLNothing()) {
+                    operands.add(c);
+                }
+            }
+            return operands.isEmpty() ? df.getOWLNothing() : operands.size() == 1 ? operands.iterator().next()
+                : df.getOWLObjectUnionOf(operands);
+        }
+        if (ce instanceof OWLObjectSomeValuesFrom) {
+            OWLObjectSomeValuesFrom r = (OWLObjectSomeValuesFrom) ce;
+            return df.getOWLObjectSomeValuesFrom(r.getProperty(), rewrite(r.getFiller()));
+        }
+        if (ce instanceof OWLObjectAllValuesFrom) {
+            OWLObjectAllValuesFrom r = (OWLObjectAllValuesFrom) ce;
+            return df.getOWLObjectAllValuesFrom(r.getProperty(), rewrite(r.getFiller()));
+        }
+        if (ce instanceof OWLObjectMinCardinality) {
+            OWLObjectMinCardinality r = (OWLObjectMinCardinality) ce;
+            return df.getOWLObjectMinCardinality(r.getCardinality(), r.getProperty(), rewrite(r.getFiller()));
+        }
+        if (ce instanceof OWLObjectMaxCardinality) {
+            OWLObjectMaxCardinality r = (OWLObjectMaxCardinality) ce;
+            return df.getOWLObjectMaxCardinality(r.getCardinality(), r.getProperty(), rewrite(r.getFiller()));
+        }
+        if (ce instanceof OWLObjectExactCardinality) {
+            OWLObjectExactCardinality r = (OWLObjectExactCardinality) ce;
+            return df.getOWLObjectExactCardinality(r.getCardinality(), r.getProperty(), rewrite(r.getFiller()));
+        }
+        return ce;
+    }
+}
@@ -0,0 +1,121 @@
+package org.semanticweb.owlapitools.cachedreasoner;
+
+import java.util.Arrays;
+
+/**
+ * A 4-bit count-min sketch estimating how often a key has been requested recently, used by the TinyLFU admission
+ * policy of {@link CacheRegion}. Four counters are kept per key, each in a different 64 bit slot of the table; the
+ * estimate is the minimum of the four. All counters are halved once the number of increments reaches ten times the
+ * table size, so that the sketch forgets old popularity. Not thread safe: callers must hold the region lock.
+ *
+ * @author ignazio
+ */
+final class FrequencySketch {
+
+    private static final long[] SEED = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+        0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+    private static final int MINIMUM_CAPACITY = 16;
+    private long[] table = new long[0];
+    private int tableMask;
+    private int sampleSize;
+    private int size;
+
+    FrequencySketch() {
+        ensureCapacity(MINIMUM_CAPACITY);
+    }
+
+    /**
+     * Grows the table so that it can estimate frequencies for the given number of keys; growing the table discards
+     * the current counts.
+     *
+     * @param expectedKeys
+     *        number of distinct keys expected
+     */
+    void ensureCapacity(long expectedKeys) {
+        int maximum = (int) Math.min(Math.max(expectedKeys, MINIMUM_CAPACITY), Integer.MAX_VALUE >>> 2);
+        if (table.length >= maximum) {
+            return;
+        }
+        table = new long[Integer.highestOneBit(maximum - 1) << 1];
+        tableMask = table.length - 1;
+        sampleSize = 10 * table.length;
+        size = 0;
+    }
+
+    /** @return number of slots in the table */
+    int capacity() {
+        return table.length;
+    }
+
+    /**
+     * @param key
+     *        key to check
+     * @return estimated number of recent requests for the key, between 0 and 15
+     */
+    int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) (table[index] >>> ((start + i) << 2) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * @param key
+     *        key to record a request for
+     */
+    void increment(Object key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+        if (added && ++size == sampleSize) {
+            reset();
+        }
+    }
+
+    /** Discards all counts. */
+    void clear() {
+        Arrays.fill(table, 0L);
+        size = 0;
+    }
+
+    private boolean incrementAt(int i, int j) {
+        int offset = j << 2;
+        long mask = 0xfL << offset;
+        if ((table[i] & mask) != mask) {
+            table[i] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    private void reset() {
+        int odd = 0;
+        for (int i = 0; i < table.length; i++) {
+            odd += Long.bitCount(table[i] & ONE_MASK);
+            table[i] = table[i] >>> 1 & RESET_MASK;
+        }
+        size = (size >>> 1) - (odd >>> 2);
+    }
+
+    private int indexOf(int item, int i) {
+        long hash = (item + SEED[i]) * SEED[i];
+        hash += hash >>> 32;
+        return (int) hash & tableMask;
+    }
+
+    private static int spread(int h) {
+        int x = (h >>> 16 ^ h) * 0x45d9f3b;
+        x = (x >>> 16 ^ x) * 0x45d9f3b;
+        return x >>> 16 ^ x;
+    }
+}
@@ -0,0 +1,65 @@
+package org.semanticweb.owlapitools.cachedreasoner;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.semanticweb.owlapi.model.IRI;
+
+/**
+ * Dictionary assigning dense int ids to IRIs, in order of first use, so that serialized results refer to each IRI
+ * with a small int. Used by {@link CacheSnapshot} and by {@link OffHeapTier}; ids are never removed. Lookups by id do
+ * not lock.
+ *
+ * @author ignazio
+ */
+final class IriDictionary {
+
+    private final ConcurrentHashMap<IRI, Integer> ids = new ConcurrentHashMap<>();
+    /** IRIs by id; grown while holding the lock on this dictionary. */
+    private volatile IRI[] iris = new IRI[64];
+    private int next;
+
+    /**
+     * @param iri
+     *        IRI
+     * @return id of the IRI, assigned if needed
+     */
+    int id(IRI iri) {
+        Integer id = ids.get(iri);
+        if (id == null) {
+            id = ids.computeIfAbsent(iri, this::assign);
+        }
+        return id.intValue();
+    }
+
+    private synchronized Integer assign(IRI iri) {
+        IRI[] current = iris;
+        if (next == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+        }
+        current[next] = iri;
+        // the volatile write publishes the IRI before its id is visible in the map
+        iris = current;
+        return Integer.valueOf(next++);
+    }
+
+    /**
+     * @param id
+     *        id returned by this dictionary
+     * @return the IRI with the id
+     * @throws IllegalArgumentException
+     *         if no IRI has the id
+     */
+    IRI iri(int id) {
+        IRI[] current = iris;
+        if (id < 0 || id >= current.length || current[id] == null) {
+            throw new IllegalArgumentException("Unknown IRI id " + id);
+        }
+        return current[id];
+    }
+
+    /** @return number of IRIs; their ids go from 0 to size - 1 */
+    int size() {
+        return ids.size();
+    }
+}
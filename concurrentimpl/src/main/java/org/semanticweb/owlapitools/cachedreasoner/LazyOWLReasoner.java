@@ -0,0 +1,376 @@
+package org.semanticweb.owlapitools.cachedreasoner;
+
+import static org.semanticweb.owlapi.util.OWLAPIPreconditions.checkNotNull;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+
+import org.semanticweb.owlapi.model.AxiomType;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLDataProperty;
+import org.semanticweb.owlapi.model.OWLDataPropertyExpression;
+import org.semanticweb.owlapi.model.OWLLiteral;
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
+import org.semanticweb.owlapi.model.OWLObjectPropertyExpression;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+import org.semanticweb.owlapi.reasoner.BufferingMode;
+import org.semanticweb.owlapi.reasoner.FreshEntityPolicy;
+import org.semanticweb.owlapi.reasoner.IndividualNodeSetPolicy;
+import org.semanticweb.owlapi.reasoner.InferenceType;
+import org.semanticweb.owlapi.reasoner.Node;
+import org.semanticweb.owlapi.reasoner.NodeSet;
+import org.semanticweb.owlapi.reasoner.OWLReasoner;
+import org.semanticweb.owlapi.util.Version;
+
+/**
+ * Non buffering reasoner created on first use. The root ontology, the buffering mode, the (empty) pending changes and
+ * the reasoner name and version, as given by the factory, are known without the delegate; every other call creates it, if needed, and is forwarded to it. Calls needing the
+ * delegate while it is being created wait for it; if the creation fails, the failure is thrown to the caller and the
+ * next call tries again. Interrupting or disposing a reasoner whose delegate does not exist does not create it.
+ *
+ * @author ignazio
+ */
+final class LazyOWLReasoner implements OWLReasoner {
+
+    private final OWLOntology rootOntology;
+    private final String name;
+    /** Version given by the factory; null if unknown, in which case the delegate is asked. */
+    @Nullable private final Version version;
+    private final Supplier<OWLReasoner> construction;
+    /** The delegate, once created; written while holding the lock on this reasoner. */
+    @Nullable private volatile OWLReasoner delegate;
+    private boolean disposed;
+
+    /**
+     * @param rootOntology
+     *        root ontology of the reasoner to create
+     * @param name
+     *        name of the reasoner to create
+     * @param version
+     *        version of the reasoner to create; null if unknown
+     * @param construction
+     *        creates the non buffering delegate
+     * @param background
+     *        true to start creating the delegate on a background thread at once
+     */
+    LazyOWLReasoner(OWLOntology rootOntology, String name, @Nullable Version version,
+        Supplier<OWLReasoner> construction, boolean background) {
+        this.rootOntology = checkNotNull(rootOntology, "rootOntology cannot be null");
+        this.name = checkNotNull(name, "name cannot be null");
+        this.version = version;
+        this.construction = checkNotNull(construction, "construction cannot be null");
+        if (background) {
+            Thread t = new Thread(this::construct, "CachedOWLReasoner delegate construction");
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    private void construct() {
+        try {
+            synchronized (this) {
+                if (!disposed) {
+                    delegate();
+                }
+            }
+        } catch (RuntimeException e) {
+            // the first call needing the delegate tries again, and reports the failure
+        }
+    }
+
+    /** @return the delegate, created if needed */
+    private OWLReasoner delegate() {
+        OWLReasoner r = delegate;
+        if (r != null) {
+            return r;
+        }
+        synchronized (this) {
+            r = delegate;
+            if (r == null) {
+                if (disposed) {
+                    throw new IllegalStateException("The reasoner has been disposed");
+                }
+                r = checkNotNull(construction.get(), "construction cannot return null");
+                delegate = r;
+            }
+            return r;
+        }
+    }
+
+    @Override
+    public BufferingMode getBufferingMode() {
+        return BufferingMode.NON_BUFFERING;
+    }
+
+    @Override
+    public void flush() {
+        OWLReasoner r = delegate;
+        if (r != null) {
+            r.flush();
+        }
+    }
+
+    @Override
+    public List<OWLOntologyChange> getPendingChanges() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public Set<OWLAxiom> getPendingAxiomAdditions() {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public Set<OWLAxiom> getPendingAxiomRemovals() {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public OWLOntology getRootOntology() {
+        return rootOntology;
+    }
+
+    @Override
+    public void interrupt() {
+        OWLReasoner r = delegate;
+        if (r != null) {
+            r.interrupt();
+        }
+    }
+
+    @Override
+    public boolean isPrecomputed(InferenceType inferenceType) {
+        OWLReasoner r = delegate;
+        return r != null && r.isPrecomputed(inferenceType);
+    }
+
+    @Override
+    public void dispose() {
+        OWLReasoner r;
+        synchronized (this) {
+            disposed = true;
+            r = delegate;
+        }
+        if (r != null) {
+            r.dispose();
+        }
+    }
+
+    @Override
+    public String getReasonerName() {
+        return name;
+    }
+
+    @Override
+    public Version getReasonerVersion() {
+        Version v = version;
+        return v != null ? v : delegate().getReasonerVersion();
+    }
+
+    @Override
+    public void precomputeInferences(InferenceType... inferenceTypes) {
+        delegate().precomputeInferences(inferenceTypes);
+    }
+
+    @Override
+    public Set<InferenceType> getPrecomputableInferenceTypes() {
+        return delegate().getPrecomputableInferenceTypes();
+    }
+
+    @Override
+    public boolean isConsistent() {
+        return delegate().isConsistent();
+    }
+
+    @Override
+    public boolean isSatisfiable(OWLClassExpression classExpression) {
+        return delegate().isSatisfiable(classExpression);
+    }
+
+    @Override
+    public Node<OWLClass> getUnsatisfiableClasses() {
+        return delegate().getUnsatisfiableClasses();
+    }
+
+    @Override
+    public boolean isEntailed(OWLAxiom axiom) {
+        return delegate().isEntailed(axiom);
+    }
+
+    @Override
+    public boolean isEntailed(Set<? extends OWLAxiom> axioms) {
+        return delegate().isEntailed(axioms);
+    }
+
+    @Override
+    public boolean isEntailmentCheckingSupported(AxiomType<?> axiomType) {
+        return delegate().isEntailmentCheckingSupported(axiomType);
+    }
+
+    @Override
+    public Node<OWLClass> getTopClassNode() {
+        return delegate().getTopClassNode();
+    }
+
+    @Override
+    public Node<OWLClass> getBottomClassNode() {
+        return delegate().getBottomClassNode();
+    }
+
+    @Override
+    public NodeSet<OWLClass> getSubClasses(OWLClassExpression ce, boolean direct) {
+        return delegate().getSubClasses(ce, direct);
+    }
+
+    @Override
+    public NodeSet<OWLClass> getSuperClasses(OWLClassExpression ce, boolean direct) {
+        return delegate().getSuperClasses(ce, direct);
+    }
+
+    @Override
+    public Node<OWLClass> getEquivalentClasses(OWLClassExpression ce) {
+        return delegate().getEquivalentClasses(ce);
+    }
+
+    @Override
+    public NodeSet<OWLClass> getDisjointClasses(OWLClassExpression ce) {
+        return delegate().getDisjointClasses(ce);
+    }
+
+    @Override
+    public Node<OWLObjectPropertyExpression> getTopObjectPropertyNode() {
+        return delegate().getTopObjectPropertyNode();
+    }
+
+    @Override
+    public Node<OWLObjectPropertyExpression> getBottomObjectPropertyNode() {
+        return delegate().getBottomObjectPropertyNode();
+    }
+
+    @Override
+    public NodeSet<OWLObjectPropertyExpression> getSubObjectProperties(OWLObjectPropertyExpression pe,
+        boolean direct) {
+        return delegate().getSubObjectProperties(pe, direct);
+    }
+
+    @Override
+    public NodeSet<OWLObjectPropertyExpression> getSuperObjectProperties(OWLObjectPropertyExpression pe,
+        boolean direct) {
+        return delegate().getSuperObjectProperties(pe, direct);
+    }
+
+    @Override
+    public Node<OWLObjectPropertyExpression> getEquivalentObjectProperties(
+        OWLObjectPropertyExpression pe) {
+        return delegate().getEquivalentObjectProperties(pe);
+    }
+
+    @Override
+    public NodeSet<OWLObjectPropertyExpression> getDisjointObjectProperties(
+        OWLObjectPropertyExpression pe) {
+        return delegate().getDisjointObjectProperties(pe);
+    }
+
+    @Override
+    public Node<OWLObjectPropertyExpression> getInverseObjectProperties(OWLObjectPropertyExpression pe) {
+        return delegate().getInverseObjectProperties(pe);
+    }
+
+    @Override
+    public NodeSet<OWLClass> getObjectPropertyDomains(OWLObjectPropertyExpression pe, boolean direct) {
+        return delegate().getObjectPropertyDomains(pe, direct);
+    }
+
+    @Override
+    public NodeSet<OWLClass> getObjectPropertyRanges(OWLObjectPropertyExpression pe, boolean direct) {
+        return delegate().getObjectPropertyRanges(pe, direct);
+    }
+
+    @Override
+    public Node<OWLDataProperty> getTopDataPropertyNode() {
+        return delegate().getTopDataPropertyNode();
+    }
+
+    @Override
+    public Node<OWLDataProperty> getBottomDataPropertyNode() {
+        return delegate().getBottomDataPropertyNode();
+    }
+
+    @Override
+    public NodeSet<OWLDataProperty> getSubDataProperties(OWLDataProperty pe, boolean direct) {
+        return delegate().getSubDataProperties(pe, direct);
+    }
+
+    @Override
+    public NodeSet<OWLDataProperty> getSuperDataProperties(OWLDataProperty pe, boolean direct) {
+        return delegate().getSuperDataProperties(pe, direct);
+    }
+
+    @Override
+    public Node<OWLDataProperty> getEquivalentDataProperties(OWLDataProperty pe) {
+        return delegate().getEquivalentDataProperties(pe);
+    }
+
+    @Override
+    public NodeSet<OWLDataProperty> getDisjointDataProperties(OWLDataPropertyExpression pe) {
+        return delegate().getDisjointDataProperties(pe);
+    }
+
+    @Override
+    public NodeSet<OWLClass> getDataPropertyDomains(OWLDataProperty pe, boolean direct) {
+        return delegate().getDataPropertyDomains(pe, direct);
+    }
+
+    @Override
+    public NodeSet<OWLClass> getTypes(OWLNamedIndividual ind, boolean direct) {
+        return delegate().getTypes(ind, direct);
+    }
+
+    @Override
+    public NodeSet<OWLNamedIndividual> getInstances(OWLClassExpression ce, boolean direct) {
+        return delegate().getInstances(ce, direct);
+    }
+
+    @Override
+    public NodeSet<OWLNamedIndividual> getObjectPropertyValues(OWLNamedIndividual ind,
+        OWLObjectPropertyExpression pe) {
+        return delegate().getObjectPropertyValues(ind, pe);
+    }
+
+    @Override
+    public Set<OWLLiteral> getDataPropertyValues(OWLNamedIndividual ind, OWLDataProperty pe) {
+        return delegate().getDataPropertyValues(ind, pe);
+    }
+
+    @Override
+    public Node<OWLNamedIndividual> getSameIndividuals(OWLNamedIndividual ind) {
+        return delegate().getSameIndividuals(ind);
+    }
+
+    @Override
+    public NodeSet<OWLNamedIndividual> getDifferentIndividuals(OWLNamedIndividual ind) {
+        return delegate().getDifferentIndividuals(ind);
+    }
+
+    @Override
+    public long getTimeOut() {
+        return delegate().getTimeOut();
+    }
+
+    @Override
+    public FreshEntityPolicy getFreshEntityPolicy() {
+        return delegate().getFreshEntityPolicy();
+    }
+
+    @Override
+    public IndividualNodeSetPolicy getIndividualNodeSetPolicy() {
+        return delegate().getIndividualNodeSetPolicy();
+    }
+}
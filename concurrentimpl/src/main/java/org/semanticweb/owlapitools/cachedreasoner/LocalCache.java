@@ -0,0 +1,95 @@
+package org.semanticweb.owlapitools.cachedreasoner;
+
+import javax.annotation.Nullable;
+
+/**
+ * Small direct mapped cache owned by one thread, in front of the regions of a {@link ReasonerCache}. It maps the
+ * objects of a key, as passed by the caller, to the entry found in the region, so that a hit needs neither the entity
+ * ids nor the shared tables. Each slot remembers the value of the cache validity counter when its entry was looked
+ * up; a slot is valid only while the counter is unchanged, so that an invalidation empties all the thread local caches
+ * at once by incrementing it. Not thread safe: each instance is only used by the thread owning it.
+ *
+ * @author ignazio
+ */
+final class LocalCache {
+
+    /** One hit in this many is reported to the eviction policy of the region. */
+    static final int SAMPLE = 16;
+    private final CacheKeys[] regions;
+    private final Object[] firsts;
+    private final Object[] seconds;
+    private final CacheEntry[] entries;
+    private final long[] validity;
+    private final int mask;
+    private int hits;
+
+    /**
+     * @param size
+     *        number of slots; rounded up to a power of two
+     */
+    LocalCache(int size) {
+        int capacity = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+        regions = new CacheKeys[capacity];
+        firsts = new Object[capacity];
+        seconds = new Object[capacity];
+        entries = new CacheEntry[capacity];
+        validity = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    private int slot(CacheKeys region, Object first, @Nullable Object second) {
+        int h = (first.hashCode() * 31 + (second == null ? 0 : second.hashCode())) * 31 + region.ordinal();
+        h *= 0x9E3779B9;
+        return (h ^ h >>> 16) & mask;
+    }
+
+    /**
+     * @param region
+     *        region
+     * @param first
+     *        first key object
+     * @param second
+     *        second key object; null for single object keys
+     * @param current
+     *        current value of the validity counter of the cache
+     * @return the entry, or null if it is not in this cache or was looked up before the last invalidation
+     */
+    @Nullable
+    CacheEntry get(CacheKeys region, Object first, @Nullable Object second, long current) {
+        int i = slot(region, first, second);
+        if (regions[i] != region || validity[i] != current || !same(firsts[i], first) || !same(seconds[i], second)) {
+            return null;
+        }
+        return entries[i];
+    }
+
+    private static boolean same(@Nullable Object a, @Nullable Object b) {
+        return a == b || a != null && a.equals(b);
+    }
+
+    /**
+     * @param region
+     *        region
+     * @param first
+     *        first key object
+     * @param second
+     *        second key object; null for single object keys
+     * @param current
+     *        value of the validity counter of the cache read before looking up the entry
+     * @param e
+     *        entry found in the region
+     */
+    void put(CacheKeys region, Object first, @Nullable Object second, long current, CacheEntry e) {
+        int i = slot(region, first, second);
+        regions[i] = region;
+        firsts[i] = first;
+        seconds[i] = second;
+        entries[i] = e;
+        validity[i] = current;
+    }
+
+    /** @return true if the current hit should be reported to the eviction policy */
+    boolean sample() {
+        return (++hits & SAMPLE - 1) == 0;
+    }
+}
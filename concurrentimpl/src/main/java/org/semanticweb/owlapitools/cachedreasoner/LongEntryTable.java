@@ -0,0 +1,156 @@
+package org.semanticweb.owlapitools.cachedreasoner;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.Nullable;
+
+/**
+ * Open addressing map from packed long keys to the completed entries of a {@link CacheRegion}, with linear probing.
+ * Reads take no lock and allocate nothing: each slot publishes its entry before its key, and a reader checks that
+ * the entry found carries the key it probed for, so that a slot reused concurrently is seen as a miss. Writes are
+ * serialized on the table; the table is doubled, dropping the deleted slots, when more than half of the slots have
+ * been used.
+ *
+ * @author ignazio
+ */
+final class LongEntryTable {
+
+    private static final long EMPTY = -1L;
+    private static final long DELETED = -2L;
+    private static final int INITIAL_CAPACITY = 16;
+    private volatile Slots slots = new Slots(INITIAL_CAPACITY);
+
+    private static final class Slots {
+
+        final AtomicLongArray keys;
+        final AtomicReferenceArray<CacheEntry> entries;
+        final int mask;
+        /** Slots holding a key or a deletion marker; guarded by the table. */
+        int used;
+        /** Slots holding a key; guarded by the table. */
+        int size;
+
+        Slots(int capacity) {
+            keys = new AtomicLongArray(capacity);
+            for (int i = 0; i < capacity; i++) {
+                keys.set(i, EMPTY);
+            }
+            entries = new AtomicReferenceArray<>(capacity);
+            mask = capacity - 1;
+        }
+    }
+
+    private static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ h >>> 32) & mask;
+    }
+
+    /**
+     * @param key
+     *        packed key
+     * @return the entry for the key, or null
+     */
+    @Nullable
+    CacheEntry get(long key) {
+        Slots s = slots;
+        int i = slot(key, s.mask);
+        while (true) {
+            long k = s.keys.get(i);
+            if (k == key) {
+                CacheEntry e = s.entries.get(i);
+                return e != null && e.fastKey == key ? e : null;
+            }
+            if (k == EMPTY) {
+                return null;
+            }
+            i = i + 1 & s.mask;
+        }
+    }
+
+    /**
+     * @param e
+     *        entry to add, replacing any entry with the same key
+     */
+    synchronized void put(CacheEntry e) {
+        Slots s = slots;
+        if (s.used + 1 > s.keys.length() >> 1) {
+            s = resize(s);
+        }
+        int i = slot(e.fastKey, s.mask);
+        int free = -1;
+        while (true) {
+            long k = s.keys.get(i);
+            if (k == e.fastKey) {
+                s.entries.set(i, e);
+                return;
+            }
+            if (k == DELETED && free < 0) {
+                free = i;
+            }
+            if (k == EMPTY) {
+                break;
+            }
+            i = i + 1 & s.mask;
+        }
+        if (free < 0) {
+            free = i;
+            s.used++;
+        }
+        s.size++;
+        s.entries.set(free, e);
+        s.keys.set(free, e.fastKey);
+    }
+
+    /**
+     * @param e
+     *        entry to remove; entries with the same key are not removed
+     */
+    synchronized void remove(CacheEntry e) {
+        Slots s = slots;
+        int i = slot(e.fastKey, s.mask);
+        while (true) {
+            long k = s.keys.get(i);
+            if (k == e.fastKey) {
+                if (s.entries.get(i) == e) {
+                    s.entries.set(i, null);
+                    s.keys.set(i, DELETED);
+                    s.size--;
+                }
+                return;
+            }
+            if (k == EMPTY) {
+                return;
+            }
+            i = i + 1 & s.mask;
+        }
+    }
+
+    /** Removes all entries. */
+    synchronized void clear() {
+        slots = new Slots(INITIAL_CAPACITY);
+    }
+
+    private Slots resize(Slots s) {
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < s.size * 4) {
+            capacity <<= 1;
+        }
+        Slots resized = new Slots(capacity);
+        for (int j = 0; j < s.keys.length(); j++) {
+            long k = s.keys.get(j);
+            if (k != EMPTY && k != DELETED) {
+                int i = slot(k, resized.mask);
+                while (resized.keys.get(i) != EMPTY) {
+                    i = i + 1 & resized.mask;
+                }
+                resized.entries.set(i, s.entries.get(j));
+                resized.keys.set(i, k);
+                resized.used++;
+                resized.size++;
+            }
+        }
+        slots = resized;
+        return resized;
+    }
+}
@@ -0,0 +1,51 @@
+package org.semanticweb.owlapitools.cachedreasoner;
+
+import javax.annotation.Nullable;
+
+/**
+ * Heap pressure levels a {@link CachedOWLReasoner} reacts to. A notification at a higher pressure level than the last
+ * one shrinks the cache budget, evicting the least frequently used entries across all regions; repeats of the same
+ * level leave it as it is, and notifications without pressure let the budget grow back in steps.
+ *
+ * @author ignazio
+ */
+public enum MemoryPressure {
+    /** The heap is comfortably below the thresholds: the cache budget grows back, doubling at each notification. */
+    NONE(1D),
+    /** The old generation is still at least 70% full after a collection: the cache sheds a quarter of its weight. */
+    MODERATE(0.75D),
+    /** The old generation is still at least 80% full after a collection: the cache sheds half of its weight. */
+    HIGH(0.5D),
+    /** The old generation is still at least 90% full after a collection: the cache is emptied. */
+    CRITICAL(0D);
+
+    private final double retained;
+
+    MemoryPressure(double retained) {
+        this.retained = retained;
+    }
+
+    /** @return fraction of the current cache weight kept at this level */
+    double retained() {
+        return retained;
+    }
+
+    /**
+     * @param usedFraction
+     *        fraction of the old generation still used after a collection
+     * @return the pressure level, or null in the band between NONE and MODERATE, where the budget is left as it is
+     */
+    @Nullable
+    static MemoryPressure of(double usedFraction) {
+        if (usedFraction >= 0.9D) {
+            return CRITICAL;
+        }
+        if (usedFraction >= 0.8D) {
+            return HIGH;
+        }
+        if (usedFraction >= 0.7D) {
+            return MODERATE;
+        }
+        return usedFraction < 0.6D ? NONE : null;
+    }
+}
@@ -0,0 +1,125 @@
+package org.semanticweb.owlapitools.cachedreasoner;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import javax.annotation.Nullable;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+/**
+ * Watches the heap for all the caches in the JVM that asked for it. The old generation pools, the heap pools that
+ * support a usage threshold (young pools do not), get a collection usage threshold at 70% of their maximum, if none is
+ * set yet; every threshold crossing, and every garbage collection notification after which the usage of those pools
+ * has changed, re-evaluates the fullest of them after its last collection, and the resulting {@link MemoryPressure} is
+ * passed to the registered caches. Young collections leave the old generation usage unchanged and are ignored. Caches
+ * are held weakly, so that an undisposed reasoner can still be collected.
+ *
+ * @author ignazio
+ */
+final class MemoryPressureMonitor implements NotificationListener {
+
+    /** Notification type of com.sun.management.GarbageCollectionNotificationInfo, not referenced directly. */
+    private static final String GC_NOTIFICATION = "com.sun.management.gc.notification";
+    private static final double THRESHOLD = 0.7D;
+    @Nullable private static MemoryPressureMonitor instance;
+    private final List<MemoryPoolMXBean> pools = new ArrayList<>();
+    /** Usage of each pool after its last collection, as seen at the last evaluation. */
+    private long[] lastCollectionUsage = new long[0];
+    private final Set<ReasonerCache> caches = Collections.synchronizedSet(Collections.newSetFromMap(
+        new WeakHashMap<>()));
+
+    private MemoryPressureMonitor() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported() && pool
+                .isCollectionUsageThresholdSupported() && pool.getUsage().getMax() > 0) {
+                pools.add(pool);
+                if (pool.getCollectionUsageThreshold() == 0) {
+                    pool.setCollectionUsageThreshold((long) (pool.getUsage().getMax() * THRESHOLD));
+                }
+            }
+        }
+        lastCollectionUsage = new long[pools.size()];
+        ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener(this, null, null);
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc instanceof NotificationEmitter) {
+                ((NotificationEmitter) gc).addNotificationListener(this, null, null);
+            }
+        }
+    }
+
+    /** @return the monitor, started on first use */
+    static synchronized MemoryPressureMonitor get() {
+        if (instance == null) {
+            instance = new MemoryPressureMonitor();
+        }
+        return instance;
+    }
+
+    /**
+     * @param cache
+     *        cache to notify
+     */
+    void register(ReasonerCache cache) {
+        caches.add(cache);
+    }
+
+    /**
+     * @param cache
+     *        cache not to notify any longer
+     */
+    void unregister(ReasonerCache cache) {
+        caches.remove(cache);
+    }
+
+    @Override
+    public void handleNotification(Notification notification, @Nullable Object handback) {
+        String type = notification.getType();
+        boolean thresholdExceeded = MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(type);
+        if (!thresholdExceeded && !GC_NOTIFICATION.equals(type)) {
+            return;
+        }
+        MemoryPressure pressure = evaluate(thresholdExceeded);
+        if (pressure == null) {
+            return;
+        }
+        List<ReasonerCache> toNotify;
+        synchronized (caches) {
+            toNotify = new ArrayList<>(caches);
+        }
+        toNotify.forEach(c -> c.memoryPressure(pressure));
+    }
+
+    /**
+     * @param force
+     *        true if the pools must be evaluated even when their usage after collection has not changed
+     * @return the pressure level, or null if the usage has not changed or is between NONE and MODERATE
+     */
+    @Nullable
+    private synchronized MemoryPressure evaluate(boolean force) {
+        boolean changed = false;
+        double used = 0;
+        for (int i = 0; i < pools.size(); i++) {
+            MemoryUsage usage = pools.get(i).getCollectionUsage();
+            if (usage != null && usage.getMax() > 0) {
+                changed |= usage.getUsed() != lastCollectionUsage[i];
+                lastCollectionUsage[i] = usage.getUsed();
+                used = Math.max(used, (double) usage.getUsed() / usage.getMax());
+            }
+        }
+        if (!changed && !force) {
+            return null;
+        }
+        return MemoryPressure.of(used);
+    }
+}
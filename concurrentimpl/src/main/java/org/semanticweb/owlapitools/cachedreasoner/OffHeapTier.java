@@ -0,0 +1,267 @@
+package org.semanticweb.owlapitools.cachedreasoner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.annotation.Nullable;
+
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.reasoner.Node;
+import org.semanticweb.owlapi.reasoner.NodeSet;
+
+/**
+ * Second tier of a {@link ReasonerCache}, holding the results evicted from the heap serialized outside of it, so that
+ * they cost the garbage collector nothing. Results are written with the {@link CacheSnapshot} encoding, IRIs replaced
+ * by ids from an {@link IriDictionary}, into fixed size arenas: direct byte buffers, or memory mapped temporary files
+ * if a directory is given. Arenas are filled in turn; when they are all full, the oldest one is reused and its
+ * results are dropped. A result found in the tier is removed from it and promoted back to the heap.
+ * <p>
+ * Keys stay on the heap, in one index per region. Only node sets, nodes and literal sets of named entities are
+ * demoted; booleans and results mentioning anonymous expressions are simply evicted. The tier is emptied by every
+ * invalidation, since it does not index the entities mentioned by its results; results evicted by a load that
+ * started before an invalidation are not demoted.
+ *
+ * @author ignazio
+ */
+final class OffHeapTier {
+
+    /** Largest arena; larger tiers are split in several arenas. */
+    static final int MAXIMUM_ARENA_SIZE = 64 << 20;
+    /** Bytes in front of each result, holding its length. */
+    private static final int HEADER = 4;
+    private final int arenaSize;
+    @Nullable private final Path directory;
+    private final OWLDataFactory df;
+    private final LongSupplier generation;
+    private final IriDictionary dictionary = new IriDictionary();
+    /** Location of each result, per region: arena index in the high 32 bits, offset in the low 32 bits. */
+    private final List<Map<Object, Long>> index = new ArrayList<>();
+    /** Arenas, allocated on first use. */
+    private final ByteBuffer[] arenas;
+    /** Results written in each arena, to drop from the index when the arena is reused. */
+    private final List<List<Slot>> slots = new ArrayList<>();
+    private int current;
+    private long entries;
+    /** Counters, shared by all the epochs of the cache. */
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder demotions;
+
+    /** A result written in an arena. */
+    private static final class Slot {
+
+        final CacheKeys region;
+        final Object key;
+        final Long location;
+
+        Slot(CacheKeys region, Object key, Long location) {
+            this.region = region;
+            this.key = key;
+            this.location = location;
+        }
+    }
+
+    /**
+     * @param capacity
+     *        bytes available to the tier
+     * @param directory
+     *        directory for the memory mapped files; null for direct byte buffers
+     * @param df
+     *        data factory for the promoted results
+     * @param generation
+     *        generation of the cache, incremented by every invalidation
+     * @param previous
+     *        tier of the previous epoch of the cache, whose counters are carried on; null for a new cache
+     */
+    OffHeapTier(long capacity, @Nullable Path directory, OWLDataFactory df, LongSupplier generation,
+        @Nullable OffHeapTier previous) {
+        int count = (int) Math.max(1, (capacity + MAXIMUM_ARENA_SIZE - 1) / MAXIMUM_ARENA_SIZE);
+        arenaSize = (int) ((capacity + count - 1) / count);
+        arenas = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            slots.add(new ArrayList<>());
+        }
+        for (int i = 0; i < CacheKeys.values().length; i++) {
+            index.add(new HashMap<>());
+        }
+        this.directory = directory;
+        this.df = df;
+        this.generation = generation;
+        hits = previous == null ? new LongAdder() : previous.hits;
+        misses = previous == null ? new LongAdder() : previous.misses;
+        demotions = previous == null ? new LongAdder() : previous.demotions;
+    }
+
+    /**
+     * Writes an evicted result to the tier, if it can be represented and fits in an arena.
+     *
+     * @param e
+     *        entry evicted from the heap
+     */
+    void demote(CacheEntry e) {
+        Object value = e.value;
+        if (!(value instanceof NodeSet || value instanceof Node || value instanceof Set)) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0);
+            CacheSnapshot.writeValue(out, value, dictionary);
+        } catch (CacheSnapshot.UnsupportedEntry | IOException ex) {
+            return;
+        }
+        byte[] record = bytes.toByteArray();
+        if (record.length > arenaSize) {
+            return;
+        }
+        ByteBuffer.wrap(record).putInt(record.length - HEADER);
+        synchronized (this) {
+            if (e.generation != generation.getAsLong()) {
+                // an invalidation started after the result was computed, and might not have seen it in the heap
+                return;
+            }
+            ByteBuffer arena = arena(current);
+            if (arena == null) {
+                return;
+            }
+            if (arena.remaining() < record.length) {
+                current = (current + 1) % arenas.length;
+                arena = arena(current);
+                if (arena == null) {
+                    return;
+                }
+                reuse(current);
+            }
+            Long location = Long.valueOf((long) current << 32 | arena.position());
+            arena.put(record);
+            if (index.get(e.region.ordinal()).put(e.key, location) == null) {
+                entries++;
+            }
+            slots.get(current).add(new Slot(e.region, e.key, location));
+        }
+        demotions.increment();
+    }
+
+    /**
+     * @param i
+     *        arena index
+     * @return the arena, allocated if needed; null if it cannot be allocated
+     */
+    @Nullable
+    private ByteBuffer arena(int i) {
+        if (arenas[i] == null) {
+            try {
+                arenas[i] = allocate();
+            } catch (IOException | OutOfMemoryError ex) {
+                // no room for the tier: evicted results are dropped, as without a tier
+                return null;
+            }
+        }
+        return arenas[i];
+    }
+
+    private ByteBuffer allocate() throws IOException {
+        if (directory == null) {
+            return ByteBuffer.allocateDirect(arenaSize);
+        }
+        Path file = Files.createTempFile(directory, "cachedreasoner", ".tier");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, arenaSize);
+        } finally {
+            try {
+                // the mapping outlives the file on most platforms
+                Files.delete(file);
+            } catch (IOException ex) {
+                file.toFile().deleteOnExit();
+            }
+        }
+    }
+
+    /** Drops the results in an arena and rewinds it; called while holding the lock on this tier. */
+    private void reuse(int i) {
+        List<Slot> dropped = slots.get(i);
+        for (Slot s : dropped) {
+            if (index.get(s.region.ordinal()).remove(s.key, s.location)) {
+                entries--;
+            }
+        }
+        dropped.clear();
+        // cast: the covariant ByteBuffer overrides from Java 9 do not exist on Java 8
+        ((Buffer) arenas[i]).clear();
+    }
+
+    /**
+     * Removes a result from the tier, to promote it back to the heap.
+     *
+     * @param region
+     *        region
+     * @param key
+     *        key
+     * @return the result, or null if the tier does not hold it
+     */
+    @Nullable
+    Object take(CacheKeys region, Object key) {
+        byte[] record;
+        synchronized (this) {
+            Long location = index.get(region.ordinal()).remove(key);
+            if (location == null) {
+                misses.increment();
+                return null;
+            }
+            entries--;
+            ByteBuffer arena = arenas[(int) (location.longValue() >>> 32)].duplicate();
+            ((Buffer) arena).position((int) location.longValue());
+            record = new byte[arena.getInt()];
+            arena.get(record);
+        }
+        try {
+            Object value = CacheSnapshot.readValue(ByteBuffer.wrap(record), region, dictionary, df);
+            hits.increment();
+            return value;
+        } catch (IOException | RuntimeException ex) {
+            // only written by this tier: cannot happen
+            misses.increment();
+            return null;
+        }
+    }
+
+    /** Drops all the results. */
+    synchronized void clear() {
+        for (Map<Object, Long> m : index) {
+            m.clear();
+        }
+        for (int i = 0; i < arenas.length; i++) {
+            slots.get(i).clear();
+            if (arenas[i] != null) {
+                ((Buffer) arenas[i]).clear();
+            }
+        }
+        current = 0;
+        entries = 0;
+    }
+
+    /** @return snapshot of the counters */
+    synchronized TierStatistics statistics() {
+        long used = 0;
+        for (ByteBuffer arena : arenas) {
+            if (arena != null) {
+                used += arena.position();
+            }
+        }
+        return new TierStatistics(hits.sum(), misses.sum(), demotions.sum(), entries, used);
+    }
+}
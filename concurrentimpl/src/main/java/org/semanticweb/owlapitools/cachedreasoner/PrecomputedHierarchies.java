@@ -0,0 +1,252 @@
+package org.semanticweb.owlapitools.cachedreasoner;
+
+import static org.semanticweb.owlapi.reasoner.InferenceType.*;
+import static org.semanticweb.owlapitools.cachedreasoner.CacheKeys.*;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLDataProperty;
+import org.semanticweb.owlapi.model.OWLObjectPropertyExpression;
+import org.semanticweb.owlapi.reasoner.InferenceType;
+import org.semanticweb.owlapi.reasoner.Node;
+import org.semanticweb.owlapi.reasoner.NodeSet;
+import org.semanticweb.owlapi.reasoner.OWLReasoner;
+import org.semanticweb.owlapi.reasoner.impl.OWLClassNodeSet;
+import org.semanticweb.owlapi.reasoner.impl.OWLDataPropertyNodeSet;
+import org.semanticweb.owlapi.reasoner.impl.OWLObjectPropertyNodeSet;
+
+/**
+ * Precomputed tier of a {@link CachedOWLReasoner}: once the class, object property or data property hierarchy has
+ * been precomputed by the delegate, the hierarchy is copied into a {@link Taxonomy} and hierarchy queries about named
+ * entities are answered from it without calling the delegate. All the taxonomies are dropped on any change that can
+ * alter entailments; they are rebuilt by the next call to precomputeInferences.
+ *
+ * @author ignazio
+ */
+final class PrecomputedHierarchies {
+
+    @Nullable private volatile Taxonomy<OWLClass> classes;
+    @Nullable private volatile Taxonomy<OWLObjectPropertyExpression> objectProperties;
+    @Nullable private volatile Taxonomy<OWLDataProperty> dataProperties;
+    /** Incremented by every clear, so that taxonomies built across a clear are not published. */
+    private long epoch;
+
+    /**
+     * Builds the taxonomies for the hierarchies the reasoner has precomputed.
+     *
+     * @param reasoner
+     *        reasoner to copy the hierarchies from
+     * @param inferenceTypes
+     *        inference types just precomputed
+     */
+    void build(OWLReasoner reasoner, InferenceType... inferenceTypes) {
+        long start = epoch();
+        Collection<InferenceType> types = Arrays.asList(inferenceTypes);
+        if (!reasoner.isConsistent()) {
+            // every query either throws or has a trivial answer
+            return;
+        }
+        if (types.contains(CLASS_HIERARCHY) && reasoner.isPrecomputed(CLASS_HIERARCHY)) {
+            Taxonomy<OWLClass> t = Taxonomy.build(reasoner.getTopClassNode(), c -> reasoner.getSubClasses(c, true),
+                types.contains(DISJOINT_CLASSES) && reasoner.isPrecomputed(DISJOINT_CLASSES)
+                    ? reasoner::getDisjointClasses : null, OWLClassNodeSet::new);
+            synchronized (this) {
+                if (epoch == start) {
+                    classes = t;
+                }
+            }
+        }
+        if (types.contains(OBJECT_PROPERTY_HIERARCHY) && reasoner.isPrecomputed(OBJECT_PROPERTY_HIERARCHY)) {
+            Taxonomy<OWLObjectPropertyExpression> t = Taxonomy.build(reasoner.getTopObjectPropertyNode(),
+                p -> reasoner.getSubObjectProperties(p, true), null, OWLObjectPropertyNodeSet::new);
+            synchronized (this) {
+                if (epoch == start) {
+                    objectProperties = t;
+                }
+            }
+        }
+        if (types.contains(DATA_PROPERTY_HIERARCHY) && reasoner.isPrecomputed(DATA_PROPERTY_HIERARCHY)) {
+            Taxonomy<OWLDataProperty> t = Taxonomy.build(reasoner.getTopDataPropertyNode(),
+                p -> reasoner.getSubDataProperties(p, true), null, OWLDataPropertyNodeSet::new);
+            synchronized (this) {
+                if (epoch == start) {
+                    dataProperties = t;
+                }
+            }
+        }
+    }
+
+    /** @return regions answered by the current taxonomies, which do not need caching */
+    Set<CacheKeys> coveredRegions() {
+        Set<CacheKeys> covered = EnumSet.noneOf(CacheKeys.class);
+        if (classes != null) {
+            covered.addAll(EnumSet.of(subclasses, subclassesDirect, superclasses, superclassesDirect, equivclasses));
+        }
+        if (objectProperties != null) {
+            covered.addAll(EnumSet.of(subobjectproperties, subobjectpropertiesDirect, superobjectproperties,
+                superobjectpropertiesDirect, equivobjectproperties));
+        }
+        if (dataProperties != null) {
+            covered.addAll(EnumSet.of(subdataproperties, subdatapropertiesDirect, superdataproperties,
+                superdatapropertiesDirect, equivdataproperties));
+        }
+        return covered;
+    }
+
+    private synchronized long epoch() {
+        return epoch;
+    }
+
+    /** Drops all taxonomies. */
+    synchronized void clear() {
+        epoch++;
+        classes = null;
+        objectProperties = null;
+        dataProperties = null;
+    }
+
+    /**
+     * @param ce
+     *        class expression
+     * @param direct
+     *        direct
+     * @return precomputed answer, or null if not available
+     */
+    @Nullable
+    NodeSet<OWLClass> subClasses(OWLClassExpression ce, boolean direct) {
+        Taxonomy<OWLClass> t = classes;
+        return t == null || ce.isAnonymous() ? null : t.subs(ce.asOWLClass(), direct);
+    }
+
+    /**
+     * @param ce
+     *        class expression
+     * @param direct
+     *        direct
+     * @return precomputed answer, or null if not available
+     */
+    @Nullable
+    NodeSet<OWLClass> superClasses(OWLClassExpression ce, boolean direct) {
+        Taxonomy<OWLClass> t = classes;
+        return t == null || ce.isAnonymous() ? null : t.supers(ce.asOWLClass(), direct);
+    }
+
+    /**
+     * @param ce
+     *        class expression
+     * @return precomputed answer, or null if not available
+     */
+    @Nullable
+    Node<OWLClass> equivalentClasses(OWLClassExpression ce) {
+        Taxonomy<OWLClass> t = classes;
+        return t == null || ce.isAnonymous() ? null : t.equivalents(ce.asOWLClass());
+    }
+
+    /**
+     * @param ce
+     *        class expression
+     * @return precomputed answer, or null if not available
+     */
+    @Nullable
+    NodeSet<OWLClass> disjointClasses(OWLClassExpression ce) {
+        Taxonomy<OWLClass> t = classes;
+        return t == null || ce.isAnonymous() ? null : t.disjoints(ce.asOWLClass());
+    }
+
+    /**
+     * @param sub
+     *        candidate subclass
+     * @param sup
+     *        candidate superclass
+     * @return precomputed answer, or null if not available
+     */
+    @Nullable
+    Boolean isSubClassOf(OWLClassExpression sub, OWLClassExpression sup) {
+        Taxonomy<OWLClass> t = classes;
+        if (t == null || sub.isAnonymous() || sup.isAnonymous()) {
+            return null;
+        }
+        return t.isSubsumedBy(sub.asOWLClass(), sup.asOWLClass());
+    }
+
+    /**
+     * @param pe
+     *        property expression
+     * @param direct
+     *        direct
+     * @return precomputed answer, or null if not available
+     */
+    @Nullable
+    NodeSet<OWLObjectPropertyExpression> subObjectProperties(OWLObjectPropertyExpression pe, boolean direct) {
+        Taxonomy<OWLObjectPropertyExpression> t = objectProperties;
+        return t == null ? null : t.subs(pe, direct);
+    }
+
+    /**
+     * @param pe
+     *        property expression
+     * @param direct
+     *        direct
+     * @return precomputed answer, or null if not available
+     */
+    @Nullable
+    NodeSet<OWLObjectPropertyExpression> superObjectProperties(OWLObjectPropertyExpression pe, boolean direct) {
+        Taxonomy<OWLObjectPropertyExpression> t = objectProperties;
+        return t == null ? null : t.supers(pe, direct);
+    }
+
+    /**
+     * @param pe
+     *        property expression
+     * @return precomputed answer, or null if not available
+     */
+    @Nullable
+    Node<OWLObjectPropertyExpression> equivalentObjectProperties(OWLObjectPropertyExpression pe) {
+        Taxonomy<OWLObjectPropertyExpression> t = objectProperties;
+        return t == null ? null : t.equivalents(pe);
+    }
+
+    /**
+     * @param pe
+     *        property
+     * @param direct
+     *        direct
+     * @return precomputed answer, or null if not available
+     */
+    @Nullable
+    NodeSet<OWLDataProperty> subDataProperties(OWLDataProperty pe, boolean direct) {
+        Taxonomy<OWLDataProperty> t = dataProperties;
+        return t == null ? null : t.subs(pe, direct);
+    }
+
+    /**
+     * @param pe
+     *        property
+     * @param direct
+     *        direct
+     * @return precomputed answer, or null if not available
+     */
+    @Nullable
+    NodeSet<OWLDataProperty> superDataProperties(OWLDataProperty pe, boolean direct) {
+        Taxonomy<OWLDataProperty> t = dataProperties;
+        return t == null ? null : t.supers(pe, direct);
+    }
+
+    /**
+     * @param pe
+     *        property
+     * @return precomputed answer, or null if not available
+     */
+    @Nullable
+    Node<OWLDataProperty> equivalentDataProperties(OWLDataProperty pe) {
+        Taxonomy<OWLDataProperty> t = dataProperties;
+        return t == null ? null : t.equivalents(pe);
+    }
+}
@@ -0,0 +1,751 @@
+package org.semanticweb.owlapitools.cachedreasoner;
+
+import static org.semanticweb.owlapitools.cachedreasoner.CacheKeys.*;
+import static org.semanticweb.owlapitools.cachedreasoner.CachedReasonerConfiguration.UNBOUNDED;
+
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import javax.annotation.Nullable;
+
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLEntity;
+import org.semanticweb.owlapi.model.OWLObject;
+import org.semanticweb.owlapi.reasoner.Node;
+import org.semanticweb.owlapi.reasoner.NodeSet;
+
+/**
+ * Result cache for a {@link CachedOWLReasoner}: one {@link CacheRegion} per {@link CacheKeys} value, plus a global
+ * weight budget shared by all regions. When the global budget is exceeded, the region whose next victim has the
+ * lowest estimated frequency is asked to evict.
+ * <p>
+ * Entries in regions answering questions about the key itself (subsumers, types, entailments) are indexed by the
+ * entities in their key and result, so that a change only evicts the entries mentioning the entities it affects.
+ * Regions whose results can gain members anywhere in the ontology (subclasses, equivalents, disjoints) are cleared
+ * whenever any entity is affected. Indexed regions where the answers for unsatisfiable classes, empty properties or
+ * top-like expressions span the whole signature are cleared when entities of the matching type enter or leave the
+ * signature.
+ * <p>
+ * If configured, each querying thread keeps a small {@link LocalCache} in front of the lookups by named entities; an
+ * invalidation empties all of them at once by incrementing a validity counter, after removing its entries.
+ *
+ * @author ignazio
+ */
+final class ReasonerCache {
+
+    private static final Set<CacheKeys> SELECTIVE = EnumSet.of(isEntailed, issatisfiable, superclasses,
+        superclassesDirect, superobjectproperties, superobjectpropertiesDirect, superdataproperties,
+        superdatapropertiesDirect, objectpropertiesdomains, objectpropertiesdomainsDirect, objectpropertiesranges,
+        objectpropertiesrangesDirect, datapropertiesdomains, datapropertiesdomainsDirect, types, typesDirect,
+        instances, objectpropertiesvalues, datapropertiesvalues, sameindividual, diffindividual);
+    /** Indexed regions whose results are sets of class nodes. */
+    private static final Set<CacheKeys> CLASS_NODES = EnumSet.of(superclasses, superclassesDirect,
+        objectpropertiesdomains, objectpropertiesdomainsDirect, objectpropertiesranges, objectpropertiesrangesDirect,
+        datapropertiesdomains, datapropertiesdomainsDirect, types, typesDirect);
+    /** One region per CacheKeys value, indexed by ordinal; never modified after construction. */
+    private final CacheRegion[] mainCache = new CacheRegion[CacheKeys.values().length];
+    private final long maximumWeight;
+    /** Budget lowered under memory pressure; UNBOUNDED when there is no pressure. */
+    private volatile long pressureLimit = UNBOUNDED;
+    /** Weight when the pressure limit was first set; the limit is lifted when it grows back past it. */
+    private long weightBeforePressure;
+    /** Pressure level the budget was last lowered for; the budget is lowered again only when the level rises. */
+    private MemoryPressure pressureLevel = MemoryPressure.NONE;
+    /** Smallest step for the pressure limit to grow back from. */
+    private static final long MINIMUM_GROWTH = 1024;
+    private final AtomicLong weight = new AtomicLong();
+    private final AtomicLong generation = new AtomicLong();
+    /** Incremented once an invalidation has removed its entries; thread local entries are valid while unchanged. */
+    private final AtomicLong validity = new AtomicLong();
+    /** Per thread caches in front of the packed key lookups; null if disabled. */
+    @Nullable private final ThreadLocal<LocalCache> localCaches;
+    private final ConcurrentHashMap<OWLEntity, Set<CacheEntry>> index = new ConcurrentHashMap<>();
+    private final CachedReasonerConfiguration configuration;
+    /** Entity ids, shared by all the epochs of the cache. */
+    private final EntityIds ids;
+    private final boolean compactResults;
+    /** Nanoseconds for which deterministic failures are cached; 0 if they are not. */
+    private final long failureTimeToLive;
+    /** Compact results currently alive, to share identical results between keys; guarded by itself. */
+    private final Map<CompactNodeSet.Shape, WeakReference<CompactNodeSet<?>>> shared;
+    /** Counters, shared by all the epochs of the cache. */
+    private final LongAdder ontologiesChanged;
+    private final LongAdder invalidations;
+    private final LongAdder fullInvalidations;
+    private final LongAdder invalidatedEntries;
+    private final LongAdder canonicalizedKeys;
+    private final OWLDataFactory df;
+    /** Tier for the evicted results; null if they are dropped. */
+    @Nullable private final OffHeapTier tier;
+
+    /**
+     * @param configuration
+     *        bounds for the cache
+     * @param df
+     *        data factory for the results promoted from the off heap tier
+     */
+    ReasonerCache(CachedReasonerConfiguration configuration, OWLDataFactory df) {
+        this(configuration, df, null);
+    }
+
+    /**
+     * @param configuration
+     *        bounds for the cache
+     * @param df
+     *        data factory for the results promoted from the off heap tier
+     * @param previous
+     *        previous epoch of the cache, whose entity ids and counters are carried on; null for a new cache
+     */
+    private ReasonerCache(CachedReasonerConfiguration configuration, OWLDataFactory df,
+        @Nullable ReasonerCache previous) {
+        this.configuration = configuration;
+        this.df = df;
+        if (previous == null) {
+            ids = new EntityIds();
+            shared = new WeakHashMap<>();
+            ontologiesChanged = new LongAdder();
+            invalidations = new LongAdder();
+            fullInvalidations = new LongAdder();
+            invalidatedEntries = new LongAdder();
+            canonicalizedKeys = new LongAdder();
+        } else {
+            ids = previous.ids;
+            shared = previous.shared;
+            ontologiesChanged = previous.ontologiesChanged;
+            invalidations = previous.invalidations;
+            fullInvalidations = previous.fullInvalidations;
+            invalidatedEntries = previous.invalidatedEntries;
+            canonicalizedKeys = previous.canonicalizedKeys;
+        }
+        maximumWeight = configuration.getMaximumWeight();
+        compactResults = configuration.isCompactResults();
+        failureTimeToLive = TimeUnit.MILLISECONDS.toNanos(configuration.getFailureTimeToLive());
+        tier = configuration.getOffHeapCapacity() == 0 ? null : new OffHeapTier(configuration.getOffHeapCapacity(),
+            configuration.getOffHeapDirectory(), df, generation::get, previous == null ? null : previous.tier);
+        int localSize = configuration.getThreadLocalCacheSize();
+        localCaches = localSize == 0 ? null : ThreadLocal.withInitial(() -> new LocalCache(localSize));
+        // memory pressure needs the eviction policy of all regions to shed the coldest entries
+        boolean globallyBounded = maximumWeight != UNBOUNDED || configuration.isMemoryPressureAware();
+        for (CacheKeys k : CacheKeys.values()) {
+            long regionWeight = configuration.getRegionMaximumWeight(k);
+            if (regionWeight == UNBOUNDED) {
+                regionWeight = maximumWeight;
+            } else if (maximumWeight != UNBOUNDED) {
+                regionWeight = Math.min(regionWeight, maximumWeight);
+            }
+            mainCache[k.ordinal()] = new CacheRegion(k, this, regionWeight, globallyBounded, previous == null ? null
+                : previous.mainCache[k.ordinal()]);
+        }
+    }
+
+    /**
+     * Removes all entries.
+     *
+     * @return number of entries removed
+     */
+    int clear() {
+        generation.incrementAndGet();
+        int removed = 0;
+        for (CacheRegion r : mainCache) {
+            removed += r.clear();
+        }
+        index.clear();
+        if (tier != null) {
+            tier.clear();
+        }
+        validity.incrementAndGet();
+        return removed;
+    }
+
+    /**
+     * Removes the entries that can be affected by a change to the given entities.
+     *
+     * @param affected
+     *        entities whose entailments might have changed
+     * @return number of entries removed
+     */
+    int invalidate(Set<OWLEntity> affected) {
+        if (affected.isEmpty()) {
+            return 0;
+        }
+        generation.incrementAndGet();
+        Set<CacheKeys> signatureWide = signatureWide(affected);
+        int removed = 0;
+        for (CacheRegion r : mainCache) {
+            // a failure can be fixed by a change anywhere, e.g., by declaring the fresh entity
+            r.clearFailures();
+            if (!SELECTIVE.contains(r.id) || signatureWide.contains(r.id)) {
+                removed += r.clear();
+            }
+        }
+        for (OWLEntity e : affected) {
+            Set<CacheEntry> entries = index.remove(e);
+            if (entries != null) {
+                for (CacheEntry entry : entries) {
+                    if (mainCache[entry.region.ordinal()].remove(entry)) {
+                        removed++;
+                    }
+                }
+            }
+        }
+        if (tier != null) {
+            // the tier does not know which entities its results mention
+            tier.clear();
+        }
+        validity.incrementAndGet();
+        return removed;
+    }
+
+    /**
+     * @param affected
+     *        entities whose entailments might have changed
+     * @return indexed regions where the answers for entities equivalent to the bottom or top entities span the whole
+     *         signature, for the entity types whose signature has changed; see {@link ChangeImpact}
+     */
+    private static Set<CacheKeys> signatureWide(Set<OWLEntity> affected) {
+        Set<CacheKeys> regions = EnumSet.noneOf(CacheKeys.class);
+        for (OWLEntity e : affected) {
+            if (!e.isBuiltIn()) {
+                continue;
+            }
+            if (e.isOWLClass() && e.isBottomEntity()) {
+                regions.addAll(EnumSet.of(superclasses, superclassesDirect, objectpropertiesdomains,
+                    objectpropertiesdomainsDirect, objectpropertiesranges, objectpropertiesrangesDirect,
+                    datapropertiesdomains, datapropertiesdomainsDirect));
+            } else if (e.isOWLClass()) {
+                regions.addAll(EnumSet.of(instances, objectpropertiesvalues));
+            } else if (e.isOWLObjectProperty()) {
+                regions.addAll(EnumSet.of(superobjectproperties, superobjectpropertiesDirect));
+            } else if (e.isOWLDataProperty()) {
+                regions.addAll(EnumSet.of(superdataproperties, superdatapropertiesDirect));
+            }
+        }
+        return regions;
+    }
+
+    /**
+     * Invalidates the entries affected by a change notification, and counts the invalidation.
+     *
+     * @param affected
+     *        entities whose entailments might have changed; null if every entailment might have changed
+     */
+    void ontologiesChanged(@Nullable Set<OWLEntity> affected) {
+        ontologiesChanged.increment();
+        invalidateChanged(affected);
+    }
+
+    /**
+     * Invalidates the entries affected by change notifications already counted, and counts the invalidation.
+     *
+     * @param affected
+     *        entities whose entailments might have changed; null if every entailment might have changed
+     */
+    void invalidateChanged(@Nullable Set<OWLEntity> affected) {
+        if (affected == null) {
+            invalidatedEntries.add(clear());
+            invalidations.increment();
+            fullInvalidations.increment();
+        } else if (!affected.isEmpty()) {
+            invalidatedEntries.add(invalidate(affected));
+            invalidations.increment();
+        }
+    }
+
+    /** Counts a change notification whose invalidation is deferred to the next epoch or to a batch of changes. */
+    void ontologiesChangedPending() {
+        ontologiesChanged.increment();
+    }
+
+    /**
+     * Builds the next epoch of the cache, for the state of the reasoner after the changes affecting the given
+     * entities: the results that cannot be affected are copied, all others are left out. This cache is not
+     * modified, so that it can keep answering while the next epoch is built.
+     *
+     * @param affected
+     *        entities whose entailments might have changed; null if every entailment might have changed
+     * @param dropped
+     *        consumer for the regions and keys of the results left out; null if not needed
+     * @return the next epoch
+     */
+    ReasonerCache nextEpoch(@Nullable Set<OWLEntity> affected, @Nullable BiConsumer<CacheKeys, Object> dropped) {
+        ReasonerCache next = new ReasonerCache(configuration, df, this);
+        LongAdder left = new LongAdder();
+        Set<CacheKeys> signatureWide = affected == null ? EnumSet.noneOf(CacheKeys.class) : signatureWide(affected);
+        for (CacheRegion r : mainCache) {
+            boolean selective = affected != null && (affected.isEmpty() || SELECTIVE.contains(r.id))
+                && !signatureWide.contains(r.id);
+            r.forEach((k, v) -> {
+                if (selective && signature(k).noneMatch(affected::contains) && signature(v).noneMatch(
+                    affected::contains)) {
+                    next.put(r.id, k, v);
+                } else {
+                    left.increment();
+                    if (dropped != null) {
+                        dropped.accept(r.id, k);
+                    }
+                }
+            });
+        }
+        if (affected == null || !affected.isEmpty()) {
+            invalidations.increment();
+            invalidatedEntries.add(left.sum());
+            if (affected == null) {
+                fullInvalidations.increment();
+            }
+        }
+        return next;
+    }
+
+    /** @return snapshot of the statistics */
+    CacheStatistics statistics() {
+        Map<CacheKeys, RegionStatistics> regions = new EnumMap<>(CacheKeys.class);
+        for (CacheRegion r : mainCache) {
+            regions.put(r.id, r.statistics());
+        }
+        return new CacheStatistics(regions, ontologiesChanged.sum(), invalidations.sum(), fullInvalidations.sum(),
+            invalidatedEntries.sum(), canonicalizedKeys.sum(), tier == null ? TierStatistics.NONE : tier.statistics());
+    }
+
+    /** @return nanoseconds for which deterministic failures are cached; 0 if they are not */
+    long failureTimeToLive() {
+        return failureTimeToLive;
+    }
+
+    /** Counts a lookup whose key was rewritten to its canonical form. */
+    void keyCanonicalized() {
+        canonicalizedKeys.increment();
+    }
+
+    /** @return a counter incremented by every invalidation */
+    long generation() {
+        return generation.get();
+    }
+
+    void entryAdded(CacheEntry e) {
+        if (SELECTIVE.contains(e.region)) {
+            signature(e).forEach(entity -> index.compute(entity, (k, v) -> {
+                Set<CacheEntry> entries = v == null ? ConcurrentHashMap.newKeySet() : v;
+                entries.add(e);
+                return entries;
+            }));
+        }
+    }
+
+    /**
+     * @param e
+     *        entry evicted to respect the weight bounds, already removed
+     */
+    void entryEvicted(CacheEntry e) {
+        if (tier != null) {
+            tier.demote(e);
+        }
+    }
+
+    void entryRemoved(CacheEntry e) {
+        if (SELECTIVE.contains(e.region)) {
+            signature(e).forEach(entity -> index.computeIfPresent(entity, (k, v) -> {
+                v.remove(e);
+                return v.isEmpty() ? null : v;
+            }));
+        }
+    }
+
+    private static Stream<OWLEntity> signature(CacheEntry e) {
+        Object value = e.value;
+        Stream<OWLEntity> keySignature = signature(e.key);
+        return value == null ? keySignature : Stream.concat(keySignature, signature(value)).distinct();
+    }
+
+    /**
+     * @param o
+     *        key, key component or result
+     * @return entities mentioned
+     */
+    static Stream<OWLEntity> signature(Object o) {
+        if (o instanceof OWLObject) {
+            return ChangeImpact.entities((OWLObject) o);
+        }
+        if (o instanceof NodeSet) {
+            return ((NodeSet<?>) o).nodes().flatMap(ReasonerCache::signature);
+        }
+        if (o instanceof Node) {
+            return ((Node<?>) o).entities().flatMap(ReasonerCache::signature);
+        }
+        if (o instanceof Collection) {
+            return ((Collection<?>) o).stream().flatMap(ReasonerCache::signature);
+        }
+        if (o instanceof CachedOWLReasoner.CompositeKey) {
+            return ((CachedOWLReasoner.CompositeKey) o).components().flatMap(ReasonerCache::signature);
+        }
+        return Stream.empty();
+    }
+
+    /**
+     * @param cachekey
+     *        region
+     * @param key
+     *        key
+     * @param c
+     *        function computing the result on a miss
+     * @return cached or computed result
+     */
+    <T> T get(CacheKeys cachekey, Object key, Function<Object, T> c) {
+        T t = mainCache[cachekey.ordinal()].get(key, tier == null ? c : k -> promoteOrLoad(cachekey, k, c));
+        if (overBudget()) {
+            evictToBudget();
+        }
+        return t;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T promoteOrLoad(CacheKeys cachekey, Object key, Function<Object, T> c) {
+        OffHeapTier t = tier;
+        T promoted = t == null ? null : (T) t.take(cachekey, key);
+        return promoted != null ? promoted : c.apply(key);
+    }
+
+    /**
+     * @param cachekey
+     *        region
+     * @param key
+     *        key
+     * @return the cached result, or null if the result is not cached or still being computed
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    <T> T peek(CacheKeys cachekey, Object key) {
+        return (T) mainCache[cachekey.ordinal()].peek(key);
+    }
+
+    /**
+     * @param cachekey
+     *        region
+     * @param key
+     *        key
+     * @return the cached result, counted as a hit, or null if the result is not cached or still being computed
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    <T> T getIfPresent(CacheKeys cachekey, Object key) {
+        return (T) mainCache[cachekey.ordinal()].getIfPresent(key);
+    }
+
+    /**
+     * Lookup by packed key, for keys made of named entities; it allocates nothing.
+     *
+     * @param cachekey
+     *        region
+     * @param fastKey
+     *        key packed by one of the fastKey methods
+     * @return the cached result, counted as a hit, or null if the result is not cached or still being computed
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    <T> T getIfPresent(CacheKeys cachekey, long fastKey) {
+        return (T) mainCache[cachekey.ordinal()].getIfPresent(fastKey);
+    }
+
+    /**
+     * Lookup by single named entity key, through the thread local cache if enabled and the region is bounded, else by
+     * packed key.
+     *
+     * @param cachekey
+     *        region
+     * @param o
+     *        key object
+     * @return the cached result, counted as a hit, or null if the result is not cached or still being computed
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    <T> T lookup(CacheKeys cachekey, Object o) {
+        LocalCache local = localCache(cachekey);
+        if (local == null) {
+            return getIfPresent(cachekey, ids.key(o));
+        }
+        long current = validity.get();
+        CacheEntry e = local.get(cachekey, o, null, current);
+        if (e == null) {
+            e = localMiss(local, cachekey, o, null, current, ids.key(o));
+        } else {
+            mainCache[cachekey.ordinal()].hit(e, local.sample());
+        }
+        return e == null ? null : (T) e.value;
+    }
+
+    /**
+     * Lookup by named entity key and direct flag, through the thread local cache if enabled and the region is bounded,
+     * else by packed key.
+     *
+     * @param cachekey
+     *        region
+     * @param o
+     *        key object
+     * @param direct
+     *        direct flag
+     * @return the cached result, counted as a hit, or null if the result is not cached or still being computed
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    <T> T lookup(CacheKeys cachekey, Object o, boolean direct) {
+        LocalCache local = localCache(cachekey);
+        if (local == null) {
+            return getIfPresent(cachekey, ids.key(o, direct));
+        }
+        long current = validity.get();
+        Boolean flag = Boolean.valueOf(direct);
+        CacheEntry e = local.get(cachekey, o, flag, current);
+        if (e == null) {
+            e = localMiss(local, cachekey, o, flag, current, ids.key(o, direct));
+        } else {
+            mainCache[cachekey.ordinal()].hit(e, local.sample());
+        }
+        return e == null ? null : (T) e.value;
+    }
+
+    /**
+     * Lookup by pair of named entities, through the thread local cache if enabled and the region is bounded, else by
+     * packed key.
+     *
+     * @param cachekey
+     *        region
+     * @param o1
+     *        first key object
+     * @param o2
+     *        second key object
+     * @return the cached result, counted as a hit, or null if the result is not cached or still being computed
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    <T> T lookup(CacheKeys cachekey, Object o1, Object o2) {
+        LocalCache local = localCache(cachekey);
+        if (local == null) {
+            return getIfPresent(cachekey, ids.key(o1, o2));
+        }
+        long current = validity.get();
+        CacheEntry e = local.get(cachekey, o1, o2, current);
+        if (e == null) {
+            e = localMiss(local, cachekey, o1, o2, current, ids.key(o1, o2));
+        } else {
+            mainCache[cachekey.ordinal()].hit(e, local.sample());
+        }
+        return e == null ? null : (T) e.value;
+    }
+
+    /**
+     * @param cachekey
+     *        region
+     * @return the thread local cache, or null if it is disabled or the region is unbounded: without an eviction
+     *         policy to skip, the shared lookup is faster than the thread local one
+     */
+    @Nullable
+    private LocalCache localCache(CacheKeys cachekey) {
+        ThreadLocal<LocalCache> l = localCaches;
+        return l == null || !mainCache[cachekey.ordinal()].isBounded() ? null : l.get();
+    }
+
+    @Nullable
+    private CacheEntry localMiss(LocalCache local, CacheKeys cachekey, Object first, @Nullable Object second,
+        long current, long fastKey) {
+        CacheRegion r = mainCache[cachekey.ordinal()];
+        CacheEntry e = r.entry(fastKey);
+        if (e != null) {
+            r.hit(e, true);
+            local.put(cachekey, first, second, current, e);
+        }
+        return e;
+    }
+
+    /**
+     * @param value
+     *        result about to be cached
+     * @return the value to store: if compaction is enabled, NodeSets of named entities are replaced by a
+     *         {@link CompactNodeSet}, shared with any identical result already cached
+     */
+    Object compact(Object value) {
+        if (!compactResults || !(value instanceof NodeSet) || value instanceof CompactNodeSet) {
+            return value;
+        }
+        CompactNodeSet<?> compact = CompactNodeSet.of((NodeSet<?>) value, ids);
+        if (compact == null) {
+            return value;
+        }
+        synchronized (shared) {
+            WeakReference<CompactNodeSet<?>> ref = shared.get(compact.shape);
+            CompactNodeSet<?> existing = ref == null ? null : ref.get();
+            if (existing != null) {
+                return existing;
+            }
+            shared.put(compact.shape, new WeakReference<>(compact));
+            return compact;
+        }
+    }
+
+    /**
+     * @param key
+     *        key object
+     * @return packed key for the key object, interning its entities
+     */
+    long internKey(Object key) {
+        return ids.internKey(key);
+    }
+
+    /**
+     * Finds the equivalence class of a class among the cached results.
+     *
+     * @param c
+     *        class
+     * @return a cached node containing the class, or null
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    Node<OWLClass> classNode(OWLClass c) {
+        Set<CacheEntry> entries = index.get(c);
+        if (entries == null) {
+            return null;
+        }
+        for (CacheEntry e : entries) {
+            Object v = e.value;
+            if (v instanceof NodeSet && CLASS_NODES.contains(e.region)) {
+                Optional<Node<OWLClass>> node = ((NodeSet<OWLClass>) v).nodes().filter(n -> n.contains(c))
+                    .findAny();
+                if (node.isPresent()) {
+                    return node.get();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds a result computed elsewhere, unless the key is already present.
+     *
+     * @param cachekey
+     *        region
+     * @param key
+     *        key
+     * @param value
+     *        result
+     */
+    void put(CacheKeys cachekey, Object key, Object value) {
+        mainCache[cachekey.ordinal()].put(key, value);
+        if (overBudget()) {
+            evictToBudget();
+        }
+    }
+
+    /** @return total weight of the cached results */
+    long weight() {
+        return weight.get();
+    }
+
+    /**
+     * @param region
+     *        region
+     * @return the region
+     */
+    CacheRegion region(CacheKeys region) {
+        return mainCache[region.ordinal()];
+    }
+
+    void weightChanged(long delta) {
+        if (delta != 0) {
+            weight.addAndGet(delta);
+        }
+    }
+
+    private long budget() {
+        long limit = pressureLimit;
+        if (limit == UNBOUNDED) {
+            return maximumWeight;
+        }
+        return maximumWeight == UNBOUNDED ? limit : Math.min(limit, maximumWeight);
+    }
+
+    private boolean overBudget() {
+        long budget = budget();
+        return budget != UNBOUNDED && weight.get() > budget;
+    }
+
+    /**
+     * Lowers or raises the budget according to the heap pressure: a notification at a higher pressure level than the
+     * last one keeps only a fraction of the current weight, evicting the coldest entries of all regions, while a
+     * repeat of the same or a lower level leaves the budget as it is; each notification without pressure doubles the
+     * lowered budget, until it is lifted.
+     *
+     * @param pressure
+     *        pressure level
+     */
+    synchronized void memoryPressure(MemoryPressure pressure) {
+        long current = weight.get();
+        long limit = pressureLimit;
+        if (pressure == MemoryPressure.NONE) {
+            pressureLevel = MemoryPressure.NONE;
+            if (limit != UNBOUNDED) {
+                long grown = Math.max(MINIMUM_GROWTH, limit * 2);
+                pressureLimit = grown >= weightBeforePressure ? UNBOUNDED : grown;
+            }
+            return;
+        }
+        if (pressure.compareTo(pressureLevel) <= 0) {
+            return;
+        }
+        pressureLevel = pressure;
+        if (limit == UNBOUNDED) {
+            weightBeforePressure = current;
+        }
+        long target = (long) (current * pressure.retained());
+        pressureLimit = limit == UNBOUNDED ? target : Math.min(limit, target);
+        if (pressure == MemoryPressure.CRITICAL) {
+            clear();
+        } else {
+            evictToBudget();
+        }
+    }
+
+    /** @return budget lowered under memory pressure, or UNBOUNDED */
+    long pressureLimit() {
+        return pressureLimit;
+    }
+
+    private void evictToBudget() {
+        long budget = budget();
+        while (budget != UNBOUNDED && weight.get() > budget) {
+            CacheRegion victim = coldestRegion();
+            if (victim == null || victim.evictVictim() == 0) {
+                return;
+            }
+        }
+    }
+
+    @Nullable
+    private CacheRegion coldestRegion() {
+        CacheRegion coldest = null;
+        int coldestFrequency = Integer.MAX_VALUE;
+        for (CacheRegion r : mainCache) {
+            if (r.weight() == 0) {
+                continue;
+            }
+            int frequency = r.victimFrequency();
+            if (coldest == null || frequency < coldestFrequency
+                || frequency == coldestFrequency && r.weight() > coldest.weight()) {
+                coldest = r;
+                coldestFrequency = frequency;
+            }
+        }
+        return coldest;
+    }
+}
@@ -0,0 +1,148 @@
+package org.semanticweb.owlapitools.cachedreasoner;
+
+import static org.semanticweb.owlapi.util.OWLAPIPreconditions.checkNotNull;
+
+import java.beans.ConstructorProperties;
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable snapshot of the counters of one {@link CacheKeys} region of a {@link CachedOWLReasoner}. Load times are
+ * also collected in a histogram with exponential buckets: bucket 0 counts loads shorter than one microsecond, bucket
+ * i counts loads between 2<sup>i-1</sup> and 2<sup>i</sup> microseconds, and the last bucket counts all the longer
+ * loads.
+ *
+ * @author ignazio
+ */
+public final class RegionStatistics implements Serializable {
+
+    private static final long serialVersionUID = 50000L;
+    /** Number of buckets in the load time histogram. */
+    public static final int LOAD_TIME_BUCKETS = 24;
+    private final String region;
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final long entryCount;
+    private final long weight;
+    private final long totalLoadTimeNanos;
+    private final long[] loadTimeHistogram;
+
+    /**
+     * @param region
+     *        region name, as in {@link CacheKeys}
+     * @param hitCount
+     *        lookups answered from the cache, including the ones waiting for a load in flight
+     * @param missCount
+     *        lookups that called the reasoner
+     * @param evictionCount
+     *        entries removed to respect the weight bounds
+     * @param entryCount
+     *        entries currently cached
+     * @param weight
+     *        current weight of the region; only tracked for bounded caches
+     * @param totalLoadTimeNanos
+     *        total time spent in the reasoner for the misses
+     * @param loadTimeHistogram
+     *        histogram of the load times
+     */
+    @ConstructorProperties({ "region", "hitCount", "missCount", "evictionCount", "entryCount", "weight",
+        "totalLoadTimeNanos", "loadTimeHistogram" })
+    public RegionStatistics(String region, long hitCount, long missCount, long evictionCount, long entryCount,
+        long weight, long totalLoadTimeNanos, long[] loadTimeHistogram) {
+        this.region = checkNotNull(region, "region cannot be null");
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.entryCount = entryCount;
+        this.weight = weight;
+        this.totalLoadTimeNanos = totalLoadTimeNanos;
+        this.loadTimeHistogram = checkNotNull(loadTimeHistogram, "loadTimeHistogram cannot be null").clone();
+    }
+
+    /**
+     * @param loadTimeNanos
+     *        duration of a load
+     * @return histogram bucket for the duration
+     */
+    static int bucket(long loadTimeNanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(loadTimeNanos);
+        return Math.min(LOAD_TIME_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    /**
+     * @param bucket
+     *        bucket index
+     * @return exclusive upper bound of the bucket, in microseconds; Long.MAX_VALUE for the last bucket
+     */
+    public static long bucketUpperBoundMicros(int bucket) {
+        return bucket >= LOAD_TIME_BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    /** @return region name */
+    public String getRegion() {
+        return region;
+    }
+
+    /** @return lookups answered from the cache */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /** @return lookups that called the reasoner */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /** @return hits divided by lookups; 1 if there were no lookups */
+    public double getHitRate() {
+        long requests = hitCount + missCount;
+        return requests == 0 ? 1D : (double) hitCount / requests;
+    }
+
+    /** @return entries removed to respect the weight bounds */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /** @return entries currently cached */
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    /** @return current weight; only tracked for bounded caches */
+    public long getWeight() {
+        return weight;
+    }
+
+    /** @return total time spent in the reasoner for the misses, in nanoseconds */
+    public long getTotalLoadTimeNanos() {
+        return totalLoadTimeNanos;
+    }
+
+    /** @return load time histogram; see the class description for the bucket bounds */
+    public long[] getLoadTimeHistogram() {
+        return loadTimeHistogram.clone();
+    }
+
+    /**
+     * @param other
+     *        statistics for the same region in another reasoner
+     * @return the sum of the two snapshots
+     */
+    RegionStatistics plus(RegionStatistics other) {
+        long[] histogram = loadTimeHistogram.clone();
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] += other.loadTimeHistogram[i];
+        }
+        return new RegionStatistics(region, hitCount + other.hitCount, missCount + other.missCount, evictionCount
+            + other.evictionCount, entryCount + other.entryCount, weight + other.weight, totalLoadTimeNanos
+                + other.totalLoadTimeNanos, histogram);
+    }
+
+    @Override
+    public String toString() {
+        return region + "[hits=" + hitCount + ", misses=" + missCount + ", evictions=" + evictionCount + ", entries="
+            + entryCount + ", weight=" + weight + ", loadTime=" + totalLoadTimeNanos + "ns]";
+    }
+}
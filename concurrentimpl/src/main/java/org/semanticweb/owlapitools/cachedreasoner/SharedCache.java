@@ -0,0 +1,175 @@
+package org.semanticweb.owlapitools.cachedreasoner;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import javax.annotation.Nullable;
+
+import org.semanticweb.owlapi.model.OWLEntity;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+import org.semanticweb.owlapi.model.OWLOntologyChangeListener;
+import org.semanticweb.owlapi.model.OWLOntologyID;
+
+/**
+ * Results shared by all the non buffering reasoners created by {@link CachedReasonerFactory} instances for the same
+ * ontology, in the same version, with equal configurations. Shared caches are kept in a process wide registry and are
+ * reference counted: the first reasoner creates the cache, and the last one to be disposed removes it from the
+ * registry and releases its results. A shared cache listens to the ontology changes once for all its reasoners, and
+ * invalidates the results before any of them sees the change.
+ *
+ * @author ignazio
+ */
+final class SharedCache implements OWLOntologyChangeListener {
+
+    /** Live shared caches; guarded by the class. */
+    private static final Map<Key, SharedCache> REGISTRY = new HashMap<>();
+    private final Key key;
+    final ReasonerCache cache;
+    final PrecomputedHierarchies hierarchies = new PrecomputedHierarchies();
+    final ChangeImpact changeImpact;
+    private final boolean memoryPressureAware;
+    /** Reasoners using this cache; guarded by the class. */
+    private final Set<CachedOWLReasoner> members = Collections.newSetFromMap(new WeakHashMap<>());
+    /** Reasoners acquired and not yet released; guarded by the class. */
+    private int references;
+
+    /** Registry key: the ontology by identity, everything else by value. */
+    private static final class Key {
+
+        final OWLOntology ontology;
+        final OWLOntologyID id;
+        @Nullable final String reasonerName;
+        final CachedReasonerConfiguration configuration;
+        @Nullable final Object reasonerConfiguration;
+
+        Key(OWLOntology ontology, @Nullable String reasonerName, CachedReasonerConfiguration configuration,
+            @Nullable Object reasonerConfiguration) {
+            this.ontology = ontology;
+            id = ontology.getOntologyID();
+            this.reasonerName = reasonerName;
+            this.configuration = configuration;
+            this.reasonerConfiguration = reasonerConfiguration;
+        }
+
+        @Override
+        public boolean equals(@Nullable Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return ontology == other.ontology && id.equals(other.id) && Objects.equals(reasonerName,
+                other.reasonerName) && configuration.equals(other.configuration) && Objects.equals(
+                    reasonerConfiguration, other.reasonerConfiguration);
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(ontology) * 31 + id.hashCode();
+        }
+    }
+
+    private SharedCache(Key key) {
+        this.key = key;
+        cache = new ReasonerCache(key.configuration, key.ontology.getOWLOntologyManager().getOWLDataFactory());
+        changeImpact = new ChangeImpact(key.ontology);
+        memoryPressureAware = key.configuration.isMemoryPressureAware();
+    }
+
+    /**
+     * Returns the shared cache for an ontology, creating it if needed, and counts a new reference to it. Each call
+     * must be matched by a call to {@link #release(CachedOWLReasoner)} once the reasoner is created, or to
+     * {@link #release()} if the creation fails.
+     *
+     * @param ontology
+     *        root ontology
+     * @param reasonerName
+     *        name of the reasoner answering the queries, if any
+     * @param configuration
+     *        cache configuration
+     * @param reasonerConfiguration
+     *        configuration of the reasoner answering the queries; null for the default configuration
+     * @return shared cache
+     */
+    static synchronized SharedCache acquire(OWLOntology ontology, @Nullable String reasonerName,
+        CachedReasonerConfiguration configuration, @Nullable Object reasonerConfiguration) {
+        Key key = new Key(ontology, reasonerName, configuration, reasonerConfiguration);
+        SharedCache shared = REGISTRY.get(key);
+        if (shared == null) {
+            shared = new SharedCache(key);
+            ontology.getOWLOntologyManager().addOntologyChangeListener(shared);
+            if (shared.memoryPressureAware) {
+                MemoryPressureMonitor.get().register(shared.cache);
+            }
+            REGISTRY.put(key, shared);
+        }
+        shared.references++;
+        return shared;
+    }
+
+    /**
+     * @param reasoner
+     *        reasoner using this cache
+     */
+    void join(CachedOWLReasoner reasoner) {
+        synchronized (SharedCache.class) {
+            members.add(reasoner);
+        }
+    }
+
+    /**
+     * Releases the reference held by a reasoner being disposed.
+     *
+     * @param reasoner
+     *        reasoner being disposed
+     */
+    void release(CachedOWLReasoner reasoner) {
+        boolean member;
+        synchronized (SharedCache.class) {
+            member = members.remove(reasoner);
+        }
+        if (member) {
+            release();
+        }
+    }
+
+    /** Releases a reference; the last release removes the cache from the registry and clears it. */
+    void release() {
+        synchronized (SharedCache.class) {
+            if (--references > 0) {
+                return;
+            }
+            REGISTRY.remove(key, this);
+        }
+        key.ontology.getOWLOntologyManager().removeOntologyChangeListener(this);
+        if (memoryPressureAware) {
+            MemoryPressureMonitor.get().unregister(cache);
+        }
+        hierarchies.clear();
+        cache.clear();
+    }
+
+    @Override
+    public void ontologiesChanged(List<? extends OWLOntologyChange> changes) {
+        Set<OWLEntity> affected = changeImpact.affectedEntities(changes);
+        if (affected == null || !affected.isEmpty()) {
+            CachedOWLReasoner[] toNotify;
+            synchronized (SharedCache.class) {
+                toNotify = members.toArray(new CachedOWLReasoner[members.size()]);
+            }
+            for (CachedOWLReasoner r : toNotify) {
+                r.cancelWarmUp();
+            }
+            hierarchies.clear();
+        }
+        cache.ontologiesChanged(affected);
+    }
+}
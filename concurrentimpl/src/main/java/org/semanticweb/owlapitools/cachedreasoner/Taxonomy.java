@@ -0,0 +1,291 @@
+package org.semanticweb.owlapitools.cachedreasoner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import javax.annotation.Nullable;
+
+import org.semanticweb.owlapi.model.OWLObject;
+import org.semanticweb.owlapi.reasoner.Node;
+import org.semanticweb.owlapi.reasoner.NodeSet;
+
+/**
+ * Immutable snapshot of a hierarchy computed by a reasoner. Nodes are numbered with dense int ids in breadth first
+ * order from the top node; direct edges are stored in compressed sparse row arrays, and the transitive closures of
+ * each node as {@link CompressedBitSet}s of node ids. Queries never call the reasoner the taxonomy was built from.
+ * <p>
+ * Queries about entities not in the hierarchy return null, so that callers can fall back to the reasoner. Queries
+ * about the super nodes of the bottom node return null as well, since the answer depends on the reasoner conventions
+ * for unsatisfiable entities.
+ *
+ * @author ignazio
+ * @param <E>
+ *        type of the entities in the hierarchy
+ */
+final class Taxonomy<E extends OWLObject> {
+
+    private static final int NONE = -1;
+    private final List<Node<E>> nodes;
+    private final Map<E, Integer> ids;
+    private final int bottom;
+    /** Children of node i are children[childIndex[i]] to children[childIndex[i + 1]] excluded. */
+    private final int[] childIndex;
+    private final int[] children;
+    /** Parents of node i are parents[parentIndex[i]] to parents[parentIndex[i + 1]] excluded. */
+    private final int[] parentIndex;
+    private final int[] parents;
+    private final CompressedBitSet[] descendants;
+    private final CompressedBitSet[] ancestors;
+    /** Disjoint nodes of each node; null if disjointness was not precomputed. */
+    @Nullable private final CompressedBitSet[] disjoints;
+    private final Function<Stream<Node<E>>, NodeSet<E>> nodeSets;
+
+    private Taxonomy(List<Node<E>> nodes, List<int[]> edges, Function<Stream<Node<E>>, NodeSet<E>> nodeSets,
+        @Nullable CompressedBitSet[] disjoints) {
+        this.nodes = nodes;
+        this.nodeSets = nodeSets;
+        this.disjoints = disjoints;
+        int size = nodes.size();
+        ids = new HashMap<>();
+        int b = NONE;
+        for (int i = 0; i < size; i++) {
+            Node<E> n = nodes.get(i);
+            int id = i;
+            n.entities().forEach(e -> ids.put(e, Integer.valueOf(id)));
+            if (n.isBottomNode()) {
+                b = i;
+            }
+        }
+        bottom = b;
+        childIndex = new int[size + 1];
+        for (int i = 0; i < size; i++) {
+            childIndex[i + 1] = childIndex[i] + edges.get(i).length;
+        }
+        children = new int[childIndex[size]];
+        int[] parentCount = new int[size];
+        for (int i = 0; i < size; i++) {
+            int[] kids = edges.get(i);
+            System.arraycopy(kids, 0, children, childIndex[i], kids.length);
+            for (int k : kids) {
+                parentCount[k]++;
+            }
+        }
+        parentIndex = new int[size + 1];
+        for (int i = 0; i < size; i++) {
+            parentIndex[i + 1] = parentIndex[i] + parentCount[i];
+        }
+        parents = new int[parentIndex[size]];
+        int[] fill = Arrays.copyOf(parentIndex, size);
+        for (int i = 0; i < size; i++) {
+            for (int c = childIndex[i]; c < childIndex[i + 1]; c++) {
+                parents[fill[children[c]]++] = i;
+            }
+        }
+        int[] order = topologicalOrder(parentCount);
+        ancestors = new CompressedBitSet[size];
+        for (int i : order) {
+            CompressedBitSet set = new CompressedBitSet();
+            for (int p = parentIndex[i]; p < parentIndex[i + 1]; p++) {
+                set.or(ancestors[parents[p]]);
+                set.add(parents[p]);
+            }
+            ancestors[i] = set;
+        }
+        descendants = new CompressedBitSet[size];
+        for (int j = order.length - 1; j >= 0; j--) {
+            int i = order[j];
+            CompressedBitSet set = new CompressedBitSet();
+            for (int c = childIndex[i]; c < childIndex[i + 1]; c++) {
+                set.or(descendants[children[c]]);
+                set.add(children[c]);
+            }
+            descendants[i] = set;
+        }
+    }
+
+    private int[] topologicalOrder(int[] parentCount) {
+        int[] pending = parentCount.clone();
+        int[] order = new int[pending.length];
+        int added = 0;
+        for (int i = 0; i < pending.length; i++) {
+            if (pending[i] == 0) {
+                order[added++] = i;
+            }
+        }
+        for (int next = 0; next < added; next++) {
+            int i = order[next];
+            for (int c = childIndex[i]; c < childIndex[i + 1]; c++) {
+                if (--pending[children[c]] == 0) {
+                    order[added++] = children[c];
+                }
+            }
+        }
+        if (added != order.length) {
+            throw new IllegalStateException("Cycle in the hierarchy returned by the reasoner");
+        }
+        return order;
+    }
+
+    /**
+     * Builds a taxonomy by walking the direct sub nodes from the top node.
+     *
+     * @param top
+     *        top node of the hierarchy
+     * @param directSubs
+     *        function returning the direct sub nodes of an entity
+     * @param disjoints
+     *        function returning the disjoint nodes of an entity; null if disjointness should not be stored
+     * @param nodeSets
+     *        factory for node sets of the right type
+     * @return the taxonomy
+     */
+    static <E extends OWLObject> Taxonomy<E> build(Node<E> top, Function<E, NodeSet<E>> directSubs,
+        @Nullable Function<E, NodeSet<E>> disjoints, Function<Stream<Node<E>>, NodeSet<E>> nodeSets) {
+        List<Node<E>> nodes = new ArrayList<>();
+        Map<Node<E>, Integer> nodeIds = new HashMap<>();
+        Function<Node<E>, Integer> id = n -> nodeIds.computeIfAbsent(n, x -> {
+            nodes.add(x);
+            return Integer.valueOf(nodes.size() - 1);
+        });
+        id.apply(top);
+        List<int[]> edges = new ArrayList<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            Node<E> n = nodes.get(i);
+            if (n.isBottomNode()) {
+                edges.add(new int[0]);
+            } else {
+                edges.add(directSubs.apply(n.getRepresentativeElement()).nodes().mapToInt(k -> id.apply(k)
+                    .intValue()).toArray());
+            }
+        }
+        CompressedBitSet[] disjointSets = null;
+        if (disjoints != null) {
+            disjointSets = new CompressedBitSet[nodes.size()];
+            for (int i = 0; i < nodes.size() && disjointSets != null; i++) {
+                Node<E> n = nodes.get(i);
+                if (n.isBottomNode()) {
+                    continue;
+                }
+                CompressedBitSet set = new CompressedBitSet();
+                for (Node<E> d : asIterable(disjoints.apply(n.getRepresentativeElement()).nodes())) {
+                    Integer known = nodeIds.get(d);
+                    if (known == null) {
+                        // not a node of the hierarchy: do not answer disjointness queries
+                        disjointSets = null;
+                        break;
+                    }
+                    set.add(known.intValue());
+                }
+                if (disjointSets != null) {
+                    disjointSets[i] = set;
+                }
+            }
+        }
+        return new Taxonomy<>(nodes, edges, nodeSets, disjointSets);
+    }
+
+    private static <T> Iterable<T> asIterable(Stream<T> s) {
+        return s::iterator;
+    }
+
+    @Nullable
+    private Integer id(E e) {
+        return ids.get(e);
+    }
+
+    /**
+     * @param e
+     *        entity
+     * @param direct
+     *        true if only direct sub nodes are required
+     * @return sub nodes of e, or null if e is not in the taxonomy
+     */
+    @Nullable
+    NodeSet<E> subs(E e, boolean direct) {
+        Integer id = id(e);
+        if (id == null) {
+            return null;
+        }
+        int i = id.intValue();
+        if (i == bottom) {
+            return nodeSets.apply(Stream.empty());
+        }
+        return nodeSet(direct ? Arrays.stream(children, childIndex[i], childIndex[i + 1]) : descendants[i].stream());
+    }
+
+    /**
+     * @param e
+     *        entity
+     * @param direct
+     *        true if only direct super nodes are required
+     * @return super nodes of e, or null if e is not in the taxonomy or is in the bottom node
+     */
+    @Nullable
+    NodeSet<E> supers(E e, boolean direct) {
+        Integer id = id(e);
+        if (id == null || id.intValue() == bottom) {
+            return null;
+        }
+        int i = id.intValue();
+        return nodeSet(direct ? Arrays.stream(parents, parentIndex[i], parentIndex[i + 1]) : ancestors[i].stream());
+    }
+
+    /**
+     * @param e
+     *        entity
+     * @return node of e, or null if e is not in the taxonomy
+     */
+    @Nullable
+    Node<E> equivalents(E e) {
+        Integer id = id(e);
+        return id == null ? null : nodes.get(id.intValue());
+    }
+
+    /**
+     * @param e
+     *        entity
+     * @return disjoint nodes of e, or null if e is not in the taxonomy, is in the bottom node, or disjointness was
+     *         not precomputed
+     */
+    @Nullable
+    NodeSet<E> disjoints(E e) {
+        Integer id = id(e);
+        if (disjoints == null || id == null || disjoints[id.intValue()] == null) {
+            return null;
+        }
+        return nodeSet(disjoints[id.intValue()].stream());
+    }
+
+    /**
+     * @param sub
+     *        candidate sub entity
+     * @param sup
+     *        candidate super entity
+     * @return true if sub is below or equivalent to sup, null if either entity is not in the taxonomy
+     */
+    @Nullable
+    Boolean isSubsumedBy(E sub, E sup) {
+        Integer a = id(sub);
+        Integer b = id(sup);
+        if (a == null || b == null) {
+            return null;
+        }
+        return Boolean.valueOf(a.intValue() == bottom || a.equals(b) || ancestors[a.intValue()].contains(b
+            .intValue()));
+    }
+
+    /** @return number of nodes */
+    int size() {
+        return nodes.size();
+    }
+
+    private NodeSet<E> nodeSet(IntStream ids) {
+        return nodeSets.apply(ids.mapToObj(nodes::get));
+    }
+}
@@ -0,0 +1,90 @@
+package org.semanticweb.owlapitools.cachedreasoner;
+
+import java.beans.ConstructorProperties;
+import java.io.Serializable;
+
+/**
+ * Immutable snapshot of the counters of the off heap tier of a {@link CachedOWLReasoner}; all counters are zero if
+ * the tier is disabled. Lookups reach the tier only after missing in the heap.
+ *
+ * @author ignazio
+ */
+public final class TierStatistics implements Serializable {
+
+    private static final long serialVersionUID = 50000L;
+    /** Statistics of a disabled tier. */
+    static final TierStatistics NONE = new TierStatistics(0, 0, 0, 0, 0);
+    private final long hitCount;
+    private final long missCount;
+    private final long demotionCount;
+    private final long entryCount;
+    private final long usedBytes;
+
+    /**
+     * @param hitCount
+     *        heap misses answered from the tier
+     * @param missCount
+     *        heap misses not found in the tier either
+     * @param demotionCount
+     *        results moved to the tier when evicted from the heap
+     * @param entryCount
+     *        results currently in the tier
+     * @param usedBytes
+     *        bytes written in the tier, including the space of results promoted back or replaced
+     */
+    @ConstructorProperties({ "hitCount", "missCount", "demotionCount", "entryCount", "usedBytes" })
+    public TierStatistics(long hitCount, long missCount, long demotionCount, long entryCount, long usedBytes) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.demotionCount = demotionCount;
+        this.entryCount = entryCount;
+        this.usedBytes = usedBytes;
+    }
+
+    /** @return heap misses answered from the tier */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /** @return heap misses not found in the tier either */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /** @return hits divided by lookups; 1 if there were no lookups */
+    public double getHitRate() {
+        long requests = hitCount + missCount;
+        return requests == 0 ? 1D : (double) hitCount / requests;
+    }
+
+    /** @return results moved to the tier when evicted from the heap */
+    public long getDemotionCount() {
+        return demotionCount;
+    }
+
+    /** @return results currently in the tier */
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    /** @return bytes written in the tier, including the space of results promoted back or replaced */
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * @param other
+     *        statistics of the tier of another reasoner
+     * @return the sum of the two snapshots
+     */
+    TierStatistics plus(TierStatistics other) {
+        return new TierStatistics(hitCount + other.hitCount, missCount + other.missCount, demotionCount
+            + other.demotionCount, entryCount + other.entryCount, usedBytes + other.usedBytes);
+    }
+
+    @Override
+    public String toString() {
+        return "TierStatistics[hits=" + hitCount + ", misses=" + missCount + ", demotions=" + demotionCount
+            + ", entries=" + entryCount + ", bytes=" + usedBytes + ']';
+    }
+}
@@ -11,6 +11,7 @@ package org.semanticweb.owlapitools.threadedreasoner;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.semanticweb.owlapi.model.*;
 import org.semanticweb.owlapi.reasoner.*;
@@ -18,20 +19,98 @@ import org.semanticweb.owlapi.util.Version;
 
 /**
  * @author ignazio Reasoner wrapper that will spin each call to the underlying
- *         reasoner on an Executor service and try hard to respect timeouts
+ *         reasoner on an Executor service and try hard to respect timeouts.
+ *         A call that does not complete within the time out of the delegate
+ *         fails with a {@link TimeOutException}; if it was still waiting for
+ *         the worker thread it is simply withdrawn, otherwise the delegate is
+ *         interrupted. A worker thread that does not return from the delegate
+ *         within a grace period after the interruption is abandoned and
+ *         replaced, and the calls waiting for it are moved to the new worker,
+ *         so that a single stuck call does not stop the reasoner from
+ *         answering. Note that the abandoned thread might still be running
+ *         in the delegate while the new worker calls it.
  */
 @SuppressWarnings("boxing")
 public class ThreadedReasoner implements OWLReasoner {
 
+    /** Default grace period for an interrupted call, in milliseconds. */
+    public static final long DEFAULT_GRACE_PERIOD = 1000;
     protected final OWLReasoner delegate;
-    private final ExecutorService exec = Executors.newFixedThreadPool(1);
+    private final long gracePeriod;
+    /** Single thread worker; replaced while holding the lock on this reasoner. */
+    private volatile ExecutorService exec = newWorker();
+    /** Guarded by this reasoner. */
+    private boolean disposed;
+
+    /** A call, which runs at most once and only if not withdrawn first. */
+    private static final class Task<T> extends FutureTask<T> {
+
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private final CountDownLatch exited = new CountDownLatch(1);
+        /** Worker executing or queueing the call. */
+        volatile ExecutorService worker;
+
+        Task(Callable<T> callable) {
+            super(callable);
+        }
+
+        @Override
+        public void run() {
+            if (!claimed.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                super.run();
+            } finally {
+                exited.countDown();
+            }
+        }
+
+        /** @return true if the call had not started, and never will */
+        boolean withdraw() {
+            if (claimed.compareAndSet(false, true)) {
+                cancel(false);
+                return true;
+            }
+            return false;
+        }
+
+        /** @return true if the call returned within the given time */
+        boolean awaitExit(long millis) throws InterruptedException {
+            return exited.await(millis, TimeUnit.MILLISECONDS);
+        }
+    }
 
     /**
      * @param r
      *        reasoner to wrap
      */
     public ThreadedReasoner(OWLReasoner r) {
+        this(r, DEFAULT_GRACE_PERIOD);
+    }
+
+    /**
+     * @param r
+     *        reasoner to wrap
+     * @param gracePeriod
+     *        time an interrupted call is given to return before its worker
+     *        thread is replaced, in milliseconds
+     */
+    public ThreadedReasoner(OWLReasoner r, long gracePeriod) {
+        if (gracePeriod < 0) {
+            throw new IllegalArgumentException("Grace period cannot be negative: " + gracePeriod);
+        }
         delegate = r;
+        this.gracePeriod = gracePeriod;
+    }
+
+    private static ExecutorService newWorker() {
+        return Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "ThreadedReasoner worker");
+            // an abandoned worker must not keep the JVM alive
+            t.setDaemon(true);
+            return t;
+        });
     }
 
     @Override
@@ -96,8 +175,8 @@ public class ThreadedReasoner implements OWLReasoner {
 
     @Override
     public void interrupt() {
+        // the running call fails, the calls waiting for the worker go ahead
         delegate.interrupt();
-        exec.shutdownNow();
     }
 
     @Override
@@ -106,36 +185,80 @@ public class ThreadedReasoner implements OWLReasoner {
     }
 
     private <T> T threadedRun(Callable<T> r) {
-        Future<T> toReturn = exec.submit(r);
+        Task<T> task = submit(r);
+        long timeOut = delegate.getTimeOut();
         try {
-            if (delegate.getTimeOut() > 0) {
-                return toReturn.get(delegate.getTimeOut(), TimeUnit.MILLISECONDS);
+            if (timeOut > 0) {
+                return task.get(timeOut, TimeUnit.MILLISECONDS);
             } else {
-                return toReturn.get();
+                return task.get();
+            }
+        } catch (TimeoutException e) {
+            stop(task);
+            throw new TimeOutException("Reasoner call did not complete in " + timeOut + " ms", e);
+        } catch (InterruptedException e) {
+            stop(task);
+            Thread.currentThread().interrupt();
+            throw new ReasonerInterruptedException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof OWLRuntimeException) {
+                throw (OWLRuntimeException) e.getCause();
             }
-        } catch (InterruptedException | ExecutionException | TimeoutException e) {
-            interrupt();
-            exec.shutdownNow();
             throw new OWLRuntimeException(e);
-        } finally {
-            toReturn.cancel(true);
         }
     }
 
     private void threadedRun(Runnable r) {
-        Future<?> submit = exec.submit(r);
+        threadedRun(Executors.callable(r));
+    }
+
+    private <T> Task<T> submit(Callable<T> r) {
+        Task<T> task = new Task<>(r);
+        while (true) {
+            ExecutorService worker = exec;
+            task.worker = worker;
+            try {
+                worker.execute(task);
+                return task;
+            } catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    if (disposed) {
+                        throw e;
+                    }
+                }
+                // the worker has just been replaced
+            }
+        }
+    }
+
+    /**
+     * Cancels a call; a running call is interrupted, and its worker replaced
+     * if the call does not return within the grace period.
+     */
+    private void stop(Task<?> task) {
+        if (task.withdraw()) {
+            return;
+        }
+        task.cancel(true);
+        delegate.interrupt();
         try {
-            if (delegate.getTimeOut() > 0) {
-                submit.get(delegate.getTimeOut(), TimeUnit.MILLISECONDS);
-            } else {
-                submit.get();
+            if (!task.awaitExit(gracePeriod)) {
+                replace(task.worker);
             }
-        } catch (InterruptedException | ExecutionException | TimeoutException e) {
-            interrupt();
-            exec.shutdownNow();
-            throw new OWLRuntimeException(e);
-        } finally {
-            submit.cancel(true);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized void replace(ExecutorService stuck) {
+        if (disposed || exec != stuck) {
+            return;
+        }
+        ExecutorService worker = newWorker();
+        exec = worker;
+        for (Runnable waiting : stuck.shutdownNow()) {
+            ((Task<?>) waiting).worker = worker;
+            worker.execute(waiting);
         }
     }
 
@@ -318,6 +441,9 @@ public class ThreadedReasoner implements OWLReasoner {
     @Override
     public void dispose() {
         delegate.dispose();
-        exec.shutdownNow();
+        synchronized (this) {
+            disposed = true;
+            exec.shutdownNow();
+        }
     }
 }
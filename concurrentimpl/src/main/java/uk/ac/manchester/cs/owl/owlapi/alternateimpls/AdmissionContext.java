@@ -0,0 +1,121 @@
+package uk.ac.manchester.cs.owl.owlapi.alternateimpls;
+
+import static org.semanticweb.owlapi.util.OWLAPIPreconditions.checkNotNull;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * Priority and deadline of the calls made by the current thread to any {@link ThreadSafeOWLReasoner}, from the moment
+ * the context is opened to the moment it is closed. The context belongs to the thread rather than to a reasoner, so
+ * that the calls made on behalf of a user request by code that only sees an {@code OWLReasoner}, such as a suggestor,
+ * are all covered:
+ *
+ * <pre>
+ * try (AdmissionContext c = AdmissionContext.open(RequestPriority.INTERACTIVE, 200, TimeUnit.MILLISECONDS)) {
+ *     suggestor.getPossibleNamedFillers(...);
+ * }
+ * </pre>
+ *
+ * A call made after the deadline is rejected with a {@link org.semanticweb.owlapi.reasoner.TimeOutException} without
+ * reaching the reasoner; so is a call still waiting for the lock when the deadline passes. A call that has reached
+ * the reasoner is not stopped by the deadline. Contexts nest: closing a context restores the enclosing one.
+ *
+ * @author ignazio
+ */
+public final class AdmissionContext implements AutoCloseable {
+
+    private static final ThreadLocal<AdmissionContext> CURRENT = new ThreadLocal<>();
+    private final RequestPriority priority;
+    private final boolean timed;
+    /** Deadline, as a {@link System#nanoTime()} value; meaningless if not timed. */
+    private final long deadline;
+    private final Thread owner = Thread.currentThread();
+    @Nullable private final AdmissionContext enclosing = CURRENT.get();
+    private boolean closed;
+
+    private AdmissionContext(RequestPriority priority, boolean timed, long deadline) {
+        this.priority = checkNotNull(priority, "priority cannot be null");
+        this.timed = timed;
+        this.deadline = deadline;
+    }
+
+    /**
+     * @param priority
+     *        priority of the calls
+     * @return a new context without deadline, current for this thread until closed
+     */
+    public static AdmissionContext open(RequestPriority priority) {
+        return install(new AdmissionContext(priority, false, 0));
+    }
+
+    /**
+     * @param priority
+     *        priority of the calls
+     * @param timeout
+     *        time from now after which calls are rejected
+     * @param unit
+     *        unit of the timeout
+     * @return a new context, current for this thread until closed
+     */
+    public static AdmissionContext open(RequestPriority priority, long timeout, TimeUnit unit) {
+        return install(new AdmissionContext(priority, true, System.nanoTime() + unit.toNanos(timeout)));
+    }
+
+    private static AdmissionContext install(AdmissionContext c) {
+        CURRENT.set(c);
+        return c;
+    }
+
+    /** @return the context of the current thread; null if none is open */
+    @Nullable
+    static AdmissionContext current() {
+        return CURRENT.get();
+    }
+
+    /** @return priority of the calls */
+    public RequestPriority getPriority() {
+        return priority;
+    }
+
+    /** @return true if the calls have a deadline */
+    public boolean hasDeadline() {
+        return timed;
+    }
+
+    /** @return time left before the deadline, in nanoseconds, negative if passed; Long.MAX_VALUE if none */
+    public long getRemainingNanos() {
+        return timed ? deadline - System.nanoTime() : Long.MAX_VALUE;
+    }
+
+    /** @return deadline, as a {@link System#nanoTime()} value; meaningless without a deadline */
+    long deadline() {
+        return deadline;
+    }
+
+    /**
+     * Restores the enclosing context of the thread.
+     *
+     * @throws IllegalStateException
+     *         if called by another thread, or if a context opened within this one is still open
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        if (Thread.currentThread() != owner) {
+            throw new IllegalStateException("Admission context closed by a thread that did not open it");
+        }
+        if (CURRENT.get() != this) {
+            throw new IllegalStateException("Admission context closed before the contexts opened within it");
+        }
+        closed = true;
+        if (enclosing == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(enclosing);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package uk.ac.manchester.cs.owl.owlapi.alternateimpls;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Queue in front of the lock of a {@link ThreadSafeOWLReasoner}, deciding the order in which callers try to acquire
+ * it. Only the caller holding the admission token tries the lock; the token is passed on as soon as the lock is
+ * acquired, so that callers sharing a read lock still run at the same time. Waiting callers are ranked by arrival
+ * time, batch callers as if they had arrived a fixed delay later: interactive callers overtake the batch callers that
+ * arrived less than the delay before them, and a batch caller is never overtaken by interactive callers arriving more
+ * than the delay after it, so that it cannot be starved.
+ *
+ * @author ignazio
+ */
+final class AdmissionQueue {
+
+    private final long batchDelay;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>();
+    /** True while a caller holds the token; guarded by the lock. */
+    private boolean busy;
+    private long arrivals;
+
+    private final class Waiter implements Comparable<Waiter> {
+
+        final long rank;
+        final long arrival = arrivals++;
+        final Condition admitted = lock.newCondition();
+        boolean granted;
+
+        Waiter(long rank) {
+            this.rank = rank;
+        }
+
+        @Override
+        public int compareTo(Waiter o) {
+            // nanoTime values must be compared by difference
+            long difference = rank - o.rank;
+            if (difference != 0) {
+                return difference < 0 ? -1 : 1;
+            }
+            return Long.compare(arrival, o.arrival);
+        }
+    }
+
+    /**
+     * @param batchDelay
+     *        delay added to the arrival time of batch callers, in nanoseconds
+     */
+    AdmissionQueue(long batchDelay) {
+        this.batchDelay = batchDelay;
+    }
+
+    /**
+     * Waits for the admission token; the caller must call {@link #exit()} once it has tried the lock.
+     *
+     * @param priority
+     *        priority of the caller
+     * @param timed
+     *        true if the caller has a deadline
+     * @param deadline
+     *        deadline, as a {@link System#nanoTime()} value; ignored if not timed
+     * @return true if the token was received, false if the deadline passed first
+     * @throws InterruptedException
+     *         if interrupted while waiting; the token is not held
+     */
+    boolean enter(RequestPriority priority, boolean timed, long deadline) throws InterruptedException {
+        lock.lock();
+        try {
+            if (!busy) {
+                busy = true;
+                return true;
+            }
+            long now = System.nanoTime();
+            Waiter w = new Waiter(priority == RequestPriority.BATCH ? now + batchDelay : now);
+            waiters.add(w);
+            try {
+                while (!w.granted) {
+                    if (!timed) {
+                        w.admitted.await();
+                    } else {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            waiters.remove(w);
+                            return false;
+                        }
+                        w.admitted.awaitNanos(remaining);
+                    }
+                }
+                return true;
+            } catch (InterruptedException e) {
+                if (w.granted) {
+                    passOn();
+                } else {
+                    waiters.remove(w);
+                }
+                throw e;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Passes the token to the first waiting caller. */
+    void exit() {
+        lock.lock();
+        try {
+            passOn();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Called while holding the lock. */
+    private void passOn() {
+        Waiter next = waiters.poll();
+        if (next == null) {
+            busy = false;
+        } else {
+            next.granted = true;
+            next.admitted.signal();
+        }
+    }
+}
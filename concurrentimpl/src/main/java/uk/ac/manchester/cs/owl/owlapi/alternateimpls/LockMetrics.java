@@ -0,0 +1,129 @@
+package uk.ac.manchester.cs.owl.owlapi.alternateimpls;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nullable;
+
+/**
+ * Lock timings collected by a {@link ThreadSafeOWLReasoner} while its statistics are enabled. Counters are
+ * LongAdders, so that recording adds no contention between the callers; the slowest hold is only replaced, with a
+ * compare and set, when a longer one is seen.
+ *
+ * @author ignazio
+ */
+final class LockMetrics {
+
+    private final Map<String, MethodCounters> methods = new ConcurrentHashMap<>();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicInteger maximumWaiting = new AtomicInteger();
+    private final AtomicReference<SlowestHold> slowest = new AtomicReference<>(new SlowestHold(null, null, 0));
+
+    private static final class MethodCounters {
+
+        final LongAdder calls = new LongAdder();
+        final LongAdder waitTime = new LongAdder();
+        final LongAdder holdTime = new LongAdder();
+        final LongAdder[] waitHistogram = histogram();
+        final LongAdder[] holdHistogram = histogram();
+
+        private static LongAdder[] histogram() {
+            LongAdder[] histogram = new LongAdder[MethodLockStatistics.TIME_BUCKETS];
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] = new LongAdder();
+            }
+            return histogram;
+        }
+
+        private static long[] sums(LongAdder[] histogram) {
+            long[] sums = new long[histogram.length];
+            for (int i = 0; i < sums.length; i++) {
+                sums[i] = histogram[i].sum();
+            }
+            return sums;
+        }
+
+        MethodLockStatistics snapshot(String method) {
+            return new MethodLockStatistics(method, calls.sum(), waitTime.sum(), holdTime.sum(), sums(waitHistogram),
+                sums(holdHistogram));
+        }
+    }
+
+    private static final class SlowestHold {
+
+        @Nullable final String method;
+        @Nullable final String thread;
+        final long nanos;
+
+        SlowestHold(@Nullable String method, @Nullable String thread, long nanos) {
+            this.method = method;
+            this.thread = thread;
+            this.nanos = nanos;
+        }
+    }
+
+    private MethodCounters counters(String method) {
+        MethodCounters c = methods.get(method);
+        return c != null ? c : methods.computeIfAbsent(method, m -> new MethodCounters());
+    }
+
+    /** Counts a caller starting to wait for the lock. */
+    void startWaiting() {
+        int w = waiting.incrementAndGet();
+        int max = maximumWaiting.get();
+        while (w > max && !maximumWaiting.compareAndSet(max, w)) {
+            max = maximumWaiting.get();
+        }
+    }
+
+    /**
+     * Counts a caller done waiting for the lock, whether it acquired it or not.
+     *
+     * @param method
+     *        method called
+     * @param nanos
+     *        time spent waiting
+     */
+    void waited(String method, long nanos) {
+        waiting.decrementAndGet();
+        MethodCounters c = counters(method);
+        c.waitTime.add(nanos);
+        c.waitHistogram[MethodLockStatistics.bucket(nanos)].increment();
+    }
+
+    /**
+     * Counts a call that held the lock; called by the thread that held it.
+     *
+     * @param method
+     *        method called
+     * @param nanos
+     *        time the lock was held
+     */
+    void held(String method, long nanos) {
+        MethodCounters c = counters(method);
+        c.calls.increment();
+        c.holdTime.add(nanos);
+        c.holdHistogram[MethodLockStatistics.bucket(nanos)].increment();
+        SlowestHold s = slowest.get();
+        while (nanos > s.nanos) {
+            if (slowest.compareAndSet(s, new SlowestHold(method, Thread.currentThread().getName(), nanos))) {
+                return;
+            }
+            s = slowest.get();
+        }
+    }
+
+    /** @return snapshot of the counters */
+    LockStatistics snapshot() {
+        List<MethodLockStatistics> list = new ArrayList<>();
+        methods.forEach((m, c) -> list.add(c.snapshot(m)));
+        list.sort((a, b) -> a.getMethod().compareTo(b.getMethod()));
+        SlowestHold s = slowest.get();
+        return new LockStatistics(list, waiting.get(), maximumWaiting.get(), s.nanos, s.method, s.thread);
+    }
+}
@@ -0,0 +1,110 @@
+package uk.ac.manchester.cs.owl.owlapi.alternateimpls;
+
+import static org.semanticweb.owlapi.util.OWLAPIPreconditions.checkNotNull;
+
+import java.beans.ConstructorProperties;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * Immutable snapshot of the lock statistics of a {@link ThreadSafeOWLReasoner}: the timings of each method, the
+ * number of callers waiting for the lock, and the call that held the lock for the longest time. All values are zero
+ * if the statistics are disabled.
+ *
+ * @author ignazio
+ */
+public final class LockStatistics implements Serializable {
+
+    private static final long serialVersionUID = 50000L;
+    /** Statistics of a reasoner that does not collect them. */
+    static final LockStatistics NONE = new LockStatistics(Collections.emptyList(), 0, 0, 0, null, null);
+    private final List<MethodLockStatistics> methods;
+    private final int waitingCount;
+    private final int maximumWaitingCount;
+    private final long slowestHoldNanos;
+    @Nullable private final String slowestHoldMethod;
+    @Nullable private final String slowestHoldThread;
+
+    /**
+     * @param methods
+     *        statistics of the methods called at least once
+     * @param waitingCount
+     *        callers currently waiting for the lock
+     * @param maximumWaitingCount
+     *        largest number of callers waiting for the lock at the same time
+     * @param slowestHoldNanos
+     *        longest time the lock was held by one call
+     * @param slowestHoldMethod
+     *        method of the call that held the lock for the longest time; null if no call completed
+     * @param slowestHoldThread
+     *        name of the thread of the call that held the lock for the longest time; null if no call completed
+     */
+    @ConstructorProperties({ "methods", "waitingCount", "maximumWaitingCount", "slowestHoldNanos", "slowestHoldMethod",
+        "slowestHoldThread" })
+    public LockStatistics(List<MethodLockStatistics> methods, int waitingCount, int maximumWaitingCount,
+        long slowestHoldNanos, @Nullable String slowestHoldMethod, @Nullable String slowestHoldThread) {
+        this.methods = Collections.unmodifiableList(new ArrayList<>(checkNotNull(methods, "methods cannot be null")));
+        this.waitingCount = waitingCount;
+        this.maximumWaitingCount = maximumWaitingCount;
+        this.slowestHoldNanos = slowestHoldNanos;
+        this.slowestHoldMethod = slowestHoldMethod;
+        this.slowestHoldThread = slowestHoldThread;
+    }
+
+    /** @return statistics of the methods called at least once */
+    public List<MethodLockStatistics> getMethods() {
+        return methods;
+    }
+
+    /**
+     * @param method
+     *        method name
+     * @return statistics of the method; null if it was never called
+     */
+    @Nullable
+    public MethodLockStatistics getMethod(String method) {
+        for (MethodLockStatistics m : methods) {
+            if (m.getMethod().equals(method)) {
+                return m;
+            }
+        }
+        return null;
+    }
+
+    /** @return callers currently waiting for the lock */
+    public int getWaitingCount() {
+        return waitingCount;
+    }
+
+    /** @return largest number of callers waiting for the lock at the same time */
+    public int getMaximumWaitingCount() {
+        return maximumWaitingCount;
+    }
+
+    /** @return longest time the lock was held by one call, in nanoseconds */
+    public long getSlowestHoldNanos() {
+        return slowestHoldNanos;
+    }
+
+    /** @return method of the call that held the lock for the longest time; null if no call completed */
+    @Nullable
+    public String getSlowestHoldMethod() {
+        return slowestHoldMethod;
+    }
+
+    /** @return name of the thread of the call that held the lock for the longest time; null if no call completed */
+    @Nullable
+    public String getSlowestHoldThread() {
+        return slowestHoldThread;
+    }
+
+    @Override
+    public String toString() {
+        return "LockStatistics[waiting=" + waitingCount + ", maximumWaiting=" + maximumWaitingCount + ", slowest="
+            + slowestHoldMethod + '/' + slowestHoldNanos + "ns, methods=" + methods + ']';
+    }
+}
@@ -0,0 +1,56 @@
+package uk.ac.manchester.cs.owl.owlapi.alternateimpls;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+
+/**
+ * {@link LockStatisticsMXBean} implementation reading each attribute from a new snapshot.
+ *
+ * @author ignazio
+ */
+final class LockStatisticsBean implements LockStatisticsMXBean {
+
+    private final Supplier<LockStatistics> statistics;
+
+    /**
+     * @param statistics
+     *        snapshot supplier
+     */
+    LockStatisticsBean(Supplier<LockStatistics> statistics) {
+        this.statistics = statistics;
+    }
+
+    @Override
+    public int getWaitingCount() {
+        return statistics.get().getWaitingCount();
+    }
+
+    @Override
+    public int getMaximumWaitingCount() {
+        return statistics.get().getMaximumWaitingCount();
+    }
+
+    @Override
+    public long getSlowestHoldNanos() {
+        return statistics.get().getSlowestHoldNanos();
+    }
+
+    @Override
+    @Nullable
+    public String getSlowestHoldMethod() {
+        return statistics.get().getSlowestHoldMethod();
+    }
+
+    @Override
+    @Nullable
+    public String getSlowestHoldThread() {
+        return statistics.get().getSlowestHoldThread();
+    }
+
+    @Override
+    public List<MethodLockStatistics> getMethodStatistics() {
+        return statistics.get().getMethods();
+    }
+}
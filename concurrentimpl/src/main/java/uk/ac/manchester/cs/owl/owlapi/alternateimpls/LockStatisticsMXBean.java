@@ -0,0 +1,34 @@
+package uk.ac.manchester.cs.owl.owlapi.alternateimpls;
+
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * JMX view of the {@link LockStatistics} of a {@link ThreadSafeOWLReasoner}. Every attribute is read from a fresh
+ * snapshot.
+ *
+ * @author ignazio
+ */
+public interface LockStatisticsMXBean {
+
+    /** @return callers currently waiting for the lock */
+    int getWaitingCount();
+
+    /** @return largest number of callers waiting for the lock at the same time */
+    int getMaximumWaitingCount();
+
+    /** @return longest time the lock was held by one call, in nanoseconds */
+    long getSlowestHoldNanos();
+
+    /** @return method of the call that held the lock for the longest time; null if no call completed */
+    @Nullable
+    String getSlowestHoldMethod();
+
+    /** @return name of the thread of the call that held the lock for the longest time; null if no call completed */
+    @Nullable
+    String getSlowestHoldThread();
+
+    /** @return statistics of the methods called at least once */
+    List<MethodLockStatistics> getMethodStatistics();
+}
@@ -0,0 +1,108 @@
+package uk.ac.manchester.cs.owl.owlapi.alternateimpls;
+
+import static org.semanticweb.owlapi.util.OWLAPIPreconditions.checkNotNull;
+
+import java.beans.ConstructorProperties;
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable snapshot of the lock timings of one method of a {@link ThreadSafeOWLReasoner}: the time spent waiting
+ * for the lock, and the time the lock was held while the delegate answered. Both are also collected in histograms
+ * with exponential buckets: bucket 0 counts times shorter than one microsecond, bucket i counts times between
+ * 2<sup>i-1</sup> and 2<sup>i</sup> microseconds, and the last bucket counts all the longer times.
+ *
+ * @author ignazio
+ */
+public final class MethodLockStatistics implements Serializable {
+
+    private static final long serialVersionUID = 50000L;
+    /** Number of buckets in the histograms. */
+    public static final int TIME_BUCKETS = 24;
+    private final String method;
+    private final long callCount;
+    private final long totalWaitNanos;
+    private final long totalHoldNanos;
+    private final long[] waitTimeHistogram;
+    private final long[] holdTimeHistogram;
+
+    /**
+     * @param method
+     *        method name
+     * @param callCount
+     *        calls that acquired the lock
+     * @param totalWaitNanos
+     *        total time spent waiting for the lock, including the waits of cancelled calls
+     * @param totalHoldNanos
+     *        total time the lock was held
+     * @param waitTimeHistogram
+     *        histogram of the wait times
+     * @param holdTimeHistogram
+     *        histogram of the hold times
+     */
+    @ConstructorProperties({ "method", "callCount", "totalWaitNanos", "totalHoldNanos", "waitTimeHistogram",
+        "holdTimeHistogram" })
+    public MethodLockStatistics(String method, long callCount, long totalWaitNanos, long totalHoldNanos,
+        long[] waitTimeHistogram, long[] holdTimeHistogram) {
+        this.method = checkNotNull(method, "method cannot be null");
+        this.callCount = callCount;
+        this.totalWaitNanos = totalWaitNanos;
+        this.totalHoldNanos = totalHoldNanos;
+        this.waitTimeHistogram = checkNotNull(waitTimeHistogram, "waitTimeHistogram cannot be null").clone();
+        this.holdTimeHistogram = checkNotNull(holdTimeHistogram, "holdTimeHistogram cannot be null").clone();
+    }
+
+    /**
+     * @param nanos
+     *        duration
+     * @return histogram bucket for the duration
+     */
+    static int bucket(long nanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        return Math.min(TIME_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    /**
+     * @param bucket
+     *        bucket index
+     * @return exclusive upper bound of the bucket, in microseconds; Long.MAX_VALUE for the last bucket
+     */
+    public static long bucketUpperBoundMicros(int bucket) {
+        return bucket >= TIME_BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    /** @return method name */
+    public String getMethod() {
+        return method;
+    }
+
+    /** @return calls that acquired the lock */
+    public long getCallCount() {
+        return callCount;
+    }
+
+    /** @return total time spent waiting for the lock, in nanoseconds */
+    public long getTotalWaitNanos() {
+        return totalWaitNanos;
+    }
+
+    /** @return total time the lock was held, in nanoseconds */
+    public long getTotalHoldNanos() {
+        return totalHoldNanos;
+    }
+
+    /** @return wait time histogram; see the class description for the bucket bounds */
+    public long[] getWaitTimeHistogram() {
+        return waitTimeHistogram.clone();
+    }
+
+    /** @return hold time histogram; see the class description for the bucket bounds */
+    public long[] getHoldTimeHistogram() {
+        return holdTimeHistogram.clone();
+    }
+
+    @Override
+    public String toString() {
+        return method + "[calls=" + callCount + ", wait=" + totalWaitNanos + "ns, hold=" + totalHoldNanos + "ns]";
+    }
+}
@@ -0,0 +1,16 @@
+package uk.ac.manchester.cs.owl.owlapi.alternateimpls;
+
+/**
+ * Priority class of the calls made to a {@link ThreadSafeOWLReasoner} within an {@link AdmissionContext}.
+ *
+ * @author ignazio
+ */
+public enum RequestPriority {
+    /** Calls a user is waiting for, such as suggestions or the expansion of a hierarchy. */
+    INTERACTIVE,
+    /**
+     * Calls no one is waiting for, such as realization or bulk retrieval of instances; also the priority of calls
+     * made outside of any context.
+     */
+    BATCH
+}
@@ -40,370 +40,928 @@ package uk.ac.manchester.cs.owl.owlapi.alternateimpls;
 
 import static org.semanticweb.owlapi.util.OWLAPIPreconditions.checkNotNull;
 
+import java.lang.management.ManagementFactory;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.Nullable;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 import org.semanticweb.owlapi.model.*;
 import org.semanticweb.owlapi.reasoner.*;
 import org.semanticweb.owlapi.util.Version;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
-/** @author ignazio a threadsafe wrapper for OWLReasoners */
+/**
+ * A threadsafe wrapper for OWLReasoners. By default every call holds an exclusive lock, so that the delegate is never
+ * called by two threads at once. If the caller declares that the delegate can answer queries concurrently, e.g., a
+ * classified reasoner whose ontology no longer changes, queries share a read lock and only flush,
+ * precomputeInferences and dispose take the exclusive lock; the getters of the reasoner metadata (name,
+ * version, buffering mode, root ontology, time out and policies) then take no lock at all.
+ * <p>
+ * {@link #interrupt()} takes no lock: it interrupts the delegate at once, and callers waiting for a lock fail with a
+ * {@link ReasonerInterruptedException} instead of waiting for the interrupted call to end. {@link #cancel(Thread)}
+ * does the same for the call of a single thread.
+ * <p>
+ * If enabled, {@link #getStatistics() lock statistics} record for each method the time spent waiting for the lock
+ * and the time it was held, the number of waiting callers and the call that held the lock the longest; they can be
+ * exported through JMX. Disabled statistics cost one volatile read per call.
+ * <p>
+ * Callers can give their calls a priority and a deadline by opening an {@link AdmissionContext}: a call whose
+ * deadline has passed, before or while waiting for the lock, fails with a {@link TimeOutException} without reaching
+ * the delegate. If {@link #enablePriorityAdmission(long, TimeUnit) priority admission} is enabled, interactive callers
+ * are also let through before the batch callers that arrived shortly before them. {@link #dispose()} is exempt from
+ * deadlines, priorities and cancellation: it waits for the lock in any case and always reaches the delegate.
+ *
+ * @author ignazio
+ */
 public class ThreadSafeOWLReasoner implements OWLReasoner {
 
-    private static final Logger LOGGER = LoggerFactory.getLogger(ThreadSafeOWLReasoner.class);
+    private static final AtomicInteger REASONER_COUNTER = new AtomicInteger();
     private final OWLReasoner delegate;
+    private final boolean concurrentReads;
+    /** Lock for the calls that can change the state of the delegate. */
+    private final Lock exclusive;
+    /** Lock for queries; the exclusive lock unless reads are concurrent. */
+    private final Lock query;
+    /** Lock for the metadata getters; no lock if reads are concurrent. */
+    private final Lock metadata;
+    /** Outermost calls waiting for a lock or running, by calling thread; reentrant calls are not registered. */
+    private final ConcurrentHashMap<Thread, Call> calls = new ConcurrentHashMap<>();
+    /** The lock, to recognize reentrant calls. */
+    private final ReentrantReadWriteLock readWrite;
+    /** Queue deciding the order in which callers try the lock; null if priority admission is disabled. */
+    @Nullable private volatile AdmissionQueue admission;
+    /** Lock statistics; null if disabled. */
+    @Nullable private volatile LockMetrics metrics;
+    @Nullable private volatile ObjectName mbeanName;
+
+    /** Lock that is never held, for calls that need no locking. */
+    private static final class NoLock implements Lock {
+
+        static final NoLock INSTANCE = new NoLock();
+
+        @Override
+        public void lock() {
+            // nothing to lock
+        }
+
+        @Override
+        public void lockInterruptibly() {
+            // nothing to lock
+        }
+
+        @Override
+        public boolean tryLock() {
+            return true;
+        }
+
+        @Override
+        public boolean tryLock(long time, TimeUnit unit) {
+            return true;
+        }
+
+        @Override
+        public void unlock() {
+            // nothing to unlock
+        }
+
+        @Override
+        public Condition newCondition() {
+            throw new UnsupportedOperationException("No conditions without a lock");
+        }
+    }
+
+    /** State of a call. */
+    private enum CallState {
+        WAITING, RUNNING, DONE
+    }
+
+    /**
+     * A call through this wrapper, from the moment it starts waiting for its lock to the moment it releases it. A
+     * waiting call is cancelled by interrupting its thread; the interruption is cleared if it arrives after the lock
+     * has been acquired, so that it never reaches the delegate. An uninterruptible call ignores deadlines and
+     * cancellation, and waits for its lock in any case.
+     */
+    private final class Call {
+
+        private final Thread thread = Thread.currentThread();
+        private final Lock lock;
+        private final String method;
+        /** True if the call ignores deadlines and cancellation. */
+        private final boolean uninterruptible;
+        /** Statistics when the call started; null if disabled. */
+        @Nullable private final LockMetrics timings = metrics;
+        /** Admission context of the calling thread; null if none is open. */
+        @Nullable private final AdmissionContext context = AdmissionContext.current();
+        /** Time the lock was acquired, if timed. */
+        private long acquiredAt;
+        /** Guarded by this call. */
+        private CallState state = CallState.WAITING;
+        /** True if cancelled while waiting; guarded by this call. */
+        private boolean cancelled;
+
+        Call(Lock lock, String method, boolean uninterruptible) {
+            this.lock = lock;
+            this.method = method;
+            this.uninterruptible = uninterruptible;
+        }
+
+        void enter() {
+            if (!uninterruptible && context != null && context.getRemainingNanos() <= 0) {
+                state = CallState.DONE;
+                throw new TimeOutException("Deadline passed before calling " + method);
+            }
+            if (lock == NoLock.INSTANCE) {
+                state = CallState.RUNNING;
+                return;
+            }
+            // a reentrant call leaves the outer call registered; removing it only removes its own entry
+            calls.putIfAbsent(thread, this);
+            LockMetrics m = timings;
+            long start = 0;
+            if (m != null) {
+                m.startWaiting();
+                start = System.nanoTime();
+            }
+            boolean acquired = false;
+            InterruptedException interruption = null;
+            try {
+                acquired = acquire();
+            } catch (InterruptedException e) {
+                interruption = e;
+            }
+            if (m != null) {
+                acquiredAt = System.nanoTime();
+                m.waited(method, acquiredAt - start);
+            }
+            boolean wasCancelled;
+            synchronized (this) {
+                wasCancelled = cancelled;
+                state = wasCancelled || !acquired ? CallState.DONE : CallState.RUNNING;
+            }
+            if (!wasCancelled && acquired) {
+                return;
+            }
+            calls.remove(thread, this);
+            if (acquired) {
+                lock.unlock();
+            }
+            if (wasCancelled) {
+                if (interruption == null) {
+                    // the interruption was aimed at the wait, not at the call
+                    Thread.interrupted();
+                }
+                throw new ReasonerInterruptedException("Cancelled while waiting for the reasoner", interruption);
+            }
+            if (interruption == null) {
+                throw new TimeOutException("Deadline passed while waiting for the reasoner to call " + method);
+            }
+            Thread.currentThread().interrupt();
+            throw new ReasonerInterruptedException("Interrupted while waiting for the reasoner", interruption);
+        }
+
+        /**
+         * Acquires the lock, after being admitted by the admission queue if there is one and the lock is not already
+         * held by this thread.
+         *
+         * @return true if the lock was acquired, false if the deadline passed first
+         */
+        private boolean acquire() throws InterruptedException {
+            if (uninterruptible) {
+                // no deadline, no cancellation and no admission queue
+                lock.lock();
+                return true;
+            }
+            AdmissionContext c = context;
+            boolean timed = c != null && c.hasDeadline();
+            long deadline = timed ? c.deadline() : 0;
+            AdmissionQueue queue = admission;
+            if (queue != null && (readWrite.isWriteLockedByCurrentThread() || readWrite.getReadHoldCount() > 0)) {
+                // reentrant call: waiting for the queue would deadlock
+                queue = null;
+            }
+            if (queue != null && !queue.enter(c == null ? RequestPriority.BATCH : c.getPriority(), timed, deadline)) {
+                return false;
+            }
+            try {
+                if (!timed) {
+                    lock.lockInterruptibly();
+                    return true;
+                }
+                return lock.tryLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } finally {
+                if (queue != null) {
+                    queue.exit();
+                }
+            }
+        }
+
+        /** @return true if the call was waiting, and has been cancelled */
+        synchronized boolean cancelWaiting() {
+            if (uninterruptible || state != CallState.WAITING) {
+                return false;
+            }
+            cancelled = true;
+            thread.interrupt();
+            return true;
+        }
+
+        /** @return true if the call was running, and the delegate has been interrupted */
+        synchronized boolean interruptRunning() {
+            if (state != CallState.RUNNING) {
+                return false;
+            }
+            delegate.interrupt();
+            return true;
+        }
+
+        void exit() {
+            synchronized (this) {
+                state = CallState.DONE;
+            }
+            if (lock != NoLock.INSTANCE) {
+                LockMetrics m = timings;
+                if (m != null) {
+                    m.held(method, System.nanoTime() - acquiredAt);
+                }
+                lock.unlock();
+                calls.remove(thread, this);
+            }
+        }
+    }
+
+    private Call enter(Lock lock, String method) {
+        Call call = new Call(lock, method, false);
+        call.enter();
+        return call;
+    }
+
+    private Call enterUninterruptibly(Lock lock, String method) {
+        Call call = new Call(lock, method, true);
+        call.enter();
+        return call;
+    }
 
     /**
      * @param reasoner
-     *        the reasoner to wrap
+     *        the reasoner to wrap; all calls to it are serialized
      */
     public ThreadSafeOWLReasoner(OWLReasoner reasoner) {
+        this(reasoner, false);
+    }
+
+    /**
+     * @param reasoner
+     *        the reasoner to wrap
+     * @param concurrentReads
+     *        true if the reasoner can answer queries from several threads at once, as long as it is not flushed,
+     *        precomputing or disposed; false to serialize all calls
+     */
+    public ThreadSafeOWLReasoner(OWLReasoner reasoner, boolean concurrentReads) {
         checkNotNull(reasoner, "The input reasoner cannot be null");
         delegate = reasoner;
+        this.concurrentReads = concurrentReads;
+        readWrite = new ReentrantReadWriteLock();
+        exclusive = readWrite.writeLock();
+        query = concurrentReads ? readWrite.readLock() : exclusive;
+        metadata = concurrentReads ? NoLock.INSTANCE : exclusive;
     }
 
-    private static void log(String s, Object object, boolean b) {
-        if (LOGGER.isInfoEnabled()) {
-            LOGGER.info(Thread.currentThread().getName() + " reasoner." + s + object + ", " + b + " ... ");
-        }
+    /** @return true if queries are answered by the delegate concurrently */
+    public boolean isConcurrentReads() {
+        return concurrentReads;
     }
 
-    private static void log(String s, Object object1, Object object2) {
-        if (LOGGER.isInfoEnabled()) {
-            LOGGER.info(Thread.currentThread().getName() + " reasoner." + s + object1 + ", " + object2 + " ... ");
+    /**
+     * Makes callers wait for the lock in order of priority rather than in the order of the lock: interactive callers
+     * are let through before the batch callers that arrived less than the given delay before them. A batch caller
+     * waits therefore at most the delay longer than it would without priorities, and an interactive caller waits for
+     * the running calls, the interactive callers that arrived before it and the batch callers that arrived more than
+     * the delay before it. Calls made outside of an {@link AdmissionContext} are batch calls.
+     *
+     * @param batchDelay
+     *        largest delay imposed on batch callers by interactive callers
+     * @param unit
+     *        unit of the delay
+     */
+    public void enablePriorityAdmission(long batchDelay, TimeUnit unit) {
+        if (batchDelay < 0) {
+            throw new IllegalArgumentException("Batch delay cannot be negative: " + batchDelay);
         }
+        // bounded, so that arrival times plus delays can still be compared by difference
+        admission = new AdmissionQueue(Math.min(unit.toNanos(batchDelay), Long.MAX_VALUE >> 2));
     }
 
-    private static void log(String s, Object object) {
-        if (LOGGER.isInfoEnabled()) {
-            LOGGER.info(Thread.currentThread().getName() + " reasoner." + s + object + " ... ");
-        }
+    /**
+     * Lets callers wait for the lock in the order of the lock again; callers already waiting in order of priority are
+     * still admitted in that order. Deadlines are enforced either way.
+     */
+    public void disablePriorityAdmission() {
+        admission = null;
     }
 
-    private static void log(String s) {
-        if (LOGGER.isInfoEnabled()) {
-            LOGGER.info(Thread.currentThread().getName() + " reasoner." + s + " ... ");
+    /** @return true if callers wait for the lock in order of priority */
+    public boolean isPriorityAdmissionEnabled() {
+        return admission != null;
+    }
+
+    /**
+     * @param enabled
+     *        true to start collecting lock statistics, if not already collecting them; false to stop and discard
+     *        them. Calls in progress when the statistics are enabled are not counted.
+     */
+    public void setStatisticsEnabled(boolean enabled) {
+        synchronized (calls) {
+            if (!enabled) {
+                metrics = null;
+            } else if (metrics == null) {
+                metrics = new LockMetrics();
+            }
         }
     }
 
-    private static <T> T logresult(T t) {
-        if (LOGGER.isInfoEnabled()) {
-            LOGGER.info(t.toString());
+    /** @return true if lock statistics are collected */
+    public boolean isStatisticsEnabled() {
+        return metrics != null;
+    }
+
+    /** @return snapshot of the lock statistics; all zero if they are disabled */
+    public LockStatistics getStatistics() {
+        LockMetrics m = metrics;
+        return m == null ? LockStatistics.NONE : m.snapshot();
+    }
+
+    /**
+     * Registers a {@link LockStatisticsMXBean} for this reasoner with the platform MBean server, and enables the
+     * statistics.
+     *
+     * @return name of the MBean
+     */
+    public synchronized ObjectName registerStatisticsMBean() {
+        ObjectName name = mbeanName;
+        if (name != null) {
+            return name;
         }
-        return t;
+        setStatisticsEnabled(true);
+        try {
+            name = new ObjectName("uk.ac.manchester.cs.owl.owlapi.alternateimpls:type=ThreadSafeOWLReasoner,id="
+                + REASONER_COUNTER.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new LockStatisticsBean(this::getStatistics),
+                name);
+        } catch (JMException e) {
+            throw new OWLRuntimeException("Cannot register the lock statistics MBean", e);
+        }
+        mbeanName = name;
+        return name;
+    }
+
+    /** @return name of the statistics MBean registered for this reasoner; null if no MBean is registered */
+    @Nullable
+    public ObjectName getStatisticsMBeanName() {
+        return mbeanName;
     }
 
-    private static boolean logresult(boolean t) {
-        if (LOGGER.isInfoEnabled()) {
-            LOGGER.info(Boolean.toString(t));
+    /** Unregisters the statistics MBean, if one is registered; the statistics stay enabled. */
+    public synchronized void unregisterStatisticsMBean() {
+        ObjectName name = mbeanName;
+        if (name == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            throw new OWLRuntimeException("Cannot unregister the lock statistics MBean", e);
         }
-        return t;
+        mbeanName = null;
     }
 
     @Override
-    public synchronized String getReasonerName() {
-        log("getReasonerName()");
-        return logresult(delegate.getReasonerName());
+    public String getReasonerName() {
+        Call call = enter(metadata, "getReasonerName");
+        try {
+            return delegate.getReasonerName();
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized Version getReasonerVersion() {
-        log("getReasonerVersion()");
-        return logresult(delegate.getReasonerVersion());
+    public Version getReasonerVersion() {
+        Call call = enter(metadata, "getReasonerVersion");
+        try {
+            return delegate.getReasonerVersion();
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized BufferingMode getBufferingMode() {
-        log("getBufferingMode()");
-        return logresult(delegate.getBufferingMode());
+    public BufferingMode getBufferingMode() {
+        Call call = enter(metadata, "getBufferingMode");
+        try {
+            return delegate.getBufferingMode();
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized void flush() {
-        log("flush()");
-        delegate.flush();
+    public void flush() {
+        Call call = enter(exclusive, "flush");
+        try {
+            delegate.flush();
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized List<OWLOntologyChange> getPendingChanges() {
-        log("getPendingChanges()");
-        return logresult(delegate.getPendingChanges());
+    public List<OWLOntologyChange> getPendingChanges() {
+        Call call = enter(query, "getPendingChanges");
+        try {
+            return delegate.getPendingChanges();
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized Set<OWLAxiom> getPendingAxiomAdditions() {
-        log("getPendingAxiomAdditions()");
-        return logresult(delegate.getPendingAxiomAdditions());
+    public Set<OWLAxiom> getPendingAxiomAdditions() {
+        Call call = enter(query, "getPendingAxiomAdditions");
+        try {
+            return delegate.getPendingAxiomAdditions();
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized Set<OWLAxiom> getPendingAxiomRemovals() {
-        log("getPendingAxiomRemovals()");
-        return logresult(delegate.getPendingAxiomRemovals());
+    public Set<OWLAxiom> getPendingAxiomRemovals() {
+        Call call = enter(query, "getPendingAxiomRemovals");
+        try {
+            return delegate.getPendingAxiomRemovals();
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized OWLOntology getRootOntology() {
-        log("getRootOntology()");
-        return logresult(delegate.getRootOntology());
+    public OWLOntology getRootOntology() {
+        Call call = enter(metadata, "getRootOntology");
+        try {
+            return delegate.getRootOntology();
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized void interrupt() {
-        log("interrupt()");
+    public void interrupt() {
+        // no lock: the call to interrupt is usually holding it
+        for (Call c : calls.values()) {
+            c.cancelWaiting();
+        }
         delegate.interrupt();
     }
 
+    /**
+     * Cancels the call made by a thread, without waiting for any lock. If the call is waiting for the lock, it fails
+     * at once with a {@link ReasonerInterruptedException}; if it is running, the delegate is interrupted, which also
+     * stops any other call running in it at the same time.
+     *
+     * @param caller
+     *        thread whose call should be cancelled
+     * @return true if the thread had a call waiting or running
+     */
+    public boolean cancel(Thread caller) {
+        Call c = calls.get(caller);
+        return c != null && (c.cancelWaiting() || c.interruptRunning());
+    }
+
     @Override
-    public synchronized void precomputeInferences(InferenceType... inferenceTypes) {
-        log("precomputeInferences()", inferenceTypes);
-        delegate.precomputeInferences(inferenceTypes);
+    public void precomputeInferences(InferenceType... inferenceTypes) {
+        Call call = enter(exclusive, "precomputeInferences");
+        try {
+            delegate.precomputeInferences(inferenceTypes);
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized boolean isPrecomputed(InferenceType inferenceType) {
-        log("isPrecomputed() " + inferenceType);
-        return logresult(delegate.isPrecomputed(inferenceType));
+    public boolean isPrecomputed(InferenceType inferenceType) {
+        Call call = enter(query, "isPrecomputed");
+        try {
+            return delegate.isPrecomputed(inferenceType);
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized Set<InferenceType> getPrecomputableInferenceTypes() {
-        log("getPrecomputableInferenceTypes()");
-        return logresult(delegate.getPrecomputableInferenceTypes());
+    public Set<InferenceType> getPrecomputableInferenceTypes() {
+        Call call = enter(query, "getPrecomputableInferenceTypes");
+        try {
+            return delegate.getPrecomputableInferenceTypes();
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized boolean isConsistent() {
-        log("isConsistent()");
-        return logresult(delegate.isConsistent());
+    public boolean isConsistent() {
+        Call call = enter(query, "isConsistent");
+        try {
+            return delegate.isConsistent();
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized boolean isSatisfiable(OWLClassExpression classExpression) {
-        log("isSatisfiable()", classExpression);
-        return logresult(delegate.isSatisfiable(classExpression));
+    public boolean isSatisfiable(OWLClassExpression classExpression) {
+        Call call = enter(query, "isSatisfiable");
+        try {
+            return delegate.isSatisfiable(classExpression);
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized Node<OWLClass> getUnsatisfiableClasses() {
-        log("getUnsatisfiableClasses()");
-        return logresult(delegate.getUnsatisfiableClasses());
+    public Node<OWLClass> getUnsatisfiableClasses() {
+        Call call = enter(query, "getUnsatisfiableClasses");
+        try {
+            return delegate.getUnsatisfiableClasses();
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized boolean isEntailed(OWLAxiom axiom) {
-        log("isEntailed()", axiom);
-        return logresult(delegate.isEntailed(axiom));
+    public boolean isEntailed(OWLAxiom axiom) {
+        Call call = enter(query, "isEntailed");
+        try {
+            return delegate.isEntailed(axiom);
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized boolean isEntailed(Set<? extends OWLAxiom> axioms) {
-        log("isEntailed()", axioms);
-        return logresult(delegate.isEntailed(axioms));
+    public boolean isEntailed(Set<? extends OWLAxiom> axioms) {
+        Call call = enter(query, "isEntailed");
+        try {
+            return delegate.isEntailed(axioms);
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized boolean isEntailmentCheckingSupported(AxiomType<?> axiomType) {
-        log("isEntailmentCheckingSupported()", axiomType);
-        return logresult(delegate.isEntailmentCheckingSupported(axiomType));
+    public boolean isEntailmentCheckingSupported(AxiomType<?> axiomType) {
+        Call call = enter(query, "isEntailmentCheckingSupported");
+        try {
+            return delegate.isEntailmentCheckingSupported(axiomType);
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized Node<OWLClass> getTopClassNode() {
-        log("getTopClassNode()");
-        return logresult(delegate.getTopClassNode());
+    public Node<OWLClass> getTopClassNode() {
+        Call call = enter(query, "getTopClassNode");
+        try {
+            return delegate.getTopClassNode();
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized Node<OWLClass> getBottomClassNode() {
-        log("getBottomClassNode()");
-        return logresult(delegate.getBottomClassNode());
+    public Node<OWLClass> getBottomClassNode() {
+        Call call = enter(query, "getBottomClassNode");
+        try {
+            return delegate.getBottomClassNode();
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized NodeSet<OWLClass> getSubClasses(OWLClassExpression ce, boolean direct) {
-        log("getSubClasses()", ce, direct);
-        return logresult(delegate.getSubClasses(ce, direct));
+    public NodeSet<OWLClass> getSubClasses(OWLClassExpression ce, boolean direct) {
+        Call call = enter(query, "getSubClasses");
+        try {
+            return delegate.getSubClasses(ce, direct);
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized NodeSet<OWLClass> getSuperClasses(OWLClassExpression ce, boolean direct) {
-        log("getSuperClasses()", ce, direct);
-        return logresult(delegate.getSuperClasses(ce, direct));
+    public NodeSet<OWLClass> getSuperClasses(OWLClassExpression ce, boolean direct) {
+        Call call = enter(query, "getSuperClasses");
+        try {
+            return delegate.getSuperClasses(ce, direct);
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized Node<OWLClass> getEquivalentClasses(OWLClassExpression ce) {
-        log("getEquivalentClasses()", ce);
-        return logresult(delegate.getEquivalentClasses(ce));
+    public Node<OWLClass> getEquivalentClasses(OWLClassExpression ce) {
+        Call call = enter(query, "getEquivalentClasses");
+        try {
+            return delegate.getEquivalentClasses(ce);
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized NodeSet<OWLClass> getDisjointClasses(OWLClassExpression ce) {
-        log("getDisjointClasses()", ce);
-        return logresult(delegate.getDisjointClasses(ce));
+    public NodeSet<OWLClass> getDisjointClasses(OWLClassExpression ce) {
+        Call call = enter(query, "getDisjointClasses");
+        try {
+            return delegate.getDisjointClasses(ce);
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized Node<OWLObjectPropertyExpression> getTopObjectPropertyNode() {
-        log("getTopObjectPropertyNode()");
-        return logresult(delegate.getTopObjectPropertyNode());
+    public Node<OWLObjectPropertyExpression> getTopObjectPropertyNode() {
+        Call call = enter(query, "getTopObjectPropertyNode");
+        try {
+            return delegate.getTopObjectPropertyNode();
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized Node<OWLObjectPropertyExpression> getBottomObjectPropertyNode() {
-        log("getBottomObjectPropertyNode()");
-        return logresult(delegate.getBottomObjectPropertyNode());
+    public Node<OWLObjectPropertyExpression> getBottomObjectPropertyNode() {
+        Call call = enter(query, "getBottomObjectPropertyNode");
+        try {
+            return delegate.getBottomObjectPropertyNode();
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized NodeSet<OWLObjectPropertyExpression> getSubObjectProperties(OWLObjectPropertyExpression pe,
+    public NodeSet<OWLObjectPropertyExpression> getSubObjectProperties(OWLObjectPropertyExpression pe,
         boolean direct) {
-        log("getSubObjectProperties()", pe, direct);
-        return logresult(delegate.getSubObjectProperties(pe, direct));
+        Call call = enter(query, "getSubObjectProperties");
+        try {
+            return delegate.getSubObjectProperties(pe, direct);
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized NodeSet<OWLObjectPropertyExpression> getSuperObjectProperties(OWLObjectPropertyExpression pe,
+    public NodeSet<OWLObjectPropertyExpression> getSuperObjectProperties(OWLObjectPropertyExpression pe,
         boolean direct) {
-        log("getSuperObjectProperties()", pe, direct);
-        return logresult(delegate.getSuperObjectProperties(pe, direct));
+        Call call = enter(query, "getSuperObjectProperties");
+        try {
+            return delegate.getSuperObjectProperties(pe, direct);
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized Node<OWLObjectPropertyExpression> getEquivalentObjectProperties(
+    public Node<OWLObjectPropertyExpression> getEquivalentObjectProperties(
         OWLObjectPropertyExpression pe) {
-        log("getEquivalentObjectProperties()", pe);
-        return logresult(delegate.getEquivalentObjectProperties(pe));
+        Call call = enter(query, "getEquivalentObjectProperties");
+        try {
+            return delegate.getEquivalentObjectProperties(pe);
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized NodeSet<OWLObjectPropertyExpression> getDisjointObjectProperties(
+    public NodeSet<OWLObjectPropertyExpression> getDisjointObjectProperties(
         OWLObjectPropertyExpression pe) {
-        log("getDisjointObjectProperties()", pe);
-        return logresult(delegate.getDisjointObjectProperties(pe));
+        Call call = enter(query, "getDisjointObjectProperties");
+        try {
+            return delegate.getDisjointObjectProperties(pe);
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized Node<OWLObjectPropertyExpression> getInverseObjectProperties(OWLObjectPropertyExpression pe) {
-        log("getInverseObjectProperties()", pe);
-        return logresult(delegate.getInverseObjectProperties(pe));
+    public Node<OWLObjectPropertyExpression> getInverseObjectProperties(OWLObjectPropertyExpression pe) {
+        Call call = enter(query, "getInverseObjectProperties");
+        try {
+            return delegate.getInverseObjectProperties(pe);
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized NodeSet<OWLClass> getObjectPropertyDomains(OWLObjectPropertyExpression pe, boolean direct) {
-        log("getObjectPropertyDomains()", pe, direct);
-        return logresult(delegate.getObjectPropertyDomains(pe, direct));
+    public NodeSet<OWLClass> getObjectPropertyDomains(OWLObjectPropertyExpression pe, boolean direct) {
+        Call call = enter(query, "getObjectPropertyDomains");
+        try {
+            return delegate.getObjectPropertyDomains(pe, direct);
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized NodeSet<OWLClass> getObjectPropertyRanges(OWLObjectPropertyExpression pe, boolean direct) {
-        log("getObjectPropertyRanges() ", pe, direct);
-        return logresult(delegate.getObjectPropertyRanges(pe, direct));
+    public NodeSet<OWLClass> getObjectPropertyRanges(OWLObjectPropertyExpression pe, boolean direct) {
+        Call call = enter(query, "getObjectPropertyRanges");
+        try {
+            return delegate.getObjectPropertyRanges(pe, direct);
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized Node<OWLDataProperty> getTopDataPropertyNode() {
-        log("getTopDataPropertyNode()");
-        return logresult(delegate.getTopDataPropertyNode());
+    public Node<OWLDataProperty> getTopDataPropertyNode() {
+        Call call = enter(query, "getTopDataPropertyNode");
+        try {
+            return delegate.getTopDataPropertyNode();
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized Node<OWLDataProperty> getBottomDataPropertyNode() {
-        log("getBottomDataPropertyNode()");
-        return logresult(delegate.getBottomDataPropertyNode());
+    public Node<OWLDataProperty> getBottomDataPropertyNode() {
+        Call call = enter(query, "getBottomDataPropertyNode");
+        try {
+            return delegate.getBottomDataPropertyNode();
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized NodeSet<OWLDataProperty> getSubDataProperties(OWLDataProperty pe, boolean direct) {
-        log("getSubDataProperties()", pe, direct);
-        return logresult(delegate.getSubDataProperties(pe, direct));
+    public NodeSet<OWLDataProperty> getSubDataProperties(OWLDataProperty pe, boolean direct) {
+        Call call = enter(query, "getSubDataProperties");
+        try {
+            return delegate.getSubDataProperties(pe, direct);
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized NodeSet<OWLDataProperty> getSuperDataProperties(OWLDataProperty pe, boolean direct) {
-        log("getSuperDataProperties()", pe, direct);
-        return logresult(delegate.getSuperDataProperties(pe, direct));
+    public NodeSet<OWLDataProperty> getSuperDataProperties(OWLDataProperty pe, boolean direct) {
+        Call call = enter(query, "getSuperDataProperties");
+        try {
+            return delegate.getSuperDataProperties(pe, direct);
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized Node<OWLDataProperty> getEquivalentDataProperties(OWLDataProperty pe) {
-        log("getEquivalentDataProperties()", pe);
-        return logresult(delegate.getEquivalentDataProperties(pe));
+    public Node<OWLDataProperty> getEquivalentDataProperties(OWLDataProperty pe) {
+        Call call = enter(query, "getEquivalentDataProperties");
+        try {
+            return delegate.getEquivalentDataProperties(pe);
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized NodeSet<OWLDataProperty> getDisjointDataProperties(OWLDataPropertyExpression pe) {
-        log("getDisjointDataProperties()", pe);
-        return logresult(delegate.getDisjointDataProperties(pe));
+    public NodeSet<OWLDataProperty> getDisjointDataProperties(OWLDataPropertyExpression pe) {
+        Call call = enter(query, "getDisjointDataProperties");
+        try {
+            return delegate.getDisjointDataProperties(pe);
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized NodeSet<OWLClass> getDataPropertyDomains(OWLDataProperty pe, boolean direct) {
-        log("getDataPropertyDomains()", pe, direct);
-        return logresult(delegate.getDataPropertyDomains(pe, direct));
+    public NodeSet<OWLClass> getDataPropertyDomains(OWLDataProperty pe, boolean direct) {
+        Call call = enter(query, "getDataPropertyDomains");
+        try {
+            return delegate.getDataPropertyDomains(pe, direct);
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized NodeSet<OWLClass> getTypes(OWLNamedIndividual ind, boolean direct) {
-        log("getTypes()", ind, direct);
-        return logresult(delegate.getTypes(ind, direct));
+    public NodeSet<OWLClass> getTypes(OWLNamedIndividual ind, boolean direct) {
+        Call call = enter(query, "getTypes");
+        try {
+            return delegate.getTypes(ind, direct);
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized NodeSet<OWLNamedIndividual> getInstances(OWLClassExpression ce, boolean direct) {
-        log("getInstances()", ce, direct);
-        return logresult(delegate.getInstances(ce, direct));
+    public NodeSet<OWLNamedIndividual> getInstances(OWLClassExpression ce, boolean direct) {
+        Call call = enter(query, "getInstances");
+        try {
+            return delegate.getInstances(ce, direct);
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized NodeSet<OWLNamedIndividual> getObjectPropertyValues(OWLNamedIndividual ind,
+    public NodeSet<OWLNamedIndividual> getObjectPropertyValues(OWLNamedIndividual ind,
         OWLObjectPropertyExpression pe) {
-        log("getObjectPropertyValues()", ind, pe);
-        return logresult(delegate.getObjectPropertyValues(ind, pe));
+        Call call = enter(query, "getObjectPropertyValues");
+        try {
+            return delegate.getObjectPropertyValues(ind, pe);
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized Set<OWLLiteral> getDataPropertyValues(OWLNamedIndividual ind, OWLDataProperty pe) {
-        log("getDataPropertyValues()", ind, pe);
-        return logresult(delegate.getDataPropertyValues(ind, pe));
+    public Set<OWLLiteral> getDataPropertyValues(OWLNamedIndividual ind, OWLDataProperty pe) {
+        Call call = enter(query, "getDataPropertyValues");
+        try {
+            return delegate.getDataPropertyValues(ind, pe);
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized Node<OWLNamedIndividual> getSameIndividuals(OWLNamedIndividual ind) {
-        log("getSameIndividuals()", ind);
-        return logresult(delegate.getSameIndividuals(ind));
+    public Node<OWLNamedIndividual> getSameIndividuals(OWLNamedIndividual ind) {
+        Call call = enter(query, "getSameIndividuals");
+        try {
+            return delegate.getSameIndividuals(ind);
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized NodeSet<OWLNamedIndividual> getDifferentIndividuals(OWLNamedIndividual ind) {
-        log("getDifferentIndividuals()", ind);
-        return logresult(delegate.getDifferentIndividuals(ind));
+    public NodeSet<OWLNamedIndividual> getDifferentIndividuals(OWLNamedIndividual ind) {
+        Call call = enter(query, "getDifferentIndividuals");
+        try {
+            return delegate.getDifferentIndividuals(ind);
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized long getTimeOut() {
-        log("getTimeOut()");
-        return logresult(Long.valueOf(delegate.getTimeOut())).longValue();
+    public long getTimeOut() {
+        Call call = enter(metadata, "getTimeOut");
+        try {
+            return delegate.getTimeOut();
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized FreshEntityPolicy getFreshEntityPolicy() {
-        log("getFreshEntityPolicy()");
-        return logresult(delegate.getFreshEntityPolicy());
+    public FreshEntityPolicy getFreshEntityPolicy() {
+        Call call = enter(metadata, "getFreshEntityPolicy");
+        try {
+            return delegate.getFreshEntityPolicy();
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized IndividualNodeSetPolicy getIndividualNodeSetPolicy() {
-        log("getIndividualNodeSetPolicy()");
-        return logresult(delegate.getIndividualNodeSetPolicy());
+    public IndividualNodeSetPolicy getIndividualNodeSetPolicy() {
+        Call call = enter(metadata, "getIndividualNodeSetPolicy");
+        try {
+            return delegate.getIndividualNodeSetPolicy();
+        } finally {
+            call.exit();
+        }
     }
 
     @Override
-    public synchronized void dispose() {
-        log("dispose()");
-        delegate.dispose();
+    public void dispose() {
+        // neither a passed deadline nor an interruption may leave the delegate or the MBean behind
+        try {
+            Call call = enterUninterruptibly(exclusive, "dispose");
+            try {
+                delegate.dispose();
+            } finally {
+                call.exit();
+            }
+        } finally {
+            unregisterStatisticsMBean();
+        }
     }
 }
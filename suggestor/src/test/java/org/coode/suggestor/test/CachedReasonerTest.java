@@ -0,0 +1,712 @@
+package org.coode.suggestor.test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import static org.semanticweb.owlapi.util.OWLAPIStreamUtils.asList;
+import static org.semanticweb.owlapi.util.OWLAPIStreamUtils.asSet;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
+
+import javax.management.ObjectName;
+
+import org.junit.Test;
+import org.semanticweb.HermiT.ReasonerFactory;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLDataProperty;
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
+import org.semanticweb.owlapi.model.OWLObjectProperty;
+import org.semanticweb.owlapi.model.OWLObjectPropertyExpression;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.semanticweb.owlapi.reasoner.FreshEntitiesException;
+import org.semanticweb.owlapi.reasoner.FreshEntityPolicy;
+import org.semanticweb.owlapi.reasoner.InferenceType;
+import org.semanticweb.owlapi.reasoner.NodeSet;
+import org.semanticweb.owlapi.reasoner.OWLReasoner;
+import org.semanticweb.owlapi.reasoner.SimpleConfiguration;
+import org.semanticweb.owlapi.reasoner.impl.OWLClassNodeSet;
+import org.semanticweb.owlapitools.cachedreasoner.CacheKeys;
+import org.semanticweb.owlapitools.cachedreasoner.CacheStatistics;
+import org.semanticweb.owlapitools.cachedreasoner.CachedOWLReasoner;
+import org.semanticweb.owlapitools.cachedreasoner.CachedReasonerConfiguration;
+import org.semanticweb.owlapitools.cachedreasoner.CachedReasonerFactory;
+import org.semanticweb.owlapitools.cachedreasoner.MemoryPressure;
+
+import uk.ac.manchester.cs.owl.owlapi.alternateimpls.ThreadSafeOWLReasoner;
+
+@SuppressWarnings("javadoc")
+public class CachedReasonerTest extends AbstractSuggestorTest {
+
+    @Override
+    protected OWLOntology createOntology() throws OWLOntologyCreationException {
+        return mngr.loadOntologyFromOntologyDocument(getClass().getResourceAsStream("/pizza.owl"));
+    }
+
+    @Test
+    public void testBoundedCacheGivesSameAnswers() throws Exception {
+        OWLOntology ont = createOntology();
+        OWLReasoner plain = new ReasonerFactory().createNonBufferingReasoner(ont);
+        CachedReasonerConfiguration config = new CachedReasonerConfiguration().setMaximumWeight(200)
+            .setRegionMaximumWeight(CacheKeys.superclasses, 50);
+        OWLReasoner cached = new CachedReasonerFactory(new ReasonerFactory(), config).createNonBufferingReasoner(ont);
+        List<OWLClass> classes = asList(ont.classesInSignature());
+        for (int i = 0; i < 3; i++) {
+            for (OWLClass c : classes) {
+                assertEquals(plain.getSuperClasses(c, false), cached.getSuperClasses(c, false));
+                assertEquals(plain.getSubClasses(c, true), cached.getSubClasses(c, true));
+            }
+        }
+    }
+
+    @Test
+    public void testInvalidationFollowsChanges() throws Exception {
+        OWLOntology ont = mngr.createOntology();
+        OWLReasoner cached = factory.createNonBufferingReasoner(ont);
+        OWLClass a = createClass("A");
+        OWLClass b = createClass("B");
+        OWLClass c = createClass("C");
+        OWLClass d = createClass("D");
+        mngr.addAxiom(ont, df.getOWLSubClassOfAxiom(a, b));
+        mngr.addAxiom(ont, df.getOWLSubClassOfAxiom(d, c));
+        assertFalse(cached.getSuperClasses(a, false).containsEntity(c));
+        assertTrue(cached.getSuperClasses(d, false).containsEntity(c));
+        // annotations do not change the answers
+        mngr.addAxiom(ont, df.getOWLAnnotationAssertionAxiom(df.getRDFSLabel(), a.getIRI(), df.getOWLLiteral("a")));
+        assertFalse(cached.getSuperClasses(a, false).containsEntity(c));
+        // A is below B, so A's superclasses change even though A is not in the new axiom
+        mngr.addAxiom(ont, df.getOWLSubClassOfAxiom(b, c));
+        assertTrue(cached.getSuperClasses(a, false).containsEntity(c));
+        assertTrue(cached.getSubClasses(c, false).containsEntity(a));
+        assertTrue(cached.getSuperClasses(d, false).containsEntity(c));
+        mngr.removeAxiom(ont, df.getOWLSubClassOfAxiom(a, b));
+        assertFalse(cached.getSuperClasses(a, false).containsEntity(c));
+        assertFalse(cached.getSubClasses(c, false).containsEntity(a));
+        // every class subsumes an unsatisfiable class, including the classes entering the signature
+        mngr.addAxiom(ont, df.getOWLSubClassOfAxiom(d, df.getOWLObjectComplementOf(c)));
+        assertFalse(cached.getSuperClasses(d, false).containsEntity(createClass("E")));
+        mngr.addAxiom(ont, df.getOWLSubClassOfAxiom(createClass("E"), a));
+        assertTrue(cached.getSuperClasses(d, false).containsEntity(createClass("E")));
+    }
+
+    @Test
+    public void testConcurrentMissesShareOneLoad() throws Exception {
+        OWLOntology ont = mngr.createOntology();
+        OWLClass a = createClass("A");
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch waiting = new CountDownLatch(1);
+        OWLReasoner delegate = mock(OWLReasoner.class);
+        when(delegate.getRootOntology()).thenReturn(ont);
+        when(delegate.getSuperClasses(a, false)).thenAnswer(i -> {
+            calls.incrementAndGet();
+            waiting.await();
+            return new OWLClassNodeSet(df.getOWLThing());
+        });
+        OWLReasoner cached = new CachedOWLReasoner(delegate, mngr);
+        ExecutorService exec = Executors.newFixedThreadPool(4);
+        List<Future<NodeSet<OWLClass>>> results = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            results.add(exec.submit(() -> cached.getSuperClasses(a, false)));
+        }
+        Thread.sleep(100);
+        waiting.countDown();
+        for (Future<NodeSet<OWLClass>> f : results) {
+            assertTrue(f.get().containsEntity(df.getOWLThing()));
+        }
+        exec.shutdown();
+        assertEquals(1, calls.get());
+    }
+
+    private static OWLReasoner counting(OWLReasoner delegate, AtomicBoolean counting, AtomicInteger calls) {
+        return (OWLReasoner) Proxy.newProxyInstance(CachedReasonerTest.class.getClassLoader(), new Class<?>[] {
+            OWLReasoner.class }, (proxy, method, args) -> {
+                if (counting.get()) {
+                    calls.incrementAndGet();
+                }
+                try {
+                    return method.invoke(delegate, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            });
+    }
+
+    @Test
+    public void testPrecomputedHierarchiesAnswerWithoutDelegate() throws Exception {
+        OWLOntology ont = createOntology();
+        OWLReasoner plain = new ReasonerFactory().createNonBufferingReasoner(ont);
+        AtomicBoolean counting = new AtomicBoolean();
+        AtomicInteger calls = new AtomicInteger();
+        OWLReasoner cached = new CachedOWLReasoner(counting(plain, counting, calls), mngr);
+        cached.precomputeInferences(InferenceType.CLASS_HIERARCHY, InferenceType.OBJECT_PROPERTY_HIERARCHY,
+            InferenceType.DATA_PROPERTY_HIERARCHY);
+        counting.set(true);
+        for (OWLClass c : asList(ont.classesInSignature())) {
+            for (boolean direct : new boolean[] { true, false }) {
+                assertEquals(plain.getSubClasses(c, direct), cached.getSubClasses(c, direct));
+                assertEquals(plain.getSuperClasses(c, direct), cached.getSuperClasses(c, direct));
+            }
+            assertEquals(plain.getEquivalentClasses(c), cached.getEquivalentClasses(c));
+        }
+        for (OWLObjectPropertyExpression p : asList(ont.objectPropertiesInSignature())) {
+            for (boolean direct : new boolean[] { true, false }) {
+                assertEquals(plain.getSubObjectProperties(p, direct), cached.getSubObjectProperties(p, direct));
+                assertEquals(plain.getSuperObjectProperties(p, direct), cached.getSuperObjectProperties(p, direct));
+            }
+            assertEquals(plain.getEquivalentObjectProperties(p), cached.getEquivalentObjectProperties(p));
+        }
+        for (OWLDataProperty p : asList(ont.dataPropertiesInSignature())) {
+            for (boolean direct : new boolean[] { true, false }) {
+                assertEquals(plain.getSubDataProperties(p, direct), cached.getSubDataProperties(p, direct));
+                assertEquals(plain.getSuperDataProperties(p, direct), cached.getSuperDataProperties(p, direct));
+            }
+        }
+        // unsatisfiable classes still go to the delegate for their superclasses
+        long unsatisfiable = plain.getUnsatisfiableClasses().entities().filter(c -> !c.isOWLNothing()).count();
+        assertEquals(unsatisfiable * 2, calls.get());
+        // any change drops the precomputed hierarchies
+        mngr.addAxiom(ont, df.getOWLSubClassOfAxiom(createClass("X"), createClass("Y")));
+        assertTrue(cached.getSuperClasses(createClass("X"), false).containsEntity(createClass("Y")));
+    }
+
+    @Test
+    public void testAnswersAreDerivedFromCachedResults() throws Exception {
+        OWLOntology ont = createOntology();
+        OWLReasoner plain = new ReasonerFactory().createNonBufferingReasoner(ont);
+        AtomicBoolean counting = new AtomicBoolean();
+        AtomicInteger calls = new AtomicInteger();
+        OWLReasoner cached = new CachedOWLReasoner(counting(plain, counting, calls), mngr);
+        List<OWLClass> classes = asList(ont.classesInSignature());
+        cached.getUnsatisfiableClasses();
+        for (OWLClass c : classes) {
+            cached.getSuperClasses(c, false);
+            cached.getSubClasses(c, false);
+        }
+        counting.set(true);
+        Set<OWLClass> unsatisfiable = asSet(plain.getUnsatisfiableClasses().entities());
+        for (OWLClass c : classes) {
+            assertEquals(plain.isSatisfiable(c), cached.isSatisfiable(c));
+            assertEquals(plain.getEquivalentClasses(c), cached.getEquivalentClasses(c));
+            assertEquals(plain.getSubClasses(c, true), cached.getSubClasses(c, true));
+            if (!unsatisfiable.contains(c)) {
+                assertEquals(plain.getSuperClasses(c, true), cached.getSuperClasses(c, true));
+            }
+        }
+        List<OWLClass> sample = classes.subList(0, Math.min(30, classes.size()));
+        for (OWLClass a : sample) {
+            for (OWLClass b : sample) {
+                OWLAxiom ax = df.getOWLSubClassOfAxiom(a, b);
+                assertEquals(ax.toString(), plain.isEntailed(ax), cached.isEntailed(ax));
+            }
+        }
+        assertEquals(0, calls.get());
+    }
+
+    @Test
+    public void testBulkQueriesAnswerDistinctMissesInParallel() throws Exception {
+        OWLOntology ont = createOntology();
+        OWLReasoner plain = new ReasonerFactory().createNonBufferingReasoner(ont);
+        AtomicBoolean counting = new AtomicBoolean(true);
+        AtomicInteger calls = new AtomicInteger();
+        CachedReasonerConfiguration config = new CachedReasonerConfiguration().setBulkParallelism(4);
+        CachedOWLReasoner cached = new CachedOWLReasoner(counting(new ThreadSafeOWLReasoner(plain), counting, calls),
+            mngr, config);
+        List<OWLClass> classes = asList(ont.classesInSignature());
+        List<OWLClass> half = classes.subList(0, classes.size() / 2);
+        half.forEach(c -> cached.getSuperClasses(c, false));
+        List<OWLClass> withDuplicates = new ArrayList<>(classes);
+        withDuplicates.addAll(half);
+        calls.set(0);
+        Map<OWLClassExpression, NodeSet<OWLClass>> supers = cached.getSuperClasses(withDuplicates, false);
+        assertEquals(classes.size() - half.size(), calls.get());
+        assertEquals(classes, new ArrayList<>(supers.keySet()));
+        for (OWLClass c : classes) {
+            assertEquals(plain.getSuperClasses(c, false), supers.get(c));
+        }
+        Set<OWLAxiom> axioms = asSet(classes.stream().map(c -> df.getOWLSubClassOfAxiom(c, df.getOWLThing())));
+        assertTrue(cached.isEntailed(axioms));
+        axioms.add(df.getOWLSubClassOfAxiom(df.getOWLThing(), classes.get(1)));
+        assertFalse(cached.isEntailed(axioms));
+        assertEquals(classes.size() + 1, cached.areEntailed(axioms).size());
+    }
+
+    @Test
+    public void testNamedKeysHitWithoutDelegateAfterEviction() throws Exception {
+        OWLOntology ont = createOntology();
+        OWLReasoner plain = new ReasonerFactory().createNonBufferingReasoner(ont);
+        AtomicBoolean counting = new AtomicBoolean(true);
+        AtomicInteger calls = new AtomicInteger();
+        CachedOWLReasoner cached = new CachedOWLReasoner(counting(plain, counting, calls), mngr,
+            new CachedReasonerConfiguration().setRegionMaximumWeight(CacheKeys.typesDirect, 20));
+        calls.set(0);
+        OWLClass c = asList(ont.classesInSignature()).get(5);
+        NodeSet<OWLClass> first = cached.getSuperClasses(c, true);
+        assertSame(first, cached.getSuperClasses(c, true));
+        assertEquals(1, calls.get());
+        assertEquals(1, cached.getStatistics().getRegion(CacheKeys.superclassesDirect).getHitCount());
+        // evicted entries are not found by the packed key either
+        List<OWLNamedIndividual> individuals = asList(ont.individualsInSignature());
+        for (OWLNamedIndividual i : individuals) {
+            assertEquals(plain.getTypes(i, true), cached.getTypes(i, true));
+        }
+        for (OWLNamedIndividual i : individuals) {
+            assertEquals(plain.getTypes(i, true), cached.getTypes(i, true));
+        }
+        assertTrue(cached.getStatistics().getRegion(CacheKeys.typesDirect).getWeight() <= 20);
+    }
+
+    @Test
+    public void testCompactResultsAreEqualAndShared() throws Exception {
+        OWLOntology ont = createOntology();
+        OWLReasoner plain = new ReasonerFactory().createNonBufferingReasoner(ont);
+        OWLReasoner cached = new CachedReasonerFactory(new ReasonerFactory(), new CachedReasonerConfiguration()
+            .setCompactResults(true)).createNonBufferingReasoner(ont);
+        Map<NodeSet<OWLClass>, NodeSet<OWLClass>> seen = new HashMap<>();
+        int shared = 0;
+        for (OWLClass c : asList(ont.classesInSignature())) {
+            NodeSet<OWLClass> supers = cached.getSuperClasses(c, true);
+            assertEquals(plain.getSuperClasses(c, true), supers);
+            assertEquals(supers, plain.getSuperClasses(c, true));
+            assertEquals(plain.getSuperClasses(c, true).hashCode(), supers.hashCode());
+            assertEquals(plain.getSubClasses(c, false), cached.getSubClasses(c, false));
+            assertEquals(plain.getInstances(c, false), cached.getInstances(c, false));
+            assertEquals(plain.getSubClasses(c, false).containsEntity(df.getOWLNothing()), cached.getSubClasses(c,
+                false).containsEntity(df.getOWLNothing()));
+            NodeSet<OWLClass> previous = seen.putIfAbsent(supers, supers);
+            if (previous != null) {
+                assertSame(previous, supers);
+                shared++;
+            }
+        }
+        assertTrue(shared > 0);
+        for (OWLNamedIndividual i : asList(ont.individualsInSignature())) {
+            assertEquals(plain.getTypes(i, false), cached.getTypes(i, false));
+        }
+    }
+
+    @Test
+    public void testBufferedChangesMoveTheCacheToANewEpochOnFlush() throws Exception {
+        OWLOntology ont = createOntology();
+        // declared in advance, so that the signature does not change
+        OWLClass top = df.getOWLClass("urn:test:", "Top");
+        ont.add(df.getOWLDeclarationAxiom(top));
+        OWLReasoner buffered = new ReasonerFactory().createReasoner(ont);
+        AtomicBoolean counting = new AtomicBoolean(false);
+        AtomicInteger calls = new AtomicInteger();
+        CachedOWLReasoner cached = new CachedOWLReasoner(counting(new ReasonerFactory().createReasoner(ont), counting,
+            calls), mngr, new CachedReasonerConfiguration().setRewarmOnFlush(true));
+        List<OWLClass> classes = asList(ont.classesInSignature());
+        classes.forEach(c -> cached.getSuperClasses(c, false));
+        int entries = classes.size();
+        ont.add(df.getOWLSubClassOfAxiom(classes.get(0), top));
+        // until flushed, the delegate answers as before the change, and so does the cache
+        counting.set(true);
+        for (OWLClass c : classes) {
+            assertEquals(buffered.getSuperClasses(c, false), cached.getSuperClasses(c, false));
+        }
+        assertEquals(0, calls.get());
+        assertEquals(0, cached.getStatistics().getInvalidationCount());
+        cached.flush();
+        buffered.flush();
+        CacheStatistics statistics = cached.getStatistics();
+        assertEquals(1, statistics.getInvalidationCount());
+        assertTrue(statistics.getInvalidatedEntryCount() > 0);
+        assertTrue(statistics.getInvalidatedEntryCount() < entries);
+        // the invalidated answers have been computed again while flushing
+        calls.set(0);
+        for (OWLClass c : classes) {
+            assertEquals(buffered.getSuperClasses(c, false), cached.getSuperClasses(c, false));
+        }
+        assertTrue(cached.getSuperClasses(classes.get(0), false).containsEntity(top));
+        assertEquals(0, calls.get());
+        cached.dispose();
+    }
+
+    @Test
+    public void testBurstsOfChangesAreInvalidatedOnce() throws Exception {
+        OWLOntology ont = createOntology();
+        OWLReasoner plain = new ReasonerFactory().createNonBufferingReasoner(ont);
+        CachedOWLReasoner cached = new CachedOWLReasoner(new ReasonerFactory().createNonBufferingReasoner(ont), mngr,
+            new CachedReasonerConfiguration().setChangeCoalescing(60000, 60000));
+        List<OWLClass> classes = asList(ont.classesInSignature());
+        classes.forEach(c -> cached.getSuperClasses(c, false));
+        List<OWLClass> added = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            OWLClass sub = df.getOWLClass("urn:test:", "Sub" + i);
+            ont.add(df.getOWLSubClassOfAxiom(sub, classes.get(i)));
+            added.add(sub);
+        }
+        // the first query applies the pending batch: the answers reflect all the changes
+        for (OWLClass c : classes) {
+            assertEquals(plain.getSubClasses(c, false), cached.getSubClasses(c, false));
+            assertEquals(plain.getSuperClasses(c, false), cached.getSuperClasses(c, false));
+        }
+        for (OWLClass c : added) {
+            assertEquals(plain.getSuperClasses(c, false), cached.getSuperClasses(c, false));
+        }
+        CacheStatistics statistics = cached.getStatistics();
+        assertEquals(5, statistics.getOntologiesChangedCount());
+        assertEquals(1, statistics.getInvalidationCount());
+        cached.dispose();
+    }
+
+    @Test
+    public void testSharedCacheIsReferenceCountedAndInvalidatedOnce() throws Exception {
+        OWLOntology ont = createOntology();
+        OWLReasoner plain = new ReasonerFactory().createNonBufferingReasoner(ont);
+        CachedReasonerConfiguration config = new CachedReasonerConfiguration().setSharedCache(true);
+        CachedOWLReasoner first = (CachedOWLReasoner) new CachedReasonerFactory(new ReasonerFactory(), config)
+            .createNonBufferingReasoner(ont);
+        CachedReasonerFactory factory2 = new CachedReasonerFactory(new ReasonerFactory(), config);
+        CachedOWLReasoner second = (CachedOWLReasoner) factory2.createNonBufferingReasoner(ont);
+        CachedOWLReasoner buffering = (CachedOWLReasoner) factory2.createReasoner(ont);
+        List<OWLClass> classes = asList(ont.classesInSignature());
+        classes.forEach(c -> first.getSuperClasses(c, false));
+        for (OWLClass c : classes) {
+            assertEquals(plain.getSuperClasses(c, false), second.getSuperClasses(c, false));
+        }
+        assertEquals(classes.size(), second.getStatistics().getHitCount());
+        assertEquals(0, buffering.getStatistics().getEntryCount());
+        // one listener invalidates the shared results
+        OWLClass sub = df.getOWLClass("urn:test:", "Sub");
+        ont.add(df.getOWLSubClassOfAxiom(sub, classes.get(0)));
+        assertEquals(1, first.getStatistics().getOntologiesChangedCount());
+        assertEquals(plain.getSuperClasses(sub, false), first.getSuperClasses(sub, false));
+        first.dispose();
+        assertEquals(plain.getSuperClasses(sub, false), second.getSuperClasses(sub, false));
+        assertEquals(classes.size() + 1, second.getStatistics().getHitCount());
+        second.dispose();
+        buffering.dispose();
+        // the last release removes the cache: a new reasoner starts empty
+        CachedOWLReasoner third = (CachedOWLReasoner) factory2.createNonBufferingReasoner(ont);
+        assertEquals(0, third.getStatistics().getEntryCount());
+        third.dispose();
+    }
+
+    @Test
+    public void testCanonicalKeysShareEntriesBetweenVariants() throws Exception {
+        OWLOntology ont = createOntology();
+        OWLReasoner plain = new ReasonerFactory().createNonBufferingReasoner(ont);
+        List<OWLClass> classes = asList(ont.classesInSignature());
+        OWLObjectProperty p = asList(ont.objectPropertiesInSignature()).get(0);
+        List<OWLClassExpression> variants = new ArrayList<>();
+        for (int i = 0; i + 2 < classes.size(); i += 3) {
+            OWLClass a = classes.get(i);
+            OWLClass b = classes.get(i + 1);
+            OWLClass c = classes.get(i + 2);
+            variants.add(df.getOWLObjectIntersectionOf(a, df.getOWLObjectIntersectionOf(b, c)));
+            variants.add(df.getOWLObjectIntersectionOf(df.getOWLObjectIntersectionOf(a, b), c));
+            variants.add(df.getOWLObjectSomeValuesFrom(p, a));
+            variants.add(df.getOWLObjectComplementOf(df.getOWLObjectComplementOf(df.getOWLObjectSomeValuesFrom(p,
+                a))));
+            variants.add(df.getOWLObjectAllValuesFrom(p, b));
+            variants.add(df.getOWLObjectComplementOf(df.getOWLObjectSomeValuesFrom(p, df.getOWLObjectComplementOf(
+                b))));
+        }
+        Map<Boolean, CacheStatistics> statistics = new HashMap<>();
+        for (boolean canonicalize : new boolean[] { false, true }) {
+            CachedOWLReasoner cached = new CachedOWLReasoner(new ReasonerFactory().createNonBufferingReasoner(ont),
+                mngr, new CachedReasonerConfiguration().setCanonicalizeExpressions(canonicalize));
+            for (OWLClassExpression ce : variants) {
+                assertEquals(plain.getSuperClasses(ce, false), cached.getSuperClasses(ce, false));
+            }
+            statistics.put(Boolean.valueOf(canonicalize), cached.getStatistics());
+            cached.dispose();
+        }
+        CacheStatistics without = statistics.get(Boolean.FALSE);
+        CacheStatistics with = statistics.get(Boolean.TRUE);
+        assertEquals(0, without.getHitCount());
+        assertEquals(0, without.getCanonicalizedKeyCount());
+        // half of the variants are rewritten, and each of them finds its twin cached
+        assertEquals(variants.size() / 2, with.getHitCount());
+        assertEquals(variants.size() / 2, with.getMissCount());
+        assertTrue(with.getCanonicalizedKeyCount() >= variants.size() / 2);
+        assertTrue(with.getHitRate() > without.getHitRate());
+    }
+
+    @Test
+    public void testDeterministicFailuresAreCachedUntilChange() throws Exception {
+        OWLOntology ont = createOntology();
+        OWLReasoner plain = new ReasonerFactory().createNonBufferingReasoner(ont, new SimpleConfiguration(
+            FreshEntityPolicy.DISALLOW, Long.MAX_VALUE));
+        AtomicBoolean counting = new AtomicBoolean(true);
+        AtomicInteger calls = new AtomicInteger();
+        CachedOWLReasoner cached = new CachedOWLReasoner(counting(plain, counting, calls), mngr,
+            new CachedReasonerConfiguration().setFailureTimeToLive(60000));
+        calls.set(0);
+        OWLClass fresh = df.getOWLClass("urn:test:", "Fresh");
+        for (int i = 0; i < 3; i++) {
+            try {
+                cached.getSuperClasses(fresh, false);
+                fail("Fresh entity should be rejected");
+            } catch (FreshEntitiesException e) {
+                assertTrue(e.getEntities().contains(fresh));
+            }
+        }
+        assertEquals(1, calls.get());
+        ont.add(df.getOWLDeclarationAxiom(fresh));
+        assertEquals(plain.getSuperClasses(fresh, false), cached.getSuperClasses(fresh, false));
+        cached.dispose();
+    }
+
+    @Test
+    public void testMemoryPressureShedsInStagesAndGrowsBack() throws Exception {
+        OWLOntology ont = createOntology();
+        CachedOWLReasoner cached = new CachedOWLReasoner(new ReasonerFactory().createNonBufferingReasoner(ont), mngr,
+            // not registered with the JVM monitor, so that collections triggered by other tests do not interfere
+            new CachedReasonerConfiguration().setMaximumWeight(1000000));
+        try {
+            List<OWLClass> classes = asList(ont.classesInSignature());
+            classes.forEach(c -> cached.getSuperClasses(c, false));
+            long full = cached.getStatistics().getWeight();
+            cached.onMemoryPressure(MemoryPressure.MODERATE);
+            long moderate = cached.getStatistics().getWeight();
+            assertTrue(moderate <= full * 3 / 4);
+            cached.onMemoryPressure(MemoryPressure.HIGH);
+            long high = cached.getStatistics().getWeight();
+            assertTrue(high <= moderate / 2);
+            // repeats of a level that is not rising do not shed again
+            cached.onMemoryPressure(MemoryPressure.HIGH);
+            cached.onMemoryPressure(MemoryPressure.MODERATE);
+            assertEquals(high, cached.getStatistics().getWeight());
+            // new results still evict the coldest entries while the pressure lasts
+            classes.forEach(c -> cached.getSuperClasses(c, false));
+            assertTrue(cached.getStatistics().getWeight() <= moderate / 2);
+            cached.onMemoryPressure(MemoryPressure.CRITICAL);
+            assertEquals(0, cached.getStatistics().getEntryCount());
+            for (int i = 0; i < 64; i++) {
+                cached.onMemoryPressure(MemoryPressure.NONE);
+            }
+            classes.forEach(c -> cached.getSuperClasses(c, false));
+            assertEquals(full, cached.getStatistics().getWeight());
+        } finally {
+            cached.dispose();
+        }
+    }
+
+    @Test
+    public void testStatisticsAreCountedAndExposed() throws Exception {
+        OWLOntology ont = mngr.createOntology();
+        OWLClass a = createClass("A");
+        OWLClass b = createClass("B");
+        mngr.addAxiom(ont, df.getOWLSubClassOfAxiom(a, b));
+        CachedReasonerFactory statsFactory = new CachedReasonerFactory(new ReasonerFactory(),
+            new CachedReasonerConfiguration().setRegisterStatisticsMBean(true));
+        try {
+            CachedOWLReasoner cached = (CachedOWLReasoner) statsFactory.createNonBufferingReasoner(ont);
+            for (int i = 0; i < 3; i++) {
+                cached.getSuperClasses(a, false);
+            }
+            CacheStatistics stats = cached.getStatistics();
+            assertEquals(2, stats.getRegion(CacheKeys.superclasses).getHitCount());
+            assertEquals(1, stats.getRegion(CacheKeys.superclasses).getMissCount());
+            assertEquals(1, stats.getEntryCount());
+            assertEquals(1, LongStream.of(stats.getRegion(CacheKeys.superclasses).getLoadTimeHistogram()).sum());
+            mngr.addAxiom(ont, df.getOWLSubClassOfAxiom(b, createClass("C")));
+            stats = statsFactory.getStatistics();
+            assertEquals(1, stats.getOntologiesChangedCount());
+            assertEquals(1, stats.getInvalidationCount());
+            assertEquals(1, stats.getInvalidatedEntryCount());
+            ObjectName name = statsFactory.getStatisticsMBeanName();
+            assertNotNull(name);
+            assertEquals(Long.valueOf(2), ManagementFactory.getPlatformMBeanServer().getAttribute(name, "HitCount"));
+        } finally {
+            statsFactory.unregisterStatisticsMBean();
+        }
+        assertNull(statsFactory.getStatisticsMBeanName());
+    }
+
+    @Test
+    public void testSnapshotRestoresResultsForSameContent() throws Exception {
+        OWLOntology ont = createOntology();
+        List<OWLClass> classes = asList(ont.classesInSignature());
+        CachedOWLReasoner first = (CachedOWLReasoner) factory.createNonBufferingReasoner(ont);
+        for (OWLClass c : classes) {
+            first.getSuperClasses(c, false);
+            first.getEquivalentClasses(c);
+        }
+        first.isEntailed(df.getOWLSubClassOfAxiom(classes.get(0), df.getOWLThing()));
+        Path file = Files.createTempFile("cache", ".snapshot");
+        try {
+            // the entailment check is keyed by an axiom, and is not saved
+            assertEquals(classes.size() * 2, first.saveSnapshot(file));
+            OWLReasoner plain = new ReasonerFactory().createNonBufferingReasoner(ont);
+            AtomicBoolean counting = new AtomicBoolean();
+            AtomicInteger calls = new AtomicInteger();
+            CachedOWLReasoner second = new CachedOWLReasoner(counting(plain, counting, calls), mngr);
+            assertEquals(classes.size() * 2, second.restoreSnapshot(file));
+            counting.set(true);
+            for (OWLClass c : classes) {
+                assertEquals(plain.getSuperClasses(c, false), second.getSuperClasses(c, false));
+                assertEquals(plain.getEquivalentClasses(c), second.getEquivalentClasses(c));
+            }
+            assertEquals(0, calls.get());
+            mngr.addAxiom(ont, df.getOWLSubClassOfAxiom(createClass("X"), createClass("Y")));
+            assertEquals(-1, second.restoreSnapshot(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testSnapshotIgnoresTheNumberingOfAnonymousOntologies() throws Exception {
+        OWLClass a = createClass("A");
+        OWLAxiom axiom = df.getOWLSubClassOfAxiom(a, createClass("B"));
+        OWLOntology saved = mngr.createOntology();
+        mngr.addAxiom(saved, axiom);
+        CachedOWLReasoner first = (CachedOWLReasoner) factory.createNonBufferingReasoner(saved);
+        first.getSuperClasses(a, false);
+        Path file = Files.createTempFile("cache", ".snapshot");
+        try {
+            assertEquals(1, first.saveSnapshot(file));
+            // a restart creating other anonymous ontologies first
+            mngr.createOntology();
+            OWLOntology restored = mngr.createOntology();
+            mngr.addAxiom(restored, axiom);
+            assertNotEquals(saved.getOntologyID(), restored.getOntologyID());
+            CachedOWLReasoner second = (CachedOWLReasoner) factory.createNonBufferingReasoner(restored);
+            assertEquals(1, second.restoreSnapshot(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testWarmUpFillsConfiguredRegions() throws Exception {
+        OWLOntology ont = createOntology();
+        OWLReasoner plain = new ReasonerFactory().createNonBufferingReasoner(ont);
+        AtomicBoolean counting = new AtomicBoolean();
+        AtomicInteger calls = new AtomicInteger();
+        CachedReasonerConfiguration config = new CachedReasonerConfiguration().setWarmUpParallelism(4)
+            .setWarmUpRegions(EnumSet.of(CacheKeys.superclasses, CacheKeys.disjointclasses));
+        // the warm up queries the delegate from several threads
+        CachedOWLReasoner cached = new CachedOWLReasoner(counting(new ThreadSafeOWLReasoner(plain), counting, calls),
+            mngr, config);
+        cached.precomputeInferences(InferenceType.CLASS_ASSERTIONS);
+        List<OWLClass> classes = asList(ont.classesInSignature().filter(c -> !c.isBuiltIn()));
+        assertEquals(classes.size(), cached.getStatistics().getRegion(CacheKeys.superclasses).getEntryCount());
+        counting.set(true);
+        for (OWLClass c : classes) {
+            assertEquals(plain.getSuperClasses(c, false), cached.getSuperClasses(c, false));
+            assertEquals(plain.getDisjointClasses(c), cached.getDisjointClasses(c));
+        }
+        assertEquals(0, calls.get());
+    }
+
+    @Test
+    public void testEvictedResultsArePromotedFromTheOffHeapTier() throws Exception {
+        OWLOntology ont = createOntology();
+        OWLReasoner plain = new ReasonerFactory().createNonBufferingReasoner(ont);
+        Path directory = Files.createTempDirectory("tier");
+        try {
+            CachedReasonerConfiguration config = new CachedReasonerConfiguration().setRegionMaximumWeight(
+                CacheKeys.superclasses, 50).setOffHeapTier(1 << 20, directory);
+            CachedOWLReasoner cached = new CachedOWLReasoner(plain, mngr, config);
+            List<OWLClass> classes = asList(ont.classesInSignature());
+            for (int i = 0; i < 2; i++) {
+                for (OWLClass c : classes) {
+                    assertEquals(plain.getSuperClasses(c, false), cached.getSuperClasses(c, false));
+                }
+            }
+            CacheStatistics stats = cached.getStatistics();
+            assertTrue(stats.getOffHeapTier().getDemotionCount() > 0);
+            assertTrue(stats.getOffHeapTier().getHitCount() > 0);
+            mngr.addAxiom(ont, df.getOWLSubClassOfAxiom(createClass("X"), classes.get(0)));
+            assertEquals(0, cached.getStatistics().getOffHeapTier().getEntryCount());
+        } finally {
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    public void testLazyDelegateIsCreatedOnFirstMiss() throws Exception {
+        OWLOntology ont = createOntology();
+        List<OWLClass> classes = asList(ont.classesInSignature());
+        CachedOWLReasoner first = (CachedOWLReasoner) factory.createNonBufferingReasoner(ont);
+        for (OWLClass c : classes) {
+            first.getSuperClasses(c, false);
+        }
+        Path file = Files.createTempFile("cache", ".snapshot");
+        try {
+            first.saveSnapshot(file);
+            AtomicInteger created = new AtomicInteger();
+            ReasonerFactory counting = new ReasonerFactory() {
+
+                @Override
+                public OWLReasoner createNonBufferingReasoner(OWLOntology o) {
+                    created.incrementAndGet();
+                    return super.createNonBufferingReasoner(o);
+                }
+            };
+            CachedReasonerFactory lazy = new CachedReasonerFactory(counting, new CachedReasonerConfiguration()
+                .setLazyDelegate(true, false));
+            lazy.createNonBufferingReasoner(ont).dispose();
+            CachedOWLReasoner cached = (CachedOWLReasoner) lazy.createNonBufferingReasoner(ont);
+            assertEquals(0, created.get());
+            assertEquals(classes.size(), cached.restoreSnapshot(file));
+            OWLReasoner plain = new ReasonerFactory().createNonBufferingReasoner(ont);
+            // the snapshot is checked against the name and version given by the factory
+            assertEquals(0, created.get());
+            for (OWLClass c : classes) {
+                assertEquals(plain.getSuperClasses(c, false), cached.getSuperClasses(c, false));
+            }
+            assertEquals(0, created.get());
+            assertFalse(cached.isPrecomputed(InferenceType.CLASS_HIERARCHY));
+            assertEquals(plain.getSubClasses(classes.get(0), true), cached.getSubClasses(classes.get(0), true));
+            assertEquals(1, created.get());
+            CachedReasonerFactory background = new CachedReasonerFactory(counting, new CachedReasonerConfiguration()
+                .setLazyDelegate(true, true));
+            background.createNonBufferingReasoner(ont);
+            for (int i = 0; i < 100 && created.get() < 2; i++) {
+                Thread.sleep(50);
+            }
+            assertEquals(2, created.get());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testThreadLocalCacheIsInvalidatedWithTheSharedCache() throws Exception {
+        OWLOntology ont = mngr.createOntology();
+        OWLClass a = createClass("A");
+        OWLClass b = createClass("B");
+        OWLClass c = createClass("C");
+        mngr.addAxiom(ont, df.getOWLSubClassOfAxiom(a, b));
+        OWLReasoner plain = new ReasonerFactory().createNonBufferingReasoner(ont);
+        // unbounded regions bypass the thread local cache
+        CachedOWLReasoner cached = new CachedOWLReasoner(plain, mngr, new CachedReasonerConfiguration()
+            .setThreadLocalCacheSize(16).setMaximumWeight(1000000));
+        for (int i = 0; i < 3; i++) {
+            assertEquals(plain.getSuperClasses(a, false), cached.getSuperClasses(a, false));
+        }
+        assertEquals(2, cached.getStatistics().getRegion(CacheKeys.superclasses).getHitCount());
+        ExecutorService other = Executors.newSingleThreadExecutor();
+        try {
+            assertEquals(plain.getSuperClasses(a, false), other.submit(() -> cached.getSuperClasses(a, false)).get());
+            mngr.addAxiom(ont, df.getOWLSubClassOfAxiom(b, c));
+            assertTrue(cached.getSuperClasses(a, false).containsEntity(c));
+            assertTrue(other.submit(() -> cached.getSuperClasses(a, false)).get().containsEntity(c));
+        } finally {
+            other.shutdown();
+        }
+    }
+}
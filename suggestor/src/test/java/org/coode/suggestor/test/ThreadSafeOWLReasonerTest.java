@@ -0,0 +1,349 @@
+package org.coode.suggestor.test;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.stream.LongStream;
+
+import javax.management.ObjectName;
+
+import org.junit.Test;
+import org.semanticweb.HermiT.ReasonerFactory;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.reasoner.InferenceType;
+import org.semanticweb.owlapi.reasoner.NodeSet;
+import org.semanticweb.owlapi.reasoner.OWLReasoner;
+import org.semanticweb.owlapi.reasoner.ReasonerInterruptedException;
+import org.semanticweb.owlapi.reasoner.TimeOutException;
+
+import uk.ac.manchester.cs.owl.owlapi.alternateimpls.AdmissionContext;
+import uk.ac.manchester.cs.owl.owlapi.alternateimpls.LockStatistics;
+import uk.ac.manchester.cs.owl.owlapi.alternateimpls.MethodLockStatistics;
+import uk.ac.manchester.cs.owl.owlapi.alternateimpls.RequestPriority;
+import uk.ac.manchester.cs.owl.owlapi.alternateimpls.ThreadSafeOWLReasoner;
+
+@SuppressWarnings("javadoc")
+public class ThreadSafeOWLReasonerTest extends AbstractSuggestorTest {
+
+    /** @return a reasoner running the hook with the method name before each call to the delegate */
+    private static OWLReasoner before(OWLReasoner delegate, Consumer<String> hook) {
+        return (OWLReasoner) Proxy.newProxyInstance(ThreadSafeOWLReasonerTest.class.getClassLoader(), new Class<?>[] {
+            OWLReasoner.class }, (proxy, method, args) -> {
+                hook.accept(method.getName());
+                try {
+                    return method.invoke(delegate, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            });
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    public void testConcurrentReadsShareTheLock() throws Exception {
+        OWLOntology ont = mngr.createOntology();
+        OWLClass a = createClass("A");
+        mngr.addAxiom(ont, df.getOWLSubClassOfAxiom(a, createClass("B")));
+        OWLReasoner plain = new ReasonerFactory().createNonBufferingReasoner(ont);
+        plain.precomputeInferences(InferenceType.CLASS_HIERARCHY);
+        CountDownLatch inside = new CountDownLatch(2);
+        CountDownLatch flushing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ThreadSafeOWLReasoner reasoner = new ThreadSafeOWLReasoner(before(plain, name -> {
+            if (name.equals("getSuperClasses")) {
+                // both queries must be inside the delegate at the same time
+                inside.countDown();
+                await(inside);
+            } else if (name.equals("flush")) {
+                flushing.countDown();
+                await(release);
+            }
+        }), true);
+        assertTrue(reasoner.isConcurrentReads());
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<NodeSet<OWLClass>> first = pool.submit(() -> reasoner.getSuperClasses(a, false));
+            Future<NodeSet<OWLClass>> second = pool.submit(() -> reasoner.getSuperClasses(a, false));
+            assertEquals(plain.getSuperClasses(a, false), first.get());
+            assertEquals(plain.getSuperClasses(a, false), second.get());
+            assertEquals(0, inside.getCount());
+            // flush excludes queries, but not the metadata getters
+            Future<?> flush = pool.submit(reasoner::flush);
+            flushing.await();
+            assertEquals(plain.getReasonerName(), reasoner.getReasonerName());
+            Future<Boolean> query = pool.submit(() -> Boolean.valueOf(reasoner.isConsistent()));
+            try {
+                query.get(200, TimeUnit.MILLISECONDS);
+                fail("the query should wait for the flush");
+            } catch (TimeoutException e) {
+                // expected
+            }
+            release.countDown();
+            flush.get();
+            assertTrue(query.get().booleanValue());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static FutureTask<Boolean> start(Callable<Boolean> call, String name) {
+        FutureTask<Boolean> task = new FutureTask<>(call);
+        new Thread(task, name).start();
+        return task;
+    }
+
+    private static Thread waitingThread(String name) throws InterruptedException {
+        while (true) {
+            for (Thread t : Thread.getAllStackTraces().keySet()) {
+                if (t.getName().equals(name) && t.getState() == Thread.State.WAITING) {
+                    return t;
+                }
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static void assertInterrupted(FutureTask<Boolean> task) throws Exception {
+        try {
+            task.get(5, TimeUnit.SECONDS);
+            fail("the call should have been interrupted");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ReasonerInterruptedException);
+        }
+    }
+
+    @Test
+    public void testInterruptDoesNotWaitForTheRunningCall() throws Exception {
+        OWLOntology ont = mngr.createOntology();
+        OWLClass a = createClass("A");
+        mngr.addAxiom(ont, df.getOWLSubClassOfAxiom(a, createClass("B")));
+        OWLReasoner plain = new ReasonerFactory().createNonBufferingReasoner(ont);
+        Semaphore inside = new Semaphore(0);
+        Semaphore interrupted = new Semaphore(0);
+        ThreadSafeOWLReasoner reasoner = new ThreadSafeOWLReasoner(before(plain, name -> {
+            if (name.equals("getSuperClasses")) {
+                // a pathological query, running until interrupted
+                inside.release();
+                interrupted.acquireUninterruptibly();
+                throw new ReasonerInterruptedException();
+            } else if (name.equals("interrupt")) {
+                interrupted.release();
+            }
+        }));
+        FutureTask<Boolean> stuck = start(() -> Boolean.valueOf(reasoner.getSuperClasses(a, false).isEmpty()),
+            "stuck");
+        inside.acquire();
+        FutureTask<Boolean> waiting = start(() -> Boolean.valueOf(reasoner.isConsistent()), "waiting");
+        waitingThread("waiting");
+        reasoner.interrupt();
+        assertInterrupted(stuck);
+        assertInterrupted(waiting);
+        // cancelling one caller leaves the other callers alone
+        stuck = start(() -> Boolean.valueOf(reasoner.getSuperClasses(a, false).isEmpty()), "stuck");
+        inside.acquire();
+        waiting = start(() -> Boolean.valueOf(reasoner.isConsistent()), "waiting");
+        Thread cancelled = waitingThread("waiting");
+        FutureTask<Boolean> other = start(() -> Boolean.valueOf(reasoner.isConsistent()), "other");
+        waitingThread("other");
+        assertTrue(reasoner.cancel(cancelled));
+        assertInterrupted(waiting);
+        assertFalse(other.isDone());
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.getName().equals("stuck")) {
+                assertTrue(reasoner.cancel(t));
+            }
+        }
+        assertInterrupted(stuck);
+        assertTrue(other.get(5, TimeUnit.SECONDS).booleanValue());
+        assertFalse(reasoner.cancel(Thread.currentThread()));
+    }
+
+    @Test
+    public void testReentrantCallLeavesTheOuterCallCancellable() throws Exception {
+        OWLOntology ont = mngr.createOntology();
+        OWLClass a = createClass("A");
+        mngr.addAxiom(ont, df.getOWLSubClassOfAxiom(a, createClass("B")));
+        OWLReasoner plain = new ReasonerFactory().createNonBufferingReasoner(ont);
+        Semaphore inside = new Semaphore(0);
+        Semaphore interrupted = new Semaphore(0);
+        ThreadSafeOWLReasoner[] wrapper = new ThreadSafeOWLReasoner[1];
+        ThreadSafeOWLReasoner reasoner = new ThreadSafeOWLReasoner(before(plain, name -> {
+            if (name.equals("getSuperClasses")) {
+                // the reentrant call ends before the outer call
+                wrapper[0].isConsistent();
+                inside.release();
+                interrupted.acquireUninterruptibly();
+                throw new ReasonerInterruptedException();
+            } else if (name.equals("interrupt")) {
+                interrupted.release();
+            }
+        }));
+        wrapper[0] = reasoner;
+        FutureTask<Boolean> stuck = start(() -> Boolean.valueOf(reasoner.getSuperClasses(a, false).isEmpty()),
+            "reentrant");
+        inside.acquire();
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.getName().equals("reentrant")) {
+                assertTrue(reasoner.cancel(t));
+            }
+        }
+        assertInterrupted(stuck);
+    }
+
+    @Test
+    public void testLockStatisticsAreCollectedAndExposed() throws Exception {
+        OWLOntology ont = mngr.createOntology();
+        OWLClass a = createClass("A");
+        mngr.addAxiom(ont, df.getOWLSubClassOfAxiom(a, createClass("B")));
+        OWLReasoner plain = new ReasonerFactory().createNonBufferingReasoner(ont);
+        CountDownLatch inside = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ThreadSafeOWLReasoner reasoner = new ThreadSafeOWLReasoner(before(plain, name -> {
+            if (name.equals("getSuperClasses")) {
+                inside.countDown();
+                await(release);
+            }
+        }));
+        reasoner.isConsistent();
+        assertFalse(reasoner.isStatisticsEnabled());
+        assertTrue(reasoner.getStatistics().getMethods().isEmpty());
+        ObjectName name = reasoner.registerStatisticsMBean();
+        try {
+            assertTrue(reasoner.isStatisticsEnabled());
+            FutureTask<Boolean> slow = start(() -> Boolean.valueOf(reasoner.getSuperClasses(a, false).isEmpty()),
+                "slow");
+            inside.await();
+            FutureTask<Boolean> waiting = start(() -> Boolean.valueOf(reasoner.isConsistent()), "waiting");
+            waitingThread("waiting");
+            assertEquals(1, reasoner.getStatistics().getWaitingCount());
+            Thread.sleep(20);
+            release.countDown();
+            assertFalse(slow.get().booleanValue());
+            assertTrue(waiting.get().booleanValue());
+            LockStatistics stats = reasoner.getStatistics();
+            assertEquals(0, stats.getWaitingCount());
+            assertEquals(1, stats.getMaximumWaitingCount());
+            assertEquals("getSuperClasses", stats.getSlowestHoldMethod());
+            assertEquals("slow", stats.getSlowestHoldThread());
+            MethodLockStatistics consistency = stats.getMethod("isConsistent");
+            assertNotNull(consistency);
+            assertEquals(1, consistency.getCallCount());
+            assertTrue(consistency.getTotalWaitNanos() >= TimeUnit.MILLISECONDS.toNanos(20));
+            assertEquals(1, LongStream.of(consistency.getHoldTimeHistogram()).sum());
+            assertEquals("getSuperClasses", ManagementFactory.getPlatformMBeanServer().getAttribute(name,
+                "SlowestHoldMethod"));
+        } finally {
+            reasoner.dispose();
+        }
+        assertNull(reasoner.getStatisticsMBeanName());
+    }
+
+    @Test
+    public void testInteractiveCallersOvertakeBatchCallersUntilTheirDeadline() throws Exception {
+        OWLOntology ont = mngr.createOntology();
+        OWLClass a = createClass("A");
+        mngr.addAxiom(ont, df.getOWLSubClassOfAxiom(a, createClass("B")));
+        OWLReasoner plain = new ReasonerFactory().createNonBufferingReasoner(ont);
+        CountDownLatch inside = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> admitted = Collections.synchronizedList(new ArrayList<>());
+        ThreadSafeOWLReasoner reasoner = new ThreadSafeOWLReasoner(before(plain, name -> {
+            if (name.equals("getSuperClasses")) {
+                inside.countDown();
+                await(release);
+            } else if (name.equals("isConsistent")) {
+                admitted.add(Thread.currentThread().getName());
+            }
+        }));
+        reasoner.enablePriorityAdmission(1, TimeUnit.HOURS);
+        FutureTask<Boolean> slow = start(() -> Boolean.valueOf(reasoner.getSuperClasses(a, false).isEmpty()),
+            "slow");
+        inside.await();
+        // the first batch caller is already trying the lock; the second one can be overtaken
+        FutureTask<Boolean> batch1 = start(() -> Boolean.valueOf(reasoner.isConsistent()), "batch1");
+        waitingThread("batch1");
+        FutureTask<Boolean> batch2 = start(() -> Boolean.valueOf(reasoner.isConsistent()), "batch2");
+        waitingThread("batch2");
+        FutureTask<Boolean> interactive = start(() -> {
+            try (AdmissionContext c = AdmissionContext.open(RequestPriority.INTERACTIVE)) {
+                return Boolean.valueOf(reasoner.isConsistent());
+            }
+        }, "interactive");
+        waitingThread("interactive");
+        try (AdmissionContext c = AdmissionContext.open(RequestPriority.INTERACTIVE, 50, TimeUnit.MILLISECONDS)) {
+            reasoner.isConsistent();
+            fail("the call should time out while waiting");
+        } catch (TimeOutException e) {
+            assertTrue(e.getMessage().contains("waiting"));
+        }
+        try (AdmissionContext c = AdmissionContext.open(RequestPriority.INTERACTIVE, 0, TimeUnit.MILLISECONDS)) {
+            reasoner.getReasonerName();
+            fail("the call should be rejected");
+        } catch (TimeOutException e) {
+            assertTrue(e.getMessage().contains("before calling getReasonerName"));
+        }
+        release.countDown();
+        assertFalse(slow.get().booleanValue());
+        assertTrue(batch1.get().booleanValue());
+        assertTrue(batch2.get().booleanValue());
+        assertTrue(interactive.get().booleanValue());
+        assertEquals(Arrays.asList("batch1", "interactive", "batch2"), admitted);
+    }
+
+    @Test
+    public void testDisposeIgnoresDeadlinesAndInterruption() throws Exception {
+        OWLOntology ont = mngr.createOntology();
+        List<String> disposed = Collections.synchronizedList(new ArrayList<>());
+        ThreadSafeOWLReasoner expired = new ThreadSafeOWLReasoner(before(new ReasonerFactory()
+            .createNonBufferingReasoner(ont), name -> {
+                if (name.equals("dispose")) {
+                    disposed.add("expired");
+                }
+            }));
+        expired.registerStatisticsMBean();
+        try (AdmissionContext c = AdmissionContext.open(RequestPriority.INTERACTIVE, 0, TimeUnit.MILLISECONDS)) {
+            expired.dispose();
+        }
+        assertNull(expired.getStatisticsMBeanName());
+        ThreadSafeOWLReasoner interrupted = new ThreadSafeOWLReasoner(before(new ReasonerFactory()
+            .createNonBufferingReasoner(ont), name -> {
+                if (name.equals("dispose")) {
+                    disposed.add("interrupted");
+                }
+            }));
+        interrupted.registerStatisticsMBean();
+        Thread.currentThread().interrupt();
+        try {
+            interrupted.dispose();
+        } finally {
+            assertTrue(Thread.interrupted());
+        }
+        assertNull(interrupted.getStatisticsMBeanName());
+        assertEquals(Arrays.asList("expired", "interrupted"), disposed);
+    }
+}
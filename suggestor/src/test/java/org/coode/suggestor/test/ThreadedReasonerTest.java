@@ -0,0 +1,85 @@
+package org.coode.suggestor.test;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.semanticweb.HermiT.ReasonerFactory;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.reasoner.OWLReasoner;
+import org.semanticweb.owlapi.reasoner.ReasonerInterruptedException;
+import org.semanticweb.owlapi.reasoner.TimeOutException;
+import org.semanticweb.owlapitools.threadedreasoner.ThreadedReasoner;
+
+@SuppressWarnings("javadoc")
+public class ThreadedReasonerTest extends AbstractSuggestorTest {
+
+    @Test
+    public void testTimeOutCancelsOnlyTheSlowCall() throws Exception {
+        OWLOntology ont = mngr.createOntology();
+        OWLClass a = createClass("A");
+        mngr.addAxiom(ont, df.getOWLSubClassOfAxiom(a, createClass("B")));
+        OWLReasoner plain = new ReasonerFactory().createNonBufferingReasoner(ont);
+        AtomicReference<Thread> worker = new AtomicReference<>();
+        Semaphore stuck = new Semaphore(0);
+        OWLReasoner slow = (OWLReasoner) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {
+            OWLReasoner.class }, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getTimeOut":
+                        return Long.valueOf(200);
+                    case "isConsistent":
+                        worker.set(Thread.currentThread());
+                        break;
+                    case "getSubClasses":
+                        try {
+                            Thread.sleep(10000);
+                        } catch (InterruptedException e) {
+                            throw new ReasonerInterruptedException(e);
+                        }
+                        break;
+                    case "getSuperClasses":
+                        // ignores interruptions
+                        stuck.acquireUninterruptibly();
+                        break;
+                    default:
+                        break;
+                }
+                try {
+                    return method.invoke(plain, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            });
+        ThreadedReasoner reasoner = new ThreadedReasoner(slow, 100);
+        try {
+            assertTrue(reasoner.isConsistent());
+            Thread first = worker.get();
+            try {
+                reasoner.getSubClasses(a, false);
+                fail("the call should time out");
+            } catch (TimeOutException e) {
+                // expected
+            }
+            // the interrupted call returned: same worker
+            assertTrue(reasoner.isConsistent());
+            assertSame(first, worker.get());
+            try {
+                reasoner.getSuperClasses(a, false);
+                fail("the call should time out");
+            } catch (TimeOutException e) {
+                // expected
+            }
+            // the worker is stuck, and has been replaced
+            assertTrue(reasoner.isConsistent());
+            assertNotSame(first, worker.get());
+        } finally {
+            stuck.release();
+            reasoner.dispose();
+        }
+    }
+}